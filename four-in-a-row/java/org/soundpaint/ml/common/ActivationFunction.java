@@ -18,50 +18,77 @@
  */
 package org.soundpaint.ml.common;
 
+import java.util.function.DoubleUnaryOperator;
 import java.util.function.Function;
 
 public interface ActivationFunction<T> extends Function<T, T>
 {
-  public enum Standard implements ActivationFunction<Double>
+  public enum Standard
+    implements ActivationFunction<Double>, DoubleUnaryOperator
   {
     IDENTITY("identity")
     {
-      public Double apply(final Double input)
+      public double applyAsDouble(final double input)
       {
         return input;
       }
+
+      public double derivativeOfOutput(final double output)
+      {
+        return 1.0;
+      }
     },
 
     THRESHOLD("threshold")
     {
-      public Double apply(final Double input)
+      public double applyAsDouble(final double input)
       {
         return 1.0 / (1.0 + Math.exp(-input));
       }
+
+      public double derivativeOfOutput(final double output)
+      {
+        return output * (1.0 - output);
+      }
     },
 
     SIGMOID("sigmoid")
     {
-      public Double apply(final Double input)
+      public double applyAsDouble(final double input)
       {
         return 1.0 / (1.0 + Math.exp(-input));
       }
+
+      public double derivativeOfOutput(final double output)
+      {
+        return output * (1.0 - output);
+      }
     },
 
     HYPERBOLIC_TANGENT("hyperbolic tangent")
     {
-      public Double apply(final Double input)
+      public double applyAsDouble(final double input)
       {
         return Math.tanh(input);
       }
+
+      public double derivativeOfOutput(final double output)
+      {
+        return 1.0 - output * output;
+      }
     },
 
     RECTIFIED_LINEAR_UNIT("rectified linear unit")
     {
-      public Double apply(final Double input)
+      public double applyAsDouble(final double input)
       {
         return input < 0.0 ? 0.0 : input;
       }
+
+      public double derivativeOfOutput(final double output)
+      {
+        return output > 0.0 ? 1.0 : 0.0;
+      }
     };
 
     private final String id;
@@ -81,6 +108,19 @@ public interface ActivationFunction<T> extends Function<T, T>
       return id;
     }
 
+    /**
+     * Returns the derivative of this function at the input that it
+     * maps to the given output.  For the standard functions, the
+     * derivative is a function of the output alone, such that the
+     * input need not be kept for computing gradients.
+     */
+    public abstract double derivativeOfOutput(final double output);
+
+    public Double apply(final Double input)
+    {
+      return applyAsDouble(input);
+    }
+
     public String toString()
     {
       return "activation function " + id;
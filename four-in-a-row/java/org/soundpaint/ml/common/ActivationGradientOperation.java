@@ -0,0 +1,69 @@
+/*
+ * @(#)ActivationGradientOperation.java 1.00 26/10/18
+ *
+ * Copyright (C) 2026 Jürgen Reuter
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.soundpaint.ml.common;
+
+import java.util.List;
+
+/**
+ * Computes the gradient of {@link ActivationOperation} as the output
+ * gradient multiplied element-wise with the derivative of the
+ * activation function.  The derivative is expressed in terms of the
+ * output value of the activation, since the activation overwrites
+ * its input value.
+ */
+public class ActivationGradientOperation<T extends Matrix>
+  extends Operation<T, T>
+{
+  private final ActivationFunction.Standard function;
+
+  public ActivationGradientOperation(final ActivationFunction.Standard function,
+                                     final Node<?, T> outputGradient,
+                                     final Node<?, T> output)
+  {
+    super(function.getId() + "gradientop", List.of(outputGradient, output));
+    this.function = function;
+  }
+
+  // T is Matrix, which has no subclasses
+  @SuppressWarnings("unchecked")
+  public T performOperation()
+  {
+    if (inputValues.size() != 2) {
+      throw new IllegalArgumentException("require 2 operands, got: " +
+                                         inputValues.size());
+    }
+    final T outputGradient = inputValues.get(0);
+    final T output = inputValues.get(1);
+    final Matrix gradient =
+      Matrix.reuseOrCreate(getReusableOutputValue(), getMatrixPool(),
+                           output.getRows(), output.getColumns(),
+                           outputGradient, output);
+    MatrixExpression.of(outputGradient).
+      multiply(MatrixExpression.of(output).map(function::derivativeOfOutput)).
+      materializeInto(gradient);
+    return (T)gradient;
+  }
+}
+
+/*
+ * Local Variables:
+ *   coding:utf-8
+ *   mode:Java
+ * End:
+ */
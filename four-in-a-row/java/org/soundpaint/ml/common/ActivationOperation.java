@@ -19,15 +19,16 @@
 package org.soundpaint.ml.common;
 
 import java.util.List;
-import java.util.function.Function;
+import java.util.function.DoubleUnaryOperator;
 
-// Matrices currently work only for base type Double.  Therefore,
-// ActivationFunction currently needs to have base type Double as
-// well.  This will change when the Matrices will have a variable base
-// type.
+// Matrices are read and written as Double values, whatever their data
+// type for storage.  Therefore, ActivationFunction currently needs to
+// have base type Double as well.  Standard activation functions also
+// implement DoubleUnaryOperator and are then applied without boxing.
 public class ActivationOperation<T extends Matrix> extends Operation<T, T>
 {
   private final ActivationFunction<Double> function;
+  private final DoubleUnaryOperator operator;
 
   private static <T> String getFunctionId(final ActivationFunction<T> function)
   {
@@ -42,6 +43,18 @@ public class ActivationOperation<T extends Matrix> extends Operation<T, T>
   {
     super(getFunctionId(function), List.of(x));
     this.function = function;
+    operator =
+      function instanceof DoubleUnaryOperator ?
+      (DoubleUnaryOperator)function :
+      (input -> function.apply(input));
+  }
+
+  /**
+   * Returns the activation function as operator on primitive values.
+   */
+  DoubleUnaryOperator getOperator()
+  {
+    return operator;
   }
 
   public T performOperation()
@@ -51,15 +64,24 @@ public class ActivationOperation<T extends Matrix> extends Operation<T, T>
                                          inputValues.size());
     }
     final T inputValue = inputValues.get(0);
-    for (int row = 0; row < inputValue.getRows(); row++) {
-      for (int column = 0; column < inputValue.getColumns(); column++) {
-        final Double elementBefore = inputValue.getElementAt(row, column);
-        final Double elementAfter = function.apply(elementBefore);
-        inputValue.setElementAt(row, column, elementAfter);
-      }
-    }
+    inputValue.mapInto(operator, inputValue);
     return inputValue;
   }
+
+  /**
+   * Gradients are defined for the standard activation functions only.
+   */
+  @Override
+  public Node<?, T> createGradient(final int index,
+                                   final Node<?, T> outputGradient)
+  {
+    if (!(function instanceof ActivationFunction.Standard)) {
+      return super.createGradient(index, outputGradient);
+    }
+    return
+      new ActivationGradientOperation<T>((ActivationFunction.Standard)function,
+                                         outputGradient, this);
+  }
 }
 
 /*
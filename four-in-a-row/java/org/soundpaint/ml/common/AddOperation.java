@@ -36,6 +36,13 @@ public class AddOperation extends Operation<Double, Double>
     }
     return inputValues.get(0) + inputValues.get(1);
   }
+
+  @Override
+  public Node<?, Double> createGradient(final int index,
+                                        final Node<?, Double> outputGradient)
+  {
+    return outputGradient;
+  }
 }
 
 /*
@@ -0,0 +1,393 @@
+/*
+ * @(#)ArrayKernels.java 1.00 26/10/18
+ *
+ * Copyright (C) 2026 Jürgen Reuter
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.soundpaint.ml.common;
+
+/**
+ * Element loops over contiguous ranges of double and float arrays, as
+ * used by the matrix kernels.  Float loops compute element-wise
+ * results in float arithmetic, but accumulate sums and dot products
+ * in double precision.  This class provides the portable scalar
+ * implementation.  If the JDK's incubating vector API module
+ * <code>jdk.incubator.vector</code> is present at runtime, {@link
+ * #getInstance()} instead returns the SIMD implementation {@link
+ * VectorArrayKernels}.  That class is loaded reflectively, such that
+ * no other class links against the incubator module.
+ *
+ * Setting the system property
+ * <code>org.soundpaint.ml.common.scalarKernels</code> to
+ * <code>true</code> forces the scalar implementation.
+ */
+class ArrayKernels
+{
+  private static final String VECTOR_MODULE = "jdk.incubator.vector";
+  private static final String VECTOR_KERNELS_CLASS =
+    "org.soundpaint.ml.common.VectorArrayKernels";
+
+  private static final ArrayKernels instance = loadInstance();
+
+  private static ArrayKernels loadInstance()
+  {
+    if (!Boolean.getBoolean("org.soundpaint.ml.common.scalarKernels") &&
+        ModuleLayer.boot().findModule(VECTOR_MODULE).isPresent()) {
+      try {
+        return
+          (ArrayKernels)Class.forName(VECTOR_KERNELS_CLASS).
+          getDeclaredConstructor().newInstance();
+      } catch (final ReflectiveOperationException | LinkageError e) {
+        // vector API not usable => fall back to scalar kernels
+      }
+    }
+    return new ArrayKernels();
+  }
+
+  static ArrayKernels getInstance()
+  {
+    return instance;
+  }
+
+  ArrayKernels()
+  {
+  }
+
+  /**
+   * Returns a short name of this implementation, which the execution
+   * policies report in their string representation.
+   */
+  String getId()
+  {
+    return "scalar";
+  }
+
+  /**
+   * c[cIndex + i] = a[aIndex + i] + b[bIndex + i] for 0 ≤ i &lt; length.
+   */
+  void add(final double[] a, final int aIndex,
+           final double[] b, final int bIndex,
+           final double[] c, final int cIndex,
+           final int length)
+  {
+    for (int i = 0; i < length; i++) {
+      c[cIndex + i] = a[aIndex + i] + b[bIndex + i];
+    }
+  }
+
+  /**
+   * c[cIndex + i] = a[aIndex + i] * b[bIndex + i] for 0 ≤ i &lt; length.
+   */
+  void multiply(final double[] a, final int aIndex,
+                final double[] b, final int bIndex,
+                final double[] c, final int cIndex,
+                final int length)
+  {
+    for (int i = 0; i < length; i++) {
+      c[cIndex + i] = a[aIndex + i] * b[bIndex + i];
+    }
+  }
+
+  /**
+   * c[cIndex + i] = a[aIndex + i] + value for 0 ≤ i &lt; length.
+   */
+  void add(final double[] a, final int aIndex,
+           final double value,
+           final double[] c, final int cIndex,
+           final int length)
+  {
+    for (int i = 0; i < length; i++) {
+      c[cIndex + i] = a[aIndex + i] + value;
+    }
+  }
+
+  /**
+   * c[cIndex + i] = a[aIndex + i] * factor for 0 ≤ i &lt; length.
+   */
+  void scale(final double[] a, final int aIndex,
+             final double factor,
+             final double[] c, final int cIndex,
+             final int length)
+  {
+    for (int i = 0; i < length; i++) {
+      c[cIndex + i] = a[aIndex + i] * factor;
+    }
+  }
+
+  /**
+   * Returns the sum of a[aIndex + i] for 0 ≤ i &lt; length, with
+   * compensated summation: the rounding error of each addition is
+   * computed exactly by Knuth's TwoSum and accumulated separately,
+   * such that the error of the result does not grow with length.
+   */
+  double sumCompensated(final double[] a, final int aIndex,
+                        final int length)
+  {
+    double sum = 0.0;
+    double compensation = 0.0;
+    for (int i = 0; i < length; i++) {
+      final double value = a[aIndex + i];
+      final double t = sum + value;
+      final double v = t - sum;
+      compensation += (sum - (t - v)) + (value - v);
+      sum = t;
+    }
+    return sum + compensation;
+  }
+
+  /**
+   * sums[index + i] += a[aIndex + i] for 0 ≤ i &lt; length, with
+   * compensated summation as for {@link #sumCompensated(double[], int,
+   * int)}, accumulating the rounding errors in compensations[index +
+   * i].
+   */
+  void addCompensated(final double[] a, final int aIndex,
+                      final double[] sums, final double[] compensations,
+                      final int index, final int length)
+  {
+    for (int i = 0; i < length; i++) {
+      final double value = a[aIndex + i];
+      final double sum = sums[index + i];
+      final double t = sum + value;
+      final double v = t - sum;
+      compensations[index + i] += (sum - (t - v)) + (value - v);
+      sums[index + i] = t;
+    }
+  }
+
+  /**
+   * Returns the sum of a[aIndex + i] * b[bIndex + i] for 0 ≤ i &lt;
+   * length.
+   */
+  double dot(final double[] a, final int aIndex,
+             final double[] b, final int bIndex,
+             final int length)
+  {
+    double sum = 0.0;
+    for (int i = 0; i < length; i++) {
+      sum += a[aIndex + i] * b[bIndex + i];
+    }
+    return sum;
+  }
+
+  /**
+   * y[yIndex + i] += a * x[xIndex + i] for 0 ≤ i &lt; length.
+   */
+  void axpy(final double a,
+            final double[] x, final int xIndex,
+            final double[] y, final int yIndex,
+            final int length)
+  {
+    for (int i = 0; i < length; i++) {
+      y[yIndex + i] += a * x[xIndex + i];
+    }
+  }
+
+  /**
+   * c[cIndex + i] = a[aIndex + i] + b[bIndex + i] for 0 ≤ i &lt; length.
+   */
+  void add(final float[] a, final int aIndex,
+           final float[] b, final int bIndex,
+           final float[] c, final int cIndex,
+           final int length)
+  {
+    for (int i = 0; i < length; i++) {
+      c[cIndex + i] = a[aIndex + i] + b[bIndex + i];
+    }
+  }
+
+  /**
+   * c[cIndex + i] = a[aIndex + i] * b[bIndex + i] for 0 ≤ i &lt; length.
+   */
+  void multiply(final float[] a, final int aIndex,
+                final float[] b, final int bIndex,
+                final float[] c, final int cIndex,
+                final int length)
+  {
+    for (int i = 0; i < length; i++) {
+      c[cIndex + i] = a[aIndex + i] * b[bIndex + i];
+    }
+  }
+
+  /**
+   * c[cIndex + i] = a[aIndex + i] + value for 0 ≤ i &lt; length.
+   */
+  void add(final float[] a, final int aIndex,
+           final float value,
+           final float[] c, final int cIndex,
+           final int length)
+  {
+    for (int i = 0; i < length; i++) {
+      c[cIndex + i] = a[aIndex + i] + value;
+    }
+  }
+
+  /**
+   * c[cIndex + i] = a[aIndex + i] * factor for 0 ≤ i &lt; length.
+   */
+  void scale(final float[] a, final int aIndex,
+             final float factor,
+             final float[] c, final int cIndex,
+             final int length)
+  {
+    for (int i = 0; i < length; i++) {
+      c[cIndex + i] = a[aIndex + i] * factor;
+    }
+  }
+
+  /**
+   * y[yIndex + i] += a * x[xIndex + i] for 0 ≤ i &lt; length, computed
+   * in double precision.
+   */
+  void axpy(final double a,
+            final float[] x, final int xIndex,
+            final double[] y, final int yIndex,
+            final int length)
+  {
+    for (int i = 0; i < length; i++) {
+      y[yIndex + i] += a * x[xIndex + i];
+    }
+  }
+
+  /**
+   * Returns the sum of a[aIndex + i] for 0 ≤ i &lt; length, with
+   * compensated summation in double precision.
+   */
+  double sumCompensated(final float[] a, final int aIndex,
+                        final int length)
+  {
+    double sum = 0.0;
+    double compensation = 0.0;
+    for (int i = 0; i < length; i++) {
+      final double value = a[aIndex + i];
+      final double t = sum + value;
+      final double v = t - sum;
+      compensation += (sum - (t - v)) + (value - v);
+      sum = t;
+    }
+    return sum + compensation;
+  }
+
+  /**
+   * sums[index + i] += a[aIndex + i] for 0 ≤ i &lt; length, with
+   * compensated summation in double precision.
+   */
+  void addCompensated(final float[] a, final int aIndex,
+                      final double[] sums, final double[] compensations,
+                      final int index, final int length)
+  {
+    for (int i = 0; i < length; i++) {
+      final double value = a[aIndex + i];
+      final double sum = sums[index + i];
+      final double t = sum + value;
+      final double v = t - sum;
+      compensations[index + i] += (sum - (t - v)) + (value - v);
+      sums[index + i] = t;
+    }
+  }
+
+  /**
+   * Returns the sum of a[aIndex + i] * b[bIndex + i] for 0 ≤ i &lt;
+   * length, with products and sum computed in double precision.
+   */
+  double dot(final float[] a, final int aIndex,
+             final float[] b, final int bIndex,
+             final int length)
+  {
+    double sum = 0.0;
+    for (int i = 0; i < length; i++) {
+      sum += (double)a[aIndex + i] * b[bIndex + i];
+    }
+    return sum;
+  }
+
+  /**
+   * GEMM micro-kernel: accumulates the product of a 4-row sliver of
+   * packed A and a 4-column sliver of packed B, both of depth kc,
+   * into the mr×nr tile of C at cIndex.
+   */
+  void microKernel4x4(final int kc,
+                      final double[] packedA, int aIndex,
+                      final double[] packedB, int bIndex,
+                      final double[] c, final int cIndex,
+                      final int cRowStride,
+                      final int mr, final int nr)
+  {
+    double c00 = 0.0, c01 = 0.0, c02 = 0.0, c03 = 0.0;
+    double c10 = 0.0, c11 = 0.0, c12 = 0.0, c13 = 0.0;
+    double c20 = 0.0, c21 = 0.0, c22 = 0.0, c23 = 0.0;
+    double c30 = 0.0, c31 = 0.0, c32 = 0.0, c33 = 0.0;
+    for (int p = 0; p < kc; p++) {
+      final double a0 = packedA[aIndex];
+      final double a1 = packedA[aIndex + 1];
+      final double a2 = packedA[aIndex + 2];
+      final double a3 = packedA[aIndex + 3];
+      final double b0 = packedB[bIndex];
+      final double b1 = packedB[bIndex + 1];
+      final double b2 = packedB[bIndex + 2];
+      final double b3 = packedB[bIndex + 3];
+      c00 += a0 * b0; c01 += a0 * b1; c02 += a0 * b2; c03 += a0 * b3;
+      c10 += a1 * b0; c11 += a1 * b1; c12 += a1 * b2; c13 += a1 * b3;
+      c20 += a2 * b0; c21 += a2 * b1; c22 += a2 * b2; c23 += a2 * b3;
+      c30 += a3 * b0; c31 += a3 * b1; c32 += a3 * b2; c33 += a3 * b3;
+      aIndex += 4;
+      bIndex += 4;
+    }
+    if ((mr == 4) && (nr == 4)) {
+      int index = cIndex;
+      c[index] += c00; c[index + 1] += c01;
+      c[index + 2] += c02; c[index + 3] += c03;
+      index += cRowStride;
+      c[index] += c10; c[index + 1] += c11;
+      c[index + 2] += c12; c[index + 3] += c13;
+      index += cRowStride;
+      c[index] += c20; c[index + 1] += c21;
+      c[index + 2] += c22; c[index + 3] += c23;
+      index += cRowStride;
+      c[index] += c30; c[index + 1] += c31;
+      c[index + 2] += c32; c[index + 3] += c33;
+    } else {
+      final double[] tile = {
+        c00, c01, c02, c03,
+        c10, c11, c12, c13,
+        c20, c21, c22, c23,
+        c30, c31, c32, c33
+      };
+      addTile(tile, c, cIndex, cRowStride, mr, nr);
+    }
+  }
+
+  /**
+   * Adds the upper left mr×nr part of a row-major 4×4 tile to C.
+   */
+  static void addTile(final double[] tile,
+                      final double[] c, final int cIndex,
+                      final int cRowStride,
+                      final int mr, final int nr)
+  {
+    for (int i = 0; i < mr; i++) {
+      for (int j = 0; j < nr; j++) {
+        c[cIndex + i * cRowStride + j] += tile[i * 4 + j];
+      }
+    }
+  }
+}
+
+/*
+ * Local Variables:
+ *   coding:utf-8
+ *   mode:Java
+ * End:
+ */
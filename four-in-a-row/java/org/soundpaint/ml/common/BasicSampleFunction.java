@@ -18,7 +18,7 @@
  */
 package org.soundpaint.ml.common;
 
-import java.util.Random;
+import java.util.Arrays;
 import java.util.function.Function;
 
 public enum BasicSampleFunction implements SampleFunction
@@ -29,41 +29,88 @@ public enum BasicSampleFunction implements SampleFunction
     {
       return 1.0;
     }
+
+    @Override
+    public boolean isThreadSafe()
+    {
+      return true;
+    }
+
+    @Override
+    public void fill(final double[] values,
+                     final int fromIndex, final int toIndex)
+    {
+      Arrays.fill(values, fromIndex, toIndex, 1.0);
+    }
   },
 
   RANDOM_UNIFORM("random uniform")
   {
     public Double apply(final Void __)
     {
-      final Random random = RandomUtils.getRandom();
-      return random.nextDouble();
+      return RandomUtils.getGenerator().nextDouble();
+    }
+
+    @Override
+    public boolean isThreadSafe()
+    {
+      return true;
+    }
+
+    @Override
+    public void fill(final double[] values,
+                     final int fromIndex, final int toIndex)
+    {
+      RandomUtils.fillUniform(RandomUtils.getGenerator(),
+                              values, fromIndex, toIndex);
     }
   },
 
   RANDOM_NORMAL("random normal")
   {
-    static final double TWO_PI = 2.0 * Math.PI;
-    private double z1 = 0.0;
-    private boolean needDraw = false;
-
-    /**
-     * Box-Müller Transform
-     */
     public Double apply(final Void __)
     {
-      final Random random = RandomUtils.getRandom();
+      return RandomUtils.nextNormal();
+    }
 
-      needDraw = !needDraw;
-      if (!needDraw)
-        return z1;
+    @Override
+    public boolean isThreadSafe()
+    {
+      return true;
+    }
 
-      final double u1 = 1.0 - random.nextDouble(); // exclude 0.0
-      final double u2 = random.nextDouble();
+    @Override
+    public void fill(final double[] values,
+                     final int fromIndex, final int toIndex)
+    {
+      RandomUtils.fillNormal(RandomUtils.getGenerator(),
+                             values, fromIndex, toIndex);
+    }
+  },
 
-      final double z0 = Math.sqrt(-2.0 * Math.log(u1)) * Math.cos(TWO_PI * u2);
-      z1 = Math.sqrt(-2.0 * Math.log(u1)) * Math.sin(TWO_PI * u2);
+  /**
+   * Standard normal distribution truncated to ±{@link
+   * RandomUtils#TRUNCATION_BOUND}, e.g. for weight initialization.
+   */
+  RANDOM_TRUNCATED_NORMAL("random truncated normal")
+  {
+    public Double apply(final Void __)
+    {
+      return RandomUtils.nextTruncatedNormal();
+    }
+
+    @Override
+    public boolean isThreadSafe()
+    {
+      return true;
+    }
 
-      return z0;
+    @Override
+    public void fill(final double[] values,
+                     final int fromIndex, final int toIndex)
+    {
+      RandomUtils.fillTruncatedNormal(RandomUtils.getGenerator(),
+                                      values, fromIndex, toIndex);
     }
   };
 
@@ -18,6 +18,8 @@
  */
 package org.soundpaint.ml.common;
 
+import java.util.Arrays;
+
 public class ConstValueSampler implements SampleFunction
 {
   private final double value;
@@ -36,6 +38,19 @@ public class ConstValueSampler implements SampleFunction
   {
     return value;
   }
+
+  @Override
+  public boolean isThreadSafe()
+  {
+    return true;
+  }
+
+  @Override
+  public void fill(final double[] values,
+                   final int fromIndex, final int toIndex)
+  {
+    Arrays.fill(values, fromIndex, toIndex, value);
+  }
 }
 
 /*
@@ -18,14 +18,13 @@
  */
 package org.soundpaint.ml.common;
 
-import java.util.ArrayList;
 import java.util.List;
 
 public class DoubleToMatrixWrapper extends Operation<Matrix, Matrix>
 {
   public DoubleToMatrixWrapper(final Node<Double, Double> x)
   {
-    super("doubletomatrixwrapper", List.of(new WrapperNode(x)));
+    super("doubletomatrixwrapper", List.of(new WrapperOperation(x)));
   }
 
   public Matrix performOperation()
@@ -34,24 +33,56 @@ public class DoubleToMatrixWrapper extends Operation<Matrix, Matrix>
       throw new IllegalArgumentException("require 1 operand, got: " +
                                          inputValues.size());
     }
-    final Node<?, Matrix> node = getInputNodes().get(0);
-    final WrapperNode wrapperNode = (WrapperNode)node;
-    return wrapperNode.getOutputValue();
+    return inputValues.get(0);
   }
 
-  private static class WrapperNode extends Node<Matrix, Matrix>
+  @Override
+  public Node<?, Matrix> createGradient(final int index,
+                                        final Node<?, Matrix> outputGradient)
   {
-    private final Node<Double, Double> x;
+    return outputGradient;
+  }
 
-    private WrapperNode(final Node<Double, Double> x)
+  private static class WrapperOperation extends Operation<Double, Matrix>
+  {
+    private WrapperOperation(final Node<?, Double> x)
     {
-      this.x = x;
+      super("wrapperop", List.of(x));
     }
 
+    public Matrix performOperation()
+    {
+      return new Matrix(inputValues.get(0));
+    }
+
+    /**
+     * The wrapped value occurs on the diagonal, hence its gradient is
+     * the trace of the output gradient.
+     */
     @Override
-    public void update(final FeedDictionary feedDictionary)
+    public Node<?, Double> createGradient(final int index,
+                                          final Node<?, Matrix> outputGradient)
+    {
+      return new TraceOperation(outputGradient);
+    }
+  }
+
+  private static class TraceOperation extends Operation<Matrix, Double>
+  {
+    private TraceOperation(final Node<?, Matrix> x)
+    {
+      super("traceop", List.of(x));
+    }
+
+    public Double performOperation()
     {
-      setOutputValue(new Matrix(x.getOutputValue()));
+      final Matrix x = inputValues.get(0);
+      final int size = Math.min(x.getRows(), x.getColumns());
+      double trace = 0.0;
+      for (int index = 0; index < size; index++) {
+        trace += x.getElementAt(index, index);
+      }
+      return trace;
     }
   }
 }
@@ -0,0 +1,47 @@
+/*
+ * @(#)ElementwiseUpdate.java 1.00 26/10/18
+ *
+ * Copyright (C) 2026 Jürgen Reuter
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.soundpaint.ml.common;
+
+/**
+ * In-place element-wise computation over several matrices of the
+ * same shape in lockstep, such as the update of a weight matrix and
+ * its optimizer state from a gradient; see {@link
+ * Matrix#updateElementwise(ElementwiseUpdate, Matrix[], Matrix...)}.
+ */
+@FunctionalInterface
+public interface ElementwiseUpdate
+{
+  /**
+   * Updates the first length elements of each chunk.  The chunks
+   * hold corresponding elements of the target matrices followed by
+   * those of the source matrices, in the order given.  Chunks of
+   * target matrices are stored back after the call; changes to
+   * chunks of source matrices are discarded.  Since chunks may be
+   * processed in parallel, implementations must not depend on the
+   * order of calls or on state other than the chunks.
+   */
+  void update(final double[][] chunks, final int length);
+}
+
+/*
+ * Local Variables:
+ *   coding:utf-8
+ *   mode:Java
+ * End:
+ */
@@ -0,0 +1,182 @@
+/*
+ * @(#)EpochPermutation.java 1.00 26/10/18
+ *
+ * Copyright (C) 2026 Jürgen Reuter
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.soundpaint.ml.common;
+
+import java.util.NoSuchElementException;
+import java.util.SplittableRandom;
+
+/**
+ * Random permutation of the indices 0 to size - 1 that is split into
+ * consecutive, disjoint mini-batches of batchSize indices each
+ * (except for a possibly smaller last batch), such that each epoch
+ * of training visits each sample exactly once.  The permutation is
+ * reshuffled in place for each epoch, and batches are handed out as
+ * index ranges into it, such that iterating over batches does not
+ * allocate memory.
+ *
+ * Typical use:
+ *
+ * <pre>
+ * final EpochPermutation batches = new EpochPermutation(rows, 32);
+ * for (int epoch = 0; epoch &lt; epochs; epoch++) {
+ *   while (batches.hasNextBatch()) {
+ *     batches.nextBatch();
+ *     final Matrix batch = batches.selectBatch(data);
+ *     …
+ *   }
+ *   batches.nextEpoch();
+ * }
+ * </pre>
+ *
+ * Instances are not thread-safe.  Each instance draws from its own
+ * generator, split off {@link RandomUtils} upon construction, such
+ * that its permutations are reproducible for a given seed.
+ */
+public class EpochPermutation
+{
+  private final int batchSize;
+  private final int[] permutation;
+  private final SplittableRandom random;
+  private int epoch;
+  private int batchFrom;
+  private int batchTo;
+
+  private EpochPermutation()
+  {
+    throw new UnsupportedOperationException("unsupported default constructor");
+  }
+
+  public EpochPermutation(final int size, final int batchSize)
+  {
+    if (size < 0) {
+      throw new IllegalArgumentException("size < 0: " + size);
+    }
+    if (batchSize <= 0) {
+      throw new IllegalArgumentException("batch size <= 0: " + batchSize);
+    }
+    this.batchSize = batchSize;
+    permutation = new int[size];
+    for (int index = 0; index < size; index++) {
+      permutation[index] = index;
+    }
+    random = RandomUtils.split();
+    epoch = -1;
+    nextEpoch();
+  }
+
+  public int getSize()
+  {
+    return permutation.length;
+  }
+
+  public int getBatchSize()
+  {
+    return batchSize;
+  }
+
+  /**
+   * Returns the number of batches per epoch.
+   */
+  public int getBatchCount()
+  {
+    return (permutation.length + batchSize - 1) / batchSize;
+  }
+
+  /**
+   * Returns the number of the current epoch, starting with 0.
+   */
+  public int getEpoch()
+  {
+    return epoch;
+  }
+
+  /**
+   * Reshuffles the permutation and restarts with its first batch.
+   */
+  public void nextEpoch()
+  {
+    RandomUtils.shuffle(random, permutation, 0, permutation.length);
+    epoch++;
+    batchFrom = 0;
+    batchTo = 0;
+  }
+
+  public boolean hasNextBatch()
+  {
+    return batchTo < permutation.length;
+  }
+
+  /**
+   * Advances to the next batch of the current epoch, whose indices
+   * are the elements getBatchFrom() (inclusive) to getBatchTo()
+   * (exclusive) of getPermutation().
+   */
+  public void nextBatch()
+  {
+    if (!hasNextBatch()) {
+      throw new NoSuchElementException("epoch " + epoch + " exhausted");
+    }
+    batchFrom = batchTo;
+    batchTo = Math.min(batchFrom + batchSize, permutation.length);
+  }
+
+  public int getBatchFrom()
+  {
+    return batchFrom;
+  }
+
+  public int getBatchTo()
+  {
+    return batchTo;
+  }
+
+  /**
+   * Returns the permutation of the current epoch.  The returned array
+   * is the internal state of this instance and must not be modified;
+   * it is reshuffled by {@link #nextEpoch()}.
+   */
+  public int[] getPermutation()
+  {
+    return permutation;
+  }
+
+  /**
+   * Returns the rows of the matrix selected by the current batch as
+   * index-gather view.
+   */
+  public Matrix selectBatch(final Matrix matrix)
+  {
+    if (matrix == null) {
+      throw new NullPointerException("matrix");
+    }
+    if (matrix.getRows() != permutation.length) {
+      throw new IllegalArgumentException("matrix rows != size: " +
+                                         matrix.getRows() + " != " +
+                                         permutation.length);
+    }
+    return matrix.rowSelectionView(permutation, batchFrom, batchTo);
+  }
+}
+
+/*
+ * Local Variables:
+ *   coding:utf-8
+ *   mode:Java
+ * End:
+ */
@@ -0,0 +1,91 @@
+/*
+ * @(#)ExecutionPolicy.java 1.00 26/10/18
+ *
+ * Copyright (C) 2026 Jürgen Reuter
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.soundpaint.ml.common;
+
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Strategy for distributing the work of a matrix kernel.  Kernels
+ * describe their work as a range of rows, each costing roughly the
+ * same number of element operations, and let the policy decide how
+ * to split that range into blocks and on which threads to run them.
+ *
+ * Kernels must only rely on every row being processed exactly once;
+ * they must not depend on the block boundaries chosen by the
+ * policy.  Reductions that need reproducible results therefore
+ * partition their input into blocks of a fixed size on their own
+ * and use the policy only to compute the per-block partial results.
+ */
+public interface ExecutionPolicy
+{
+  /**
+   * Default minimum number of element operations per block for the
+   * fork-join policy.
+   */
+  public static final long DEFAULT_THRESHOLD = 1 << 16;
+
+  @FunctionalInterface
+  public interface RowBlockTask
+  {
+    /**
+     * Processes rows fromRow (inclusive) to toRow (exclusive).
+     */
+    void run(int fromRow, int toRow);
+  }
+
+  /**
+   * Runs the task on all rows between 0 (inclusive) and
+   * <code>rows</code> (exclusive) and returns when all rows have been
+   * processed.
+   *
+   * @param rows The number of rows to process.
+   * @param costPerRow The approximate number of element operations
+   * per row, used to decide whether splitting pays off.
+   * @param task The task to run on each block of rows.
+   */
+  void forEachRowBlock(int rows, long costPerRow, RowBlockTask task);
+
+  public static ExecutionPolicy sequential()
+  {
+    return SequentialExecutionPolicy.getDefaultInstance();
+  }
+
+  public static ExecutionPolicy forkJoin()
+  {
+    return forkJoin(DEFAULT_THRESHOLD);
+  }
+
+  public static ExecutionPolicy forkJoin(final long threshold)
+  {
+    return forkJoin(ForkJoinPool.commonPool(), threshold);
+  }
+
+  public static ExecutionPolicy forkJoin(final ForkJoinPool pool,
+                                         final long threshold)
+  {
+    return new ForkJoinExecutionPolicy(pool, threshold);
+  }
+}
+
+/*
+ * Local Variables:
+ *   coding:utf-8
+ *   mode:Java
+ * End:
+ */
@@ -0,0 +1,133 @@
+/*
+ * @(#)ForkJoinExecutionPolicy.java 1.00 26/10/18
+ *
+ * Copyright (C) 2026 Jürgen Reuter
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.soundpaint.ml.common;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Recursively halves the row range until a block costs no more than
+ * the threshold number of element operations, and runs the blocks
+ * on a fork-join pool.  Work below the threshold runs in the calling
+ * thread without touching the pool at all.
+ */
+public class ForkJoinExecutionPolicy implements ExecutionPolicy
+{
+  private final ForkJoinPool pool;
+  private final long threshold;
+
+  private class RowBlockAction extends RecursiveAction
+  {
+    private static final long serialVersionUID = 1L;
+
+    private final int fromRow;
+    private final int toRow;
+    private final long costPerRow;
+    private final RowBlockTask task;
+
+    private RowBlockAction(final int fromRow, final int toRow,
+                           final long costPerRow,
+                           final RowBlockTask task)
+    {
+      this.fromRow = fromRow;
+      this.toRow = toRow;
+      this.costPerRow = costPerRow;
+      this.task = task;
+    }
+
+    @Override
+    protected void compute()
+    {
+      final int rows = toRow - fromRow;
+      if ((rows < 2) || (rows * costPerRow <= threshold)) {
+        task.run(fromRow, toRow);
+      } else {
+        final int middleRow = fromRow + rows / 2;
+        ForkJoinTask.invokeAll(new RowBlockAction(fromRow, middleRow,
+                                                  costPerRow, task),
+                               new RowBlockAction(middleRow, toRow,
+                                                  costPerRow, task));
+      }
+    }
+  }
+
+  private ForkJoinExecutionPolicy()
+  {
+    throw new UnsupportedOperationException("unsupported default constructor");
+  }
+
+  public ForkJoinExecutionPolicy(final ForkJoinPool pool,
+                                 final long threshold)
+  {
+    if (pool == null) {
+      throw new NullPointerException("pool");
+    }
+    if (threshold < 1) {
+      throw new IllegalArgumentException("threshold < 1");
+    }
+    this.pool = pool;
+    this.threshold = threshold;
+  }
+
+  public ForkJoinPool getPool()
+  {
+    return pool;
+  }
+
+  public long getThreshold()
+  {
+    return threshold;
+  }
+
+  public void forEachRowBlock(final int rows, final long costPerRow,
+                              final RowBlockTask task)
+  {
+    if (rows <= 0) {
+      return;
+    }
+    if ((rows < 2) || (rows * costPerRow <= threshold)) {
+      task.run(0, rows);
+      return;
+    }
+    final RowBlockAction action =
+      new RowBlockAction(0, rows, Math.max(costPerRow, 1), task);
+    if (ForkJoinTask.inForkJoinPool() &&
+        (ForkJoinTask.getPool() == pool)) {
+      action.invoke();
+    } else {
+      pool.invoke(action);
+    }
+  }
+
+  public String toString()
+  {
+    return
+      "fork-join execution policy(parallelism=" + pool.getParallelism() +
+      ", threshold=" + threshold +
+      ", kernels=" + ArrayKernels.getInstance().getId() + ")";
+  }
+}
+
+/*
+ * Local Variables:
+ *   coding:utf-8
+ *   mode:Java
+ * End:
+ */
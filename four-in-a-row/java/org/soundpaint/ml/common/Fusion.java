@@ -0,0 +1,413 @@
+/*
+ * @(#)Fusion.java 1.00 26/10/18
+ *
+ * Copyright (C) 2026 Jürgen Reuter
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.soundpaint.ml.common;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Operator fusion, a graph optimization pass that a {@link Session}
+ * runs when compiling the plan for a list of target nodes.  The pass
+ * finds trees of element-wise operations, i.e. matrix add, scale and
+ * activation, optionally on top of a matrix product, such as the
+ * product, bias add and activation of a dense layer.  Each tree is
+ * then evaluated as a whole: the element-wise operations run as a
+ * single {@link MatrixExpression} pass, which on top of a product is
+ * applied to each block of the product by the product kernel as
+ * soon as the block is final, while it is still in cache.  Either
+ * way, no intermediate matrix is written.
+ *
+ * An operation is fused into its consumer only if it is not a target
+ * node, reusing its output value has not been disabled explicitly
+ * (see {@link Operation#setReuseOutputValue(boolean)}) and it is used
+ * exactly once in the plan; its output value is not computed.  An
+ * activation is fused only together with its operand, since it
+ * overwrites its operand in place.  A tree contains at most one
+ * product.  If the shapes at run time do not allow fusing, e.g. if the
+ * product is broadcast to a larger shape, the operations of the tree
+ * are evaluated one by one instead.  The same applies if the product
+ * would be rounded to a narrower data type than the one of the root.
+ * Since intermediate values are not rounded to single precision,
+ * results of single precision trees may differ from those of unfused
+ * evaluation in the last place.
+ */
+final class Fusion
+{
+  private final Operation<?, ?> root;
+
+  /**
+   * Operations of the tree, each after its fused input nodes, the
+   * root last.
+   */
+  private final List<Operation<?, ?>> members;
+
+  private final Set<Node<?, ?>> memberSet;
+  private MatrixMultiplyOperation product;
+
+  /**
+   * Distinct input nodes of the tree that are not fused.
+   */
+  private final List<Node<?, ?>> inputNodes;
+
+  /**
+   * Versions of the input nodes as of the last evaluation, or null
+   * if not yet evaluated.
+   */
+  private long[] inputVersions;
+
+  private Fusion()
+  {
+    throw new UnsupportedOperationException("unsupported default constructor");
+  }
+
+  private Fusion(final Operation<?, ?> root,
+                 final Map<Node<?, ?>, Integer> uses,
+                 final List<Node<?, ?>> targetNodes)
+  {
+    this.root = root;
+    members = new ArrayList<Operation<?, ?>>();
+    memberSet = createIdentitySet();
+    product = null;
+    final List<Operation<?, ?>> candidates = new ArrayList<Operation<?, ?>>();
+    collect(root, uses, targetNodes, true, candidates);
+    final boolean allowProduct =
+      candidates.stream().filter(Fusion::isProduct).count() == 1;
+    if (!isActivation(root) ||
+        isFusable(getInputNode(root, 0), uses, targetNodes, allowProduct)) {
+      collect(root, uses, targetNodes, allowProduct, members);
+    }
+    memberSet.addAll(members);
+    inputNodes = new ArrayList<Node<?, ?>>();
+    final Set<Node<?, ?>> inputSet = createIdentitySet();
+    for (final Operation<?, ?> member : members) {
+      if (isProduct(member)) {
+        product = (MatrixMultiplyOperation)member;
+      }
+      for (final Node<?, ?> inputNode : member.getInputNodes()) {
+        if (!memberSet.contains(inputNode) && inputSet.add(inputNode)) {
+          inputNodes.add(inputNode);
+        }
+      }
+    }
+  }
+
+  private static Set<Node<?, ?>> createIdentitySet()
+  {
+    return
+      Collections.newSetFromMap(new IdentityHashMap<Node<?, ?>, Boolean>());
+  }
+
+  private static boolean isProduct(final Node<?, ?> node)
+  {
+    return node.getClass() == MatrixMultiplyOperation.class;
+  }
+
+  private static boolean isActivation(final Node<?, ?> node)
+  {
+    return node.getClass() == ActivationOperation.class;
+  }
+
+  private static boolean isElementwise(final Node<?, ?> node)
+  {
+    return
+      (node.getClass() == MatrixAddOperation.class) ||
+      (node.getClass() == MatrixScaleOperation.class) ||
+      isActivation(node);
+  }
+
+  private static Node<?, ?> getInputNode(final Node<?, ?> node,
+                                         final int index)
+  {
+    return ((Operation<?, ?>)node).getInputNodes().get(index);
+  }
+
+  /**
+   * Returns true if the node may be fused into its consumer.
+   */
+  private static boolean isFusable(final Node<?, ?> node,
+                                   final Map<Node<?, ?>, Integer> uses,
+                                   final List<Node<?, ?>> targetNodes,
+                                   final boolean allowProduct)
+  {
+    if (!(isElementwise(node) || (allowProduct && isProduct(node))) ||
+        ((Operation<?, ?>)node).isReuseOutputValueDisabled() ||
+        (uses.getOrDefault(node, 0) != 1) ||
+        targetNodes.stream().anyMatch(target -> target == node)) {
+      return false;
+    }
+    return
+      !isActivation(node) ||
+      isFusable(getInputNode(node, 0), uses, targetNodes, allowProduct);
+  }
+
+  /**
+   * Adds the operation and all input nodes that may be fused into it
+   * to the members, each after its fused input nodes.
+   */
+  private static void collect(final Operation<?, ?> operation,
+                              final Map<Node<?, ?>, Integer> uses,
+                              final List<Node<?, ?>> targetNodes,
+                              final boolean allowProduct,
+                              final List<Operation<?, ?>> members)
+  {
+    if (!isProduct(operation)) {
+      for (final Node<?, ?> inputNode : operation.getInputNodes()) {
+        if (isFusable(inputNode, uses, targetNodes, allowProduct)) {
+          collect((Operation<?, ?>)inputNode, uses, targetNodes,
+                  allowProduct, members);
+        }
+      }
+    }
+    members.add(operation);
+  }
+
+  /**
+   * Finds the trees to fuse among the nodes of a plan, given in
+   * topological order, and returns them by their root nodes.
+   */
+  static Map<Node<?, ?>, Fusion> fuse(final List<Node<?, ?>> nodes,
+                                      final List<Node<?, ?>> targetNodes)
+  {
+    final Map<Node<?, ?>, Integer> uses =
+      new IdentityHashMap<Node<?, ?>, Integer>();
+    for (final Node<?, ?> node : nodes) {
+      if (node instanceof Operation) {
+        for (final Node<?, ?> inputNode :
+               ((Operation<?, ?>)node).getInputNodes()) {
+          uses.merge(inputNode, 1, Integer::sum);
+        }
+      }
+    }
+    final Map<Node<?, ?>, Fusion> fusions =
+      new IdentityHashMap<Node<?, ?>, Fusion>();
+    final Set<Node<?, ?>> fused = createIdentitySet();
+    for (int position = nodes.size() - 1; position >= 0; position--) {
+      final Node<?, ?> node = nodes.get(position);
+      if (!fused.contains(node) && isElementwise(node)) {
+        final Fusion fusion =
+          new Fusion((Operation<?, ?>)node, uses, targetNodes);
+        if (fusion.members.size() > 1) {
+          fusions.put(node, fusion);
+          fused.addAll(fusion.members);
+        }
+      }
+    }
+    return fusions;
+  }
+
+  /**
+   * Returns the fused operations, the root last.
+   */
+  List<Operation<?, ?>> getMembers()
+  {
+    return members;
+  }
+
+  /**
+   * Returns the input nodes of the tree that are not fused.
+   */
+  List<Node<?, ?>> getInputNodes()
+  {
+    return inputNodes;
+  }
+
+  private long[] getInputVersions()
+  {
+    final long[] versions = new long[inputNodes.size()];
+    for (int index = 0; index < versions.length; index++) {
+      versions[index] = inputNodes.get(index).getVersion();
+    }
+    return versions;
+  }
+
+  /**
+   * Shape and data type of the output value of a node, as if the
+   * tree was evaluated operation by operation.
+   */
+  private static class Shape
+  {
+    private final int rows;
+    private final int columns;
+    private final Matrix.DataType dataType;
+
+    private Shape(final int rows, final int columns,
+                  final Matrix.DataType dataType)
+    {
+      this.rows = rows;
+      this.columns = columns;
+      this.dataType = dataType;
+    }
+  }
+
+  private Shape getShape(final Node<?, ?> node)
+  {
+    if (!memberSet.contains(node)) {
+      final Matrix value = (Matrix)node.getOutputValue();
+      return new Shape(value.getRows(), value.getColumns(),
+                       value.getDataType());
+    }
+    if (isProduct(node) || (node.getClass() == MatrixAddOperation.class)) {
+      final Shape x = getShape(getInputNode(node, 0));
+      final Shape y = getShape(getInputNode(node, 1));
+      final Matrix.DataType dataType =
+        Matrix.DataType.promote(x.dataType, y.dataType);
+      if (isProduct(node)) {
+        return new Shape(x.rows, y.columns, dataType);
+      }
+      return new Shape(Matrix.broadcast("rows", x.rows, y.rows),
+                       Matrix.broadcast("columns", x.columns, y.columns),
+                       dataType);
+    }
+    return getShape(getInputNode(node, isActivation(node) ? 0 : 1));
+  }
+
+  /**
+   * Returns the expression for the output value of the node, with
+   * the product, if any, read from the given matrix.
+   */
+  private MatrixExpression express(final Node<?, ?> node,
+                                   final Matrix productValue)
+  {
+    if (node == product) {
+      return MatrixExpression.of(productValue);
+    }
+    if (!memberSet.contains(node)) {
+      return MatrixExpression.of((Matrix)node.getOutputValue());
+    }
+    if (node.getClass() == MatrixAddOperation.class) {
+      return
+        express(getInputNode(node, 0), productValue).
+        add(express(getInputNode(node, 1), productValue));
+    }
+    if (node.getClass() == MatrixScaleOperation.class) {
+      final Matrix scale = (Matrix)getInputNode(node, 0).getOutputValue();
+      return
+        express(getInputNode(node, 1), productValue).
+        scale(scale.getElementAt(0, 0));
+    }
+    final ActivationOperation<?> activation = (ActivationOperation<?>)node;
+    return
+      express(getInputNode(node, 0), productValue).
+      map(activation.getOperator());
+  }
+
+  /**
+   * Evaluates the tree and sets the output value of the root.  An
+   * incremental update skips evaluation if none of the input nodes
+   * has changed since the last evaluation.
+   */
+  void update(final FeedDictionary feedDictionary,
+              final MatrixPool matrixPool, final boolean incremental)
+  {
+    final long[] versions = getInputVersions();
+    if (incremental && (inputVersions != null) &&
+        (root.getOutputValue() != null) &&
+        Arrays.equals(versions, inputVersions)) {
+      return;
+    }
+    final Shape shape = getShape(root);
+    final Shape productShape = product != null ? getShape(product) : null;
+    final boolean fusable =
+      (productShape == null) ||
+      ((productShape.rows == shape.rows) &&
+       (productShape.columns == shape.columns) &&
+       (productShape.dataType == shape.dataType));
+    for (final Operation<?, ?> member : members) {
+      member.setMatrixPool(matrixPool);
+    }
+    if (!fusable) {
+      for (final Operation<?, ?> member : members) {
+        member.update(feedDictionary);
+      }
+      releaseIntermediateValues(matrixPool);
+    } else {
+      final Matrix[] operands = new Matrix[inputNodes.size()];
+      for (int index = 0; index < operands.length; index++) {
+        operands[index] = (Matrix)inputNodes.get(index).getOutputValue();
+      }
+      // roots are element-wise operations, which compute matrices
+      @SuppressWarnings("unchecked")
+      final Node<?, Matrix> output = (Node<?, Matrix>)root;
+      final Matrix value =
+        Matrix.reuseOrCreate(root.getReuseOutputValue() ?
+                             output.getOutputValue() : null,
+                             matrixPool, shape.rows, shape.columns,
+                             shape.dataType, operands);
+      final MatrixExpression expression = express(root, value);
+      if (product == null) {
+        expression.materializeInto(value);
+      } else {
+        final int buffers = expression.prepare();
+        final Matrix x = (Matrix)getInputNode(product, 0).getOutputValue();
+        final Matrix y = (Matrix)getInputNode(product, 1).getOutputValue();
+        product.multiplyInto(x, y, value,
+                             (fromRow, toRow, fromColumn, columns) ->
+                             expression.materializeInto(value,
+                                                        fromRow, toRow,
+                                                        fromColumn, columns,
+                                                        buffers));
+      }
+      output.setOutputValue(value);
+      root.incrementVersion();
+      for (final Operation<?, ?> member : members) {
+        if (member != root) {
+          member.setOutputValue(null);
+        }
+      }
+    }
+    inputVersions = versions;
+  }
+
+  /**
+   * Resets the output values of all members but the root, after
+   * evaluating them one by one, and returns them into the pool, if
+   * not null, unless they share storage with the output value of the
+   * root, as an activation does with its operand.
+   */
+  private void releaseIntermediateValues(final MatrixPool matrixPool)
+  {
+    final Matrix rootValue = (Matrix)root.getOutputValue();
+    final List<Matrix> released = new ArrayList<Matrix>();
+    for (final Operation<?, ?> member : members) {
+      if (member == root) {
+        continue;
+      }
+      final Matrix value = (Matrix)member.getOutputValue();
+      member.setOutputValue(null);
+      if ((matrixPool != null) && (value != null) &&
+          !value.sharesStorageWith(rootValue) &&
+          released.stream().noneMatch(value::sharesStorageWith)) {
+        matrixPool.release(value);
+        released.add(value);
+      }
+    }
+  }
+}
+
+/*
+ * Local Variables:
+ *   coding:utf-8
+ *   mode:Java
+ * End:
+ */
@@ -0,0 +1,407 @@
+/*
+ * @(#)Gemm.java 1.00 26/10/18
+ *
+ * Copyright (C) 2026 Jürgen Reuter
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.soundpaint.ml.common;
+
+/**
+ * General matrix multiplication kernel C = A·B on strided double
+ * storage.
+ *
+ * The kernel follows the usual blocking scheme of high-performance
+ * BLAS implementations: the k dimension is split into blocks of KC,
+ * the columns of B into blocks of NC and the rows of A into blocks
+ * of MC.  Each block of B and A is packed into a contiguous panel of
+ * NR-column (MR-row, respectively) slivers, such that the MR×NR
+ * micro-kernel streams through both panels with unit stride while
+ * keeping its MR×NR accumulators in registers.  Edge slivers are
+ * padded with zeros in the panels, so the micro-kernel itself never
+ * needs to handle partial tiles.  The micro-kernel itself is provided
+ * by {@link ArrayKernels}, such that it may run on SIMD registers.
+ *
+ * Products below SMALL_PRODUCT multiply-adds do not pay off the
+ * packing and are computed by the plain dot product loop.
+ */
+final class Gemm
+{
+  // MR and NR must match the tile size of ArrayKernels.microKernel4x4().
+  private static final int MR = 4;
+  private static final int NR = 4;
+  private static final int KC = 256;
+  private static final int MC = 128;
+  private static final int NC = 1024;
+  private static final long SMALL_PRODUCT = 32 * 32 * 32;
+
+  private static class Workspace
+  {
+    private double[] packedA = new double[0];
+    private double[] packedB = new double[0];
+
+    /**
+     * True while packedB is read by the row blocks of a product.
+     */
+    private boolean packedBInUse = false;
+  }
+
+  /**
+   * Post-processing of elements of C that are final, applied while
+   * they are still in cache, e.g. for adding a bias and applying an
+   * activation function to the product.  Each call covers the given
+   * rows and columns of C; calls for distinct rows may run
+   * concurrently.
+   */
+  interface Epilogue
+  {
+    void apply(final int fromRow, final int toRow,
+               final int fromColumn, final int columns);
+  }
+
+  private static final ArrayKernels kernels = ArrayKernels.getInstance();
+
+  private static final ThreadLocal<Workspace> workspace =
+    ThreadLocal.withInitial(Workspace::new);
+
+  private Gemm()
+  {
+    throw new UnsupportedOperationException("unsupported default constructor");
+  }
+
+  /**
+   * Computes the m×n matrix C = A·B of the m×k matrix A and the k×n
+   * matrix B.  A and B may have arbitrary strides; C must be laid out
+   * with unit column stride.  Previous contents of C are overwritten.
+   *
+   * Each of A and B is stored either in a double array, in a float
+   * array or off-heap; exactly one of a, aFloat and aOffHeap (b,
+   * bFloat and bOffHeap, respectively) must be non-null.  Float
+   * operands are widened to double while packing, such that products
+   * are always accumulated in double precision.
+   *
+   * The rows of C are distributed according to the execution policy.
+   * Since the choice between the small and the blocked kernel is
+   * made once for the whole product, and the blocked kernel sums up
+   * each element of C in the same order no matter which rows it
+   * processes, the result does not depend on the policy.
+   *
+   * The epilogue, if not null, is applied to each block of C as soon
+   * as the block is final.
+   */
+  static void multiply(final ExecutionPolicy policy,
+                       final int m, final int n, final int k,
+                       final double[] a, final float[] aFloat,
+                       final OffHeapStorage aOffHeap,
+                       final int aOffset,
+                       final int aRowStride, final int aColumnStride,
+                       final double[] b, final float[] bFloat,
+                       final OffHeapStorage bOffHeap,
+                       final int bOffset,
+                       final int bRowStride, final int bColumnStride,
+                       final double[] c, final int cOffset,
+                       final int cRowStride, final Epilogue epilogue)
+  {
+    if ((long)m * n * k < SMALL_PRODUCT) {
+      policy.forEachRowBlock(m, (long)n * k, (fromRow, toRow) -> {
+          multiplySmall(toRow - fromRow, n, k,
+                        a, aFloat, aOffHeap,
+                        aOffset + fromRow * aRowStride,
+                        aRowStride, aColumnStride,
+                        b, bFloat, bOffHeap,
+                        bOffset, bRowStride, bColumnStride,
+                        c, cOffset + fromRow * cRowStride, cRowStride);
+          if (epilogue != null) {
+            epilogue.apply(fromRow, toRow, 0, n);
+          }
+        });
+    } else {
+      multiplyBlocked(policy, m, n, k,
+                      a, aFloat, aOffHeap,
+                      aOffset, aRowStride, aColumnStride,
+                      b, bFloat, bOffHeap,
+                      bOffset, bRowStride, bColumnStride,
+                      c, cOffset, cRowStride, epilogue);
+    }
+  }
+
+  /**
+   * Blocked product.  Each KC×NC block of B is packed once by the
+   * calling thread and then shared by all threads, while the
+   * execution policy distributes the MR-row slivers of A, each thread
+   * packing its own slivers into its thread-local workspace.
+   */
+  private static void multiplyBlocked(final ExecutionPolicy policy,
+                                      final int m, final int n, final int k,
+                                      final double[] a, final float[] aFloat,
+                                      final OffHeapStorage aOffHeap,
+                                      final int aOffset,
+                                      final int aRowStride,
+                                      final int aColumnStride,
+                                      final double[] b, final float[] bFloat,
+                                      final OffHeapStorage bOffHeap,
+                                      final int bOffset,
+                                      final int bRowStride,
+                                      final int bColumnStride,
+                                      final double[] c, final int cOffset,
+                                      final int cRowStride,
+                                      final Epilogue epilogue)
+  {
+    final int slivers = (m + MR - 1) / MR;
+    final double[] packedB = acquirePackedB(roundUp(Math.min(NC, n), NR) *
+                                            Math.min(KC, k));
+    try {
+      for (int jc = 0; jc < n; jc += NC) {
+        final int nc = Math.min(NC, n - jc);
+        for (int pc = 0; pc < k; pc += KC) {
+          final int kc = Math.min(KC, k - pc);
+          packB(kc, nc,
+                b, bFloat, bOffHeap,
+                bOffset + pc * bRowStride + jc * bColumnStride,
+                bRowStride, bColumnStride, packedB);
+          final int blockColumn = jc;
+          final int blockRow = pc;
+          final Epilogue blockEpilogue = pc + kc == k ? epilogue : null;
+          policy.forEachRowBlock(slivers, (long)MR * kc * nc,
+                                 (fromSliver, toSliver) -> {
+              final int fromRow = fromSliver * MR;
+              final int toRow = Math.min(toSliver * MR, m);
+              if (blockRow == 0) {
+                clear(c, cOffset, cRowStride,
+                      fromRow, toRow, blockColumn, nc);
+              }
+              multiplyPanel(fromRow, toRow, kc, nc, packedB,
+                            a, aFloat, aOffHeap,
+                            aOffset + blockRow * aColumnStride,
+                            aRowStride, aColumnStride,
+                            c, cOffset, cRowStride,
+                            blockColumn, blockEpilogue);
+            });
+        }
+      }
+    } finally {
+      releasePackedB(packedB);
+    }
+  }
+
+  /**
+   * Returns the buffer of the calling thread for packing B.  While
+   * waiting for the row blocks of a product, which still read the
+   * buffer, the thread may run a task that computes another product,
+   * e.g. a node of a session with inter-op parallelism.  Such a
+   * nested product gets a buffer of its own.
+   */
+  private static double[] acquirePackedB(final int size)
+  {
+    final Workspace ws = workspace.get();
+    if (ws.packedBInUse) {
+      return new double[size];
+    }
+    if (ws.packedB.length < size) {
+      ws.packedB = new double[size];
+    }
+    ws.packedBInUse = true;
+    return ws.packedB;
+  }
+
+  private static void releasePackedB(final double[] packedB)
+  {
+    final Workspace ws = workspace.get();
+    if (packedB == ws.packedB) {
+      ws.packedBInUse = false;
+    }
+  }
+
+  private static double[] getPackedA(final int size)
+  {
+    final Workspace ws = workspace.get();
+    if (ws.packedA.length < size) {
+      ws.packedA = new double[size];
+    }
+    return ws.packedA;
+  }
+
+  private static void clear(final double[] c, final int cOffset,
+                            final int cRowStride,
+                            final int fromRow, final int toRow,
+                            final int fromColumn, final int columns)
+  {
+    for (int row = fromRow; row < toRow; row++) {
+      final int cIndex = cOffset + row * cRowStride + fromColumn;
+      for (int column = 0; column < columns; column++) {
+        c[cIndex + column] = 0.0;
+      }
+    }
+  }
+
+  /**
+   * Multiplies rows fromRow to toRow of the current kc-column block
+   * of A with the packed kc×nc block of B and accumulates the result
+   * into the nc columns of C starting at fromColumn.  The epilogue,
+   * if not null, is applied to each block of MC rows right after
+   * accumulating into it.
+   */
+  private static void multiplyPanel(final int fromRow, final int toRow,
+                                    final int kc, final int nc,
+                                    final double[] packedB,
+                                    final double[] a, final float[] aFloat,
+                                    final OffHeapStorage aOffHeap,
+                                    final int aOffset,
+                                    final int aRowStride,
+                                    final int aColumnStride,
+                                    final double[] c, final int cOffset,
+                                    final int cRowStride,
+                                    final int fromColumn,
+                                    final Epilogue epilogue)
+  {
+    final double[] packedA =
+      getPackedA(roundUp(Math.min(MC, toRow - fromRow), MR) * kc);
+    for (int ic = fromRow; ic < toRow; ic += MC) {
+      final int mc = Math.min(MC, toRow - ic);
+      packA(mc, kc, a, aFloat, aOffHeap, aOffset + ic * aRowStride,
+            aRowStride, aColumnStride, packedA);
+      for (int jr = 0; jr < nc; jr += NR) {
+        final int nr = Math.min(NR, nc - jr);
+        for (int ir = 0; ir < mc; ir += MR) {
+          final int mr = Math.min(MR, mc - ir);
+          kernels.microKernel4x4(kc, packedA, ir * kc,
+                                 packedB, jr * kc,
+                                 c, cOffset + (ic + ir) * cRowStride +
+                                 fromColumn + jr,
+                                 cRowStride, mr, nr);
+        }
+      }
+      if (epilogue != null) {
+        epilogue.apply(ic, ic + mc, fromColumn, nc);
+      }
+    }
+  }
+
+  private static double load(final double[] elements,
+                             final float[] floatElements,
+                             final OffHeapStorage offHeapElements,
+                             final int index)
+  {
+    if (elements != null) {
+      return elements[index];
+    }
+    if (floatElements != null) {
+      return floatElements[index];
+    }
+    return offHeapElements.get(index);
+  }
+
+  private static int roundUp(final int value, final int multiple)
+  {
+    return (value + multiple - 1) / multiple * multiple;
+  }
+
+  private static void multiplySmall(final int m, final int n, final int k,
+                                    final double[] a, final float[] aFloat,
+                                    final OffHeapStorage aOffHeap,
+                                    final int aOffset,
+                                    final int aRowStride,
+                                    final int aColumnStride,
+                                    final double[] b, final float[] bFloat,
+                                    final OffHeapStorage bOffHeap,
+                                    final int bOffset,
+                                    final int bRowStride,
+                                    final int bColumnStride,
+                                    final double[] c, final int cOffset,
+                                    final int cRowStride)
+  {
+    final boolean unitStrides = (aColumnStride == 1) && (bRowStride == 1);
+    for (int row = 0; row < m; row++) {
+      for (int column = 0; column < n; column++) {
+        int aIndex = aOffset + row * aRowStride;
+        int bIndex = bOffset + column * bColumnStride;
+        final double dotSum;
+        if (unitStrides && (a != null) && (b != null)) {
+          dotSum = kernels.dot(a, aIndex, b, bIndex, k);
+        } else if (unitStrides && (aFloat != null) && (bFloat != null)) {
+          dotSum = kernels.dot(aFloat, aIndex, bFloat, bIndex, k);
+        } else {
+          double sum = 0.0;
+          for (int p = 0; p < k; p++) {
+            sum +=
+              load(a, aFloat, aOffHeap, aIndex) *
+              load(b, bFloat, bOffHeap, bIndex);
+            aIndex += aColumnStride;
+            bIndex += bRowStride;
+          }
+          dotSum = sum;
+        }
+        c[cOffset + row * cRowStride + column] = dotSum;
+      }
+    }
+  }
+
+  /**
+   * Packs the mc×kc block of A into slivers of MR rows; within a
+   * sliver, the MR elements of each column are adjacent.
+   */
+  private static void packA(final int mc, final int kc,
+                            final double[] a, final float[] aFloat,
+                            final OffHeapStorage aOffHeap,
+                            final int aOffset,
+                            final int aRowStride, final int aColumnStride,
+                            final double[] packedA)
+  {
+    for (int ir = 0; ir < mc; ir += MR) {
+      final int mr = Math.min(MR, mc - ir);
+      int packedIndex = ir * kc;
+      for (int p = 0; p < kc; p++) {
+        final int aIndex = aOffset + ir * aRowStride + p * aColumnStride;
+        for (int i = 0; i < MR; i++) {
+          packedA[packedIndex++] =
+            i < mr ?
+            load(a, aFloat, aOffHeap, aIndex + i * aRowStride) : 0.0;
+        }
+      }
+    }
+  }
+
+  /**
+   * Packs the kc×nc block of B into slivers of NR columns; within a
+   * sliver, the NR elements of each row are adjacent.
+   */
+  private static void packB(final int kc, final int nc,
+                            final double[] b, final float[] bFloat,
+                            final OffHeapStorage bOffHeap,
+                            final int bOffset,
+                            final int bRowStride, final int bColumnStride,
+                            final double[] packedB)
+  {
+    for (int jr = 0; jr < nc; jr += NR) {
+      final int nr = Math.min(NR, nc - jr);
+      int packedIndex = jr * kc;
+      for (int p = 0; p < kc; p++) {
+        final int bIndex = bOffset + p * bRowStride + jr * bColumnStride;
+        for (int j = 0; j < NR; j++) {
+          packedB[packedIndex++] =
+            j < nr ?
+            load(b, bFloat, bOffHeap, bIndex + j * bColumnStride) : 0.0;
+        }
+      }
+    }
+  }
+
+}
+
+/*
+ * Local Variables:
+ *   coding:utf-8
+ *   mode:Java
+ * End:
+ */
@@ -0,0 +1,250 @@
+/*
+ * @(#)Gradients.java 1.00 26/10/18
+ *
+ * Copyright (C) 2026 Jürgen Reuter
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.soundpaint.ml.common;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Reverse-mode automatic differentiation.  {@link #gradients(Node,
+ * List)} extends the graph by a backward pass of nodes that compute
+ * the gradients of a scalar loss with respect to any nodes that the
+ * loss depends on, typically the variables to be trained.  The nodes
+ * of the backward pass are built from the gradients that each
+ * operation defines via {@link Operation#createGradient(int, Node)}.
+ * They read the output values of the forward pass rather than
+ * computing them again, provided that the loss or any other node of
+ * the forward pass is evaluated in the same {@link Session#run(List,
+ * FeedDictionary)}, or in an incremental session.
+ */
+public class Gradients
+{
+  /**
+   * Returns for each of the given nodes a node that computes the
+   * gradient of the loss with respect to the output value of that
+   * node, which has the shape of that output value, or null if the
+   * loss does not depend on it.  The loss is expected to be a Double
+   * or a 1×1 Matrix; for a larger matrix, the gradient of the sum of
+   * its elements is computed.
+   *
+   * Only operations on the paths from the given nodes to the loss
+   * are differentiated, and where a node contributes to the loss via
+   * multiple paths, the gradients of all paths are summed up.
+   *
+   * @exception UnsupportedOperationException If an operation on such
+   * a path does not support differentiation.
+   */
+  public static List<Node<?, ?>> gradients(final Node<?, ?> loss,
+                                           final List<? extends Node<?, ?>>
+                                           nodes)
+  {
+    if (loss == null) {
+      throw new NullPointerException("loss");
+    }
+    if (nodes == null) {
+      throw new NullPointerException("nodes");
+    }
+    final Set<Node<?, ?>> requested = createIdentitySet();
+    for (final Node<?, ?> node : nodes) {
+      if (node == null) {
+        throw new NullPointerException("node");
+      }
+      requested.add(node);
+    }
+    final List<Node<?, ?>> order = Node.traversePostOrder(List.of(loss));
+    final Set<Node<?, ?>> dependsOnRequested = createIdentitySet();
+    for (final Node<?, ?> node : order) {
+      if (requested.contains(node) || hasInput(node, dependsOnRequested)) {
+        dependsOnRequested.add(node);
+      }
+    }
+    final Map<Node<?, ?>, List<Node<?, ?>>> contributions =
+      new IdentityHashMap<Node<?, ?>, List<Node<?, ?>>>();
+    final Map<Node<?, ?>, Node<?, ?>> gradients =
+      new IdentityHashMap<Node<?, ?>, Node<?, ?>>();
+    if (dependsOnRequested.contains(loss)) {
+      addContribution(contributions, loss, new SeedOperation<>(loss));
+    }
+    for (int position = order.size() - 1; position >= 0; position--) {
+      final Node<?, ?> node = order.get(position);
+      final List<Node<?, ?>> nodeContributions = contributions.get(node);
+      if (nodeContributions == null) {
+        continue;
+      }
+      final Node<?, ?> gradient =
+        nodeContributions.size() == 1 ?
+        nodeContributions.get(0) :
+        new SumOperation<>(nodeContributions);
+      gradients.put(node, gradient);
+      if (node instanceof Operation) {
+        propagate((Operation<?, ?>)node, gradient,
+                  dependsOnRequested, contributions);
+      }
+    }
+    final List<Node<?, ?>> result = new ArrayList<Node<?, ?>>();
+    for (final Node<?, ?> node : nodes) {
+      result.add(gradients.get(node));
+    }
+    return result;
+  }
+
+  private static Set<Node<?, ?>> createIdentitySet()
+  {
+    return
+      Collections.newSetFromMap(new IdentityHashMap<Node<?, ?>, Boolean>());
+  }
+
+  private static boolean hasInput(final Node<?, ?> node,
+                                  final Set<Node<?, ?>> candidates)
+  {
+    if (node instanceof Operation) {
+      for (final Node<?, ?> inputNode :
+             ((Operation<?, ?>)node).getInputNodes()) {
+        if (candidates.contains(inputNode)) {
+          return true;
+        }
+      }
+    }
+    return false;
+  }
+
+  private static void addContribution(final Map<Node<?, ?>,
+                                      List<Node<?, ?>>> contributions,
+                                      final Node<?, ?> node,
+                                      final Node<?, ?> gradient)
+  {
+    contributions.computeIfAbsent(node, key -> new ArrayList<Node<?, ?>>()).
+      add(gradient);
+  }
+
+  /**
+   * Adds the gradient contributions of the operation, whose output
+   * value has the given gradient, to those of its input nodes that
+   * depend on any requested node.
+   */
+  private static <U, V> void propagate(final Operation<U, V> operation,
+                                       final Node<?, ?> outputGradient,
+                                       final Set<Node<?, ?>> dependsOnRequested,
+                                       final Map<Node<?, ?>,
+                                       List<Node<?, ?>>> contributions)
+  {
+    // the gradient has the type of the output value
+    @SuppressWarnings("unchecked")
+    final Node<?, V> typedOutputGradient = (Node<?, V>)outputGradient;
+    final List<? extends Node<?, U>> inputNodes = operation.getInputNodes();
+    for (int index = 0; index < inputNodes.size(); index++) {
+      final Node<?, U> inputNode = inputNodes.get(index);
+      if (dependsOnRequested.contains(inputNode)) {
+        final Node<?, U> inputGradient =
+          operation.createGradient(index, typedOutputGradient);
+        if (inputGradient != null) {
+          addContribution(contributions, inputNode, inputGradient);
+        }
+      }
+    }
+  }
+
+  /**
+   * Provides the gradient of the loss with respect to itself, i.e. 1,
+   * shaped like the loss.
+   */
+  private static class SeedOperation<T> extends Operation<T, T>
+  {
+    private SeedOperation(final Node<?, T> loss)
+    {
+      super("gradientseedop", List.of(loss));
+    }
+
+    // T is Double or Matrix, as checked before casting
+    @SuppressWarnings("unchecked")
+    public T performOperation()
+    {
+      final T loss = inputValues.get(0);
+      if (loss instanceof Double) {
+        return (T)Double.valueOf(1.0);
+      }
+      if (!(loss instanceof Matrix)) {
+        throw new UnsupportedOperationException("unsupported loss type: " +
+                                                loss.getClass());
+      }
+      final Matrix matrix = (Matrix)loss;
+      final T previous = getReusableOutputValue();
+      if ((previous instanceof Matrix) &&
+          (((Matrix)previous).getRows() == matrix.getRows()) &&
+          (((Matrix)previous).getColumns() == matrix.getColumns())) {
+        return previous;
+      }
+      return (T)Matrix.createOnes(matrix.getColumns(), matrix.getRows(),
+                                  matrix.getDataType());
+    }
+  }
+
+  /**
+   * Sums up the gradients that a node receives via multiple paths.
+   */
+  private static class SumOperation<T> extends Operation<T, T>
+  {
+    // the gradients of a node all have the type of its output value
+    @SuppressWarnings("unchecked")
+    private SumOperation(final List<Node<?, ?>> gradients)
+    {
+      super("gradientsumop", (List<? extends Node<?, T>>)(List<?>)gradients);
+    }
+
+    // T is Double or Matrix, as checked before casting
+    @SuppressWarnings("unchecked")
+    public T performOperation()
+    {
+      final T first = inputValues.get(0);
+      if (first instanceof Double) {
+        double sum = 0.0;
+        for (final T value : inputValues) {
+          sum += (Double)value;
+        }
+        return (T)Double.valueOf(sum);
+      }
+      if (!(first instanceof Matrix)) {
+        throw new UnsupportedOperationException("unsupported gradient type: " +
+                                                first.getClass());
+      }
+      final Matrix[] matrices = inputValues.toArray(new Matrix[0]);
+      final Matrix output =
+        Matrix.reuseOrCreate((Matrix)getReusableOutputValue(),
+                             getMatrixPool(),
+                             matrices[0].getRows(), matrices[0].getColumns(),
+                             matrices);
+      matrices[0].addInto(matrices[1], output);
+      for (int index = 2; index < matrices.length; index++) {
+        output.addInto(matrices[index], output);
+      }
+      return (T)output;
+    }
+  }
+}
+
+/*
+ * Local Variables:
+ *   coding:utf-8
+ *   mode:Java
+ * End:
+ */
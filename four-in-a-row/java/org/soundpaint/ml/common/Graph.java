@@ -34,27 +34,52 @@ public class Graph
   private final List<Operation<?, ?>> operations;
   private final List<Placeholder<?>> placeholders;
   private final List<Variable<?>> variables;
+  private long version;
 
   private Graph()
   {
     operations = new ArrayList<Operation<?, ?>>();
     placeholders = new ArrayList<Placeholder<?>>();
     variables = new ArrayList<Variable<?>>();
+    version = 0;
+  }
+
+  /**
+   * Returns a number that changes whenever nodes are added to or
+   * removed from this graph, or properties of nodes change that
+   * execution plans depend on, such that sessions can tell whether
+   * their cached execution plans are still valid.
+   */
+  public long getVersion()
+  {
+    return version;
+  }
+
+  /**
+   * Invalidates all cached execution plans, e.g. since a property of
+   * a node has changed that plans depend on.
+   */
+  void invalidatePlans()
+  {
+    version++;
   }
 
   public void add(final Operation<?, ?> operation)
   {
     operations.add(operation);
+    version++;
   }
 
   public void add(final Placeholder<?> placeholder)
   {
     placeholders.add(placeholder);
+    version++;
   }
 
   public void add(final Variable<?> variable)
   {
     variables.add(variable);
+    version++;
   }
 
   public void clear()
@@ -62,6 +87,7 @@ public class Graph
     operations.clear();
     placeholders.clear();
     variables.clear();
+    version++;
   }
 
   /**
@@ -19,7 +19,12 @@
 package org.soundpaint.ml.common;
 
 import java.awt.Color;
+import java.util.ArrayList;
 import java.util.List;
+import java.util.PrimitiveIterator;
+import java.util.concurrent.ForkJoinTask;
+
+import org.soundpaint.ml.optimizer.AdamOptimizer;
 
 public class GraphTest
 {
@@ -27,7 +32,7 @@ public class GraphTest
   {
     System.out.println("running test #0");
     Graph.getDefaultInstance().clear();
-    RandomUtils.getRandom().setSeed(101);
+    RandomUtils.setSeed(101);
     final FeedDictionary feedDictionary = new FeedDictionary();
     final var randA = Variable.createRandomUniform(0.0, 100.0, 5, 5);
     final var randB = Variable.createRandomUniform(0.0, 100.0, 5, 1);
@@ -88,7 +93,7 @@ public class GraphTest
   {
     System.out.println("running test #3");
     Graph.getDefaultInstance().clear();
-    RandomUtils.getRandom().setSeed(101);
+    RandomUtils.setSeed(101);
     final FeedDictionary feedDictionary = new FeedDictionary();
 
     final var nFeatures = 10;
@@ -112,7 +117,7 @@ public class GraphTest
   {
     System.out.println("running test #4");
     Graph.getDefaultInstance().clear();
-    RandomUtils.getRandom().setSeed(101);
+    RandomUtils.setSeed(101);
     final FeedDictionary feedDictionary = new FeedDictionary();
 
     final var xData0 = Variable.createLinearSpace(0.0, 10.0, 11);
@@ -127,20 +132,22 @@ public class GraphTest
     final var b = Variable.create(0.87);
 
     final var session = new Session();
+    // xData and yLabel are independent => evaluate them concurrently
+    session.setInterOpParallelism(2);
     session.run(List.of(xData, yLabel, m, b), feedDictionary);
 
     var error =
       new Operation<Matrix, Double>("errorop", List.of()) {
         public Double performOperation()
         {
-          final List<StreamUtils.Pair<Double, Double>> zipped =
-          StreamUtils.zipToList(xData.getOutputValue().stream(),
-                                yLabel.getOutputValue().stream(),
-                                new StreamUtils.PairFactory<Double,Double>());
+          final PrimitiveIterator.OfDouble x =
+            xData.getOutputValue().iterator();
+          final PrimitiveIterator.OfDouble y =
+            yLabel.getOutputValue().iterator();
           double error = 0.0;
-          for (var pair : zipped) {
-            final double yHat = m.getOutputValue() * pair.a + b.getOutputValue();
-            error += Math.pow(pair.b - yHat, 2);
+          while (x.hasNext() && y.hasNext()) {
+            final double yHat = m.getOutputValue() * x.nextDouble() + b.getOutputValue();
+            error += Math.pow(y.nextDouble() - yHat, 2);
           }
           return error;
         }
@@ -171,14 +178,14 @@ public class GraphTest
   {
     System.out.println("running test #5");
     Graph.getDefaultInstance().clear();
-    RandomUtils.getRandom().setSeed(101);
+    RandomUtils.setSeed(101);
     final FeedDictionary feedDictionary = new FeedDictionary();
 
     final var xData = Matrix.createLinearSpace(1001, 0.0, 10.0);
     System.out.println("xData=" + xData);
     final var noise = Matrix.createRandomNormal(1001);
     System.out.println("noise=" + noise);
-    final var yTrue = xData.scale(0.5).add(5.0).add(noise);
+    final var yTrue = xData.lazy().scale(0.5).add(5.0).add(noise).materialize();
     final var myData =
       Matrix.concat(xData, yTrue, Matrix.Direction.VERTICAL).transpose();
     final var mySampleData = myData.sample(Matrix.Direction.VERTICAL, 250);
@@ -206,6 +213,123 @@ public class GraphTest
       .square()
       .asMatrix()
       .reduceSum();
+
+    // Evaluate error and its gradients in a single run, such that the
+    // backward pass reuses the forward pass' values.
+    final var gradients =
+      Gradients.gradients(error.getOperand(), List.of(m, b));
+    feedDictionary.put(xph, mySampleData.getElementAt(0, 0));
+    feedDictionary.put(yph, mySampleData.getElementAt(0, 1));
+    final var session = new Session();
+    final List<Object> result =
+      session.run(List.of(error.getOperand(),
+                          gradients.get(0), gradients.get(1)),
+                  feedDictionary);
+    System.out.println("error=" + result.get(0) +
+                       ", d(error)/dm=" + result.get(1) +
+                       ", d(error)/db=" + result.get(2));
+  }
+
+  private void test6()
+  {
+    System.out.println("running test #6");
+    Graph.getDefaultInstance().clear();
+    RandomUtils.setSeed(101);
+    final FeedDictionary feedDictionary = new FeedDictionary();
+
+    // fit y = 0.5x + 5 by a single linear neuron, minimizing the
+    // mean squared error with Adam
+    final var count = 101;
+    final var xData = Matrix.createLinearSpace(count, 0.0, 10.0).transpose();
+    final var noise = Matrix.createRandomNormal(1, count, 0.5, 0.0);
+    final var yData =
+      xData.lazy().scale(0.5).add(5.0).add(noise).materialize();
+    final var x = new Placeholder<Matrix>();
+    final var y = new Placeholder<Matrix>();
+    feedDictionary.put(x, xData);
+    feedDictionary.put(y, yData);
+    final var w = Variable.createMatrix(new double[][] {{0.81}});
+    final var b = Variable.createMatrix(new double[][] {{0.17}});
+    final var yModel =
+      new MatrixAddOperation(new MatrixMultiplyOperation(x, w), b);
+    final var residual =
+      new MatrixAddOperation(yModel, new MatrixScaleOperation(-1.0, y));
+    final var squaredError =
+      new MatrixMultiplyOperation(new MatrixTransposeOperation(residual),
+                                  residual);
+    final var error = new MatrixScaleOperation(1.0 / count, squaredError);
+    final var optimizer = new AdamOptimizer(0.1);
+    final var train = optimizer.minimize(error, List.of(w, b));
+    final var session = new Session();
+    for (var step = 0; step <= 1000; step++) {
+      final List<Object> result =
+        session.run(List.of(error, train), feedDictionary);
+      if (step % 200 == 0) {
+        System.out.println("step " + step + ": error=" + result.get(0));
+      }
+    }
+    System.out.println("w=" + w.getValue() + ", b=" + b.getValue());
+    // expected result: w close to 0.5, b close to 5.0
+  }
+
+  private static boolean haveEqualElements(final Matrix a, final Matrix b)
+  {
+    final PrimitiveIterator.OfDouble aElements = a.iterator();
+    final PrimitiveIterator.OfDouble bElements = b.iterator();
+    while (aElements.hasNext() && bElements.hasNext()) {
+      if (aElements.nextDouble() != bElements.nextDouble()) {
+        return false;
+      }
+    }
+    return !aElements.hasNext() && !bElements.hasNext();
+  }
+
+  private void test7()
+  {
+    System.out.println("running test #7");
+    Graph.getDefaultInstance().clear();
+    RandomUtils.setSeed(101);
+    final FeedDictionary feedDictionary = new FeedDictionary();
+
+    // independent products large enough for the blocked kernel,
+    // evaluated concurrently, must equal their sequential evaluation
+    final var products = new ArrayList<Node<?, ?>>();
+    for (var index = 0; index < 16; index++) {
+      final var size = 64 + 16 * index;
+      final var x =
+        Variable.create(Matrix.createRandomNormal(size, size, 1.0, 0.0));
+      final var y =
+        Variable.create(Matrix.createRandomNormal(size, size, 1.0, 0.0));
+      products.add(new MatrixMultiplyOperation(x, y));
+    }
+    final var sequential = new Session();
+    final List<Object> expected = sequential.run(products, feedDictionary);
+    final var concurrent = new Session();
+    concurrent.setInterOpParallelism(products.size());
+    // let each thread that is about to wait for the row blocks of a
+    // kernel first run other pending tasks, such as other products
+    final ExecutionPolicy policy = Matrix.getExecutionPolicy();
+    Matrix.setExecutionPolicy((rows, costPerRow, task) -> {
+        if (ForkJoinTask.inForkJoinPool()) {
+          ForkJoinTask.helpQuiesce();
+        }
+        policy.forEachRowBlock(rows, costPerRow, task);
+      });
+    var equal = true;
+    try {
+      for (var run = 0; run < 10; run++) {
+        final List<Object> result = concurrent.run(products, feedDictionary);
+        for (var index = 0; index < products.size(); index++) {
+          equal &= haveEqualElements((Matrix)result.get(index),
+                                     (Matrix)expected.get(index));
+        }
+      }
+    } finally {
+      Matrix.setExecutionPolicy(policy);
+    }
+    System.out.println("concurrent products equal sequential ones: " +
+                       equal);
+    // expected result: true
   }
 
   public static void main(final String argv[])
@@ -218,6 +342,8 @@ public class GraphTest
     graphTest.test3();
     graphTest.test4();
     graphTest.test5();
+    graphTest.test6();
+    graphTest.test7();
     System.out.println("all tests done");
   }
 }
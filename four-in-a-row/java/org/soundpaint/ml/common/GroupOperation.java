@@ -38,6 +38,17 @@ public class GroupOperation<T> extends Operation<T, Void>
     }
     return null;
   }
+
+  /**
+   * A group has no output value that a loss could depend on, hence
+   * it contributes no gradient to the grouped operations.
+   */
+  @Override
+  public Node<?, T> createGradient(final int index,
+                                   final Node<?, Void> outputGradient)
+  {
+    return null;
+  }
 }
 
 /*
@@ -19,10 +19,19 @@
 package org.soundpaint.ml.common;
 
 import java.awt.Color;
+import java.io.IOException;
+import java.nio.file.Path;
 import java.util.ArrayList;
-import java.util.Iterator;
+import java.util.Arrays;
 import java.util.List;
-import java.util.NoSuchElementException;
+import java.util.PrimitiveIterator;
+import java.util.SplittableRandom;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.function.DoubleConsumer;
+import java.util.function.DoubleUnaryOperator;
+import java.util.random.RandomGenerator;
+import java.util.stream.DoubleStream;
 import java.util.stream.Stream;
 import java.util.stream.StreamSupport;
 
@@ -34,104 +43,314 @@ import java.util.stream.StreamSupport;
 // classes like java.lang.Double to implement such an interface with
 // algebraic operations to be applicable for a generic Matrix<T> type
 // with base type T that implements algebraic operations.
-// For now, we assume Double as the only base type of matrices.
+// For now, we assume Double as the only base type of matrices, but
+// elements may be stored either in double or in single precision;
+// see DataType.
 public class Matrix implements Iterable<Double>
 {
   public enum Direction { HORIZONTAL, VERTICAL };
 
-  private class ElementIterator implements Iterator<Double>
+  /**
+   * Storage precision of matrix elements.  Elements are always read
+   * and written as double values; FLOAT32 matrices round them to
+   * single precision upon storing, trading precision for half the
+   * memory and twice the SIMD width.  Kernels combining FLOAT32 and
+   * FLOAT64 operands produce FLOAT64 results, and sums and products
+   * are accumulated in double precision in either case.
+   */
+  public enum DataType
+  {
+    FLOAT64, FLOAT32;
+
+    static DataType promote(final DataType a, final DataType b)
+    {
+      return (a == FLOAT32) && (b == FLOAT32) ? FLOAT32 : FLOAT64;
+    }
+  };
+
+  /**
+   * Spliterator over the elements of this matrix in row-major order.
+   * Splitting is done along row ranges, such that each part covers
+   * whole rows (except for a partially consumed first row) and the
+   * size of each part is known exactly.
+   */
+  private class ElementSpliterator implements Spliterator.OfDouble
   {
-    private final Direction direction;
-    private final int rowsBound;
-    private final int columnsBound;
+    private final int toRow;
     private int row, column;
 
-    private ElementIterator()
+    private ElementSpliterator(final int fromRow, final int fromColumn,
+                               final int toRow)
     {
-      direction = null;
-      row = 0;
-      column = 0;
-      rowsBound = rows;
-      columnsBound = columns;
+      this.toRow = toRow;
+      row = columns > 0 ? fromRow : toRow;
+      column = fromColumn;
     }
 
-    private ElementIterator(final Direction direction, final int index)
+    public boolean tryAdvance(final DoubleConsumer action)
     {
-      this.direction = direction;
-      switch (direction) {
-      case HORIZONTAL:
-        row = index;
+      if (action == null) {
+        throw new NullPointerException("action");
+      }
+      if (row >= toRow) {
+        return false;
+      }
+      action.accept(load(index(row, column)));
+      column++;
+      if (column >= columns) {
         column = 0;
-        rowsBound = index;
-        columnsBound = columns;
-        break;
-      case VERTICAL:
-        row = 0;
-        column = index;
-        rowsBound = rows;
-        columnsBound = index;
-        break;
-      default:
-        throw new IllegalStateException("unexpected case fall-through");
+        row++;
       }
+      return true;
     }
 
-    public boolean hasNext()
+    public void forEachRemaining(final DoubleConsumer action)
     {
-      return (row < rows) && (column < columns);
+      if (action == null) {
+        throw new NullPointerException("action");
+      }
+      for (; row < toRow; row++) {
+        int index = index(row, column);
+        for (; column < columns; column++) {
+          action.accept(load(index));
+          index += columnStride;
+        }
+        column = 0;
+      }
     }
 
-    private void updateIndices()
+    public Spliterator.OfDouble trySplit()
     {
-      if (direction != null) {
-        switch (direction) {
-        case HORIZONTAL:
-          column++;
-          break;
-        case VERTICAL:
-          row++;
-          break;
-        default:
-          throw new IllegalStateException("unexpected case fall-through");
-        }
-      } else {
-        if (column < columns) {
-          column++;
-        } else if (row < rows) {
-          column = 0;
-          row++;
-        }
+      final int fromFullRow = column == 0 ? row : row + 1;
+      final int fullRows = toRow - fromFullRow;
+      if (fullRows < 2) {
+        return null;
       }
+      final int splitRow = fromFullRow + fullRows / 2;
+      final ElementSpliterator prefix =
+        new ElementSpliterator(row, column, splitRow);
+      row = splitRow;
+      column = 0;
+      return prefix;
     }
 
-    public Double next()
+    public long estimateSize()
     {
-      if (!hasNext()) {
-        throw new NoSuchElementException();
-      }
-      final Double next = elements[row][column];
-      updateIndices();
-      return next;
+      return (long)(toRow - row) * columns - column;
+    }
+
+    public int characteristics()
+    {
+      return ORDERED | SIZED | SUBSIZED | NONNULL;
     }
   }
 
-  private final String id;
-  private final double[][] elements;
+  private String id;
   private final int rows;
   private final int columns;
 
+  /**
+   * Element storage.  All elements of the matrix live in a single
+   * array, which is <code>elements</code> for data type FLOAT64 and
+   * <code>floatElements</code> for data type FLOAT32, or in
+   * <code>offHeapElements</code> for matrices allocated outside of
+   * the heap, while the others are null.  Kernels have fast paths for
+   * the heap arrays and access off-heap elements via {@link
+   * #load(int)} and {@link #store(int, double)}, or in bulk for
+   * copies.  The element at (row, column) is found at index
+   * <code>offset + row * rowStride + column * columnStride</code>.
+   * Matrices created by this class are laid out row-major and
+   * contiguously, i.e. with <code>rowStride == columns</code> and
+   * <code>columnStride == 1</code>, but kernels must not rely on
+   * that unless {@link #isContiguous()} says so, since views such as
+   * transposed matrices or slices share the storage of the matrix
+   * they were created from, with different offset and strides.
+   *
+   * Index-gather views additionally map each row to some row of the
+   * underlying storage via <code>rowIndices</code>, such that the
+   * element at (row, column) is found at index <code>offset +
+   * rowIndices[row] * rowStride + column * columnStride</code>.
+   * Kernels therefore must compute the start of each row via {@link
+   * #index(int, int)} rather than stepping by rowStride.
+   */
+  private final double[] elements;
+  private final float[] floatElements;
+  private final OffHeapStorage offHeapElements;
+  private final int offset;
+  private final int rowStride;
+  private final int columnStride;
+  private final int[] rowIndices;
+
+  /**
+   * Number of elements summed up per block in reductions.  Partial
+   * sums of blocks are added in block order, such that the result of
+   * a reduction does not depend on how the blocks are distributed
+   * over threads.
+   */
+  private static final int REDUCTION_BLOCK_SIZE = 4096;
+
+  /**
+   * Number of elements that random matrix factories fill from the
+   * same generator.
+   */
+  private static final int RANDOM_BLOCK_SIZE = 4096;
+
+  /**
+   * Maximum number of samples that {@link #applyInto(SampleFunction,
+   * Matrix)} draws per call of the sample function.
+   */
+  private static final int SAMPLE_CHUNK_SIZE = 1024;
+
+  private static final ArrayKernels kernels = ArrayKernels.getInstance();
+
+  private static volatile ExecutionPolicy executionPolicy =
+    ExecutionPolicy.forkJoin();
+
+  /**
+   * Returns the execution policy that matrix kernels use for
+   * distributing their work.
+   */
+  public static ExecutionPolicy getExecutionPolicy()
+  {
+    return executionPolicy;
+  }
+
+  /**
+   * Sets the execution policy that all subsequent matrix kernels
+   * use for distributing their work.
+   */
+  public static void setExecutionPolicy(final ExecutionPolicy policy)
+  {
+    if (policy == null) {
+      throw new NullPointerException("policy");
+    }
+    executionPolicy = policy;
+  }
+
+  /**
+   * Returns true if the elements of this matrix may be accessed by
+   * the calling thread only.
+   */
+  boolean isThreadConfined()
+  {
+    return (offHeapElements != null) && offHeapElements.isThreadConfined();
+  }
+
+  /**
+   * Returns the execution policy for a kernel on this matrix and the
+   * other matrices, which is sequential if any of them is confined
+   * to the calling thread, or else the one of {@link
+   * #getExecutionPolicy()}.  Kernels must select their policy this
+   * way rather than use the latter directly.
+   */
+  ExecutionPolicy selectExecutionPolicy(final Matrix... others)
+  {
+    if (isThreadConfined()) {
+      return ExecutionPolicy.sequential();
+    }
+    for (final Matrix other : others) {
+      if (other.isThreadConfined()) {
+        return ExecutionPolicy.sequential();
+      }
+    }
+    return executionPolicy;
+  }
+
+  /**
+   * Creates columns×rows matrix filled with 0 values, e.g. for use as
+   * target of the <code>…Into()</code> methods.
+   */
+  public static Matrix createZeros(final int columns, final int rows)
+  {
+    return new Matrix(rows, columns);
+  }
+
+  public static Matrix createZeros(final int columns, final int rows,
+                                   final DataType dataType)
+  {
+    return new Matrix(rows, columns, dataType);
+  }
+
+  /**
+   * Returns the candidate matrix if it may serve as target for a
+   * kernel result of shape rows×columns, i.e. if it has that shape,
+   * the data type of the kernel result, is laid out contiguously and
+   * does not share storage with any of the operands of the kernel.
+   * Otherwise, returns a newly created rows×columns matrix.  Used by
+   * operations to recycle their previous output value.
+   */
+  public static Matrix reuseOrCreate(final Matrix candidate,
+                                     final int rows, final int columns,
+                                     final Matrix... operands)
+  {
+    return reuseOrCreate(candidate, null, rows, columns, operands);
+  }
+
+  /**
+   * Like {@link #reuseOrCreate(Matrix, int, int, Matrix...)}, but
+   * acquires the new matrix from the pool, if the pool is not null.
+   */
+  public static Matrix reuseOrCreate(final Matrix candidate,
+                                     final MatrixPool pool,
+                                     final int rows, final int columns,
+                                     final Matrix... operands)
+  {
+    DataType dataType =
+      operands.length > 0 ? DataType.FLOAT32 : DataType.FLOAT64;
+    for (final Matrix operand : operands) {
+      dataType = DataType.promote(dataType, operand.getDataType());
+    }
+    return reuseOrCreate(candidate, pool, rows, columns, dataType, operands);
+  }
+
+  /**
+   * Like {@link #reuseOrCreate(Matrix, MatrixPool, int, int,
+   * Matrix...)}, but with the given data type rather than the one
+   * promoted from the operands.
+   */
+  static Matrix reuseOrCreate(final Matrix candidate,
+                              final MatrixPool pool,
+                              final int rows, final int columns,
+                              final DataType dataType,
+                              final Matrix... operands)
+  {
+    if ((candidate != null) &&
+        (candidate.rows == rows) && (candidate.columns == columns) &&
+        (candidate.getDataType() == dataType) &&
+        candidate.isContiguous()) {
+      boolean shared = false;
+      for (final Matrix operand : operands) {
+        if (candidate.sharesStorageWith(operand)) {
+          shared = true;
+          break;
+        }
+      }
+      if (!shared) {
+        return candidate;
+      }
+    }
+    if (pool != null) {
+      return pool.acquire(rows, columns, dataType);
+    }
+    return new Matrix(rows, columns, dataType);
+  }
+
   /**
    * Creates columns×rows matrix filled with 1 values.
    */
   public static Matrix createOnes(final int columns, final int rows)
   {
-    final double[][] elements = new double[rows][columns];
-    for (var row = 0; row < rows; row++) {
-      for (var column = 0; column < columns; column++) {
-        elements[row][column] = BasicSampleFunction.ONES.apply(null);
-      }
+    return createOnes(columns, rows, DataType.FLOAT64);
+  }
+
+  public static Matrix createOnes(final int columns, final int rows,
+                                  final DataType dataType)
+  {
+    final Matrix matrix = new Matrix(rows, columns, dataType);
+    for (var index = 0; index < matrix.getSize(); index++) {
+      matrix.store(index, BasicSampleFunction.ONES.apply(null));
     }
-    return new Matrix(elements);
+    return matrix;
   }
 
   public static Matrix createLinearSpace(final int count,
@@ -145,6 +364,16 @@ public class Matrix implements Iterable<Double>
                                          final int rows,
                                          final double firstValue,
                                          final double lastValue)
+  {
+    return createLinearSpace(columns, rows, firstValue, lastValue,
+                             DataType.FLOAT64);
+  }
+
+  public static Matrix createLinearSpace(final int columns,
+                                         final int rows,
+                                         final double firstValue,
+                                         final double lastValue,
+                                         final DataType dataType)
   {
     final int count = rows * columns;
     if (count <= 1) {
@@ -153,30 +382,36 @@ public class Matrix implements Iterable<Double>
     }
     final double space = lastValue - firstValue;
     final double distance = space / (count - 1);
-    final double[][] elements = new double[rows][columns];
-    int index = 0;
-    for (var row = 0; row < rows; row++) {
-      for (var column = 0; column < columns; column++) {
-        elements[row][column] = firstValue + index++ * distance;
-      }
+    final Matrix matrix = new Matrix(rows, columns, dataType);
+    for (var index = 0; index < count; index++) {
+      matrix.store(index, firstValue + index * distance);
     }
-    return new Matrix(elements);
+    return matrix;
   }
 
   public static Matrix createRandomUniform(final int columns,
                                            final int rows,
                                            final double minValue,
                                            final double maxValue)
+  {
+    return createRandomUniform(columns, rows, minValue, maxValue,
+                               DataType.FLOAT64);
+  }
+
+  public static Matrix createRandomUniform(final int columns,
+                                           final int rows,
+                                           final double minValue,
+                                           final double maxValue,
+                                           final DataType dataType)
   {
     final double interval = maxValue - minValue;
-    final double[][] elements = new double[rows][columns];
-    for (var row = 0; row < rows; row++) {
-      for (var column = 0; column < columns; column++) {
-        elements[row][column] =
-          minValue + interval * BasicSampleFunction.RANDOM_UNIFORM.apply(null);
-      }
-    }
-    return new Matrix(elements);
+    return fillRandom(new Matrix(rows, columns, dataType),
+                      (random, values, length) -> {
+                        RandomUtils.fillUniform(random, values, 0, length);
+                        for (int index = 0; index < length; index++) {
+                          values[index] = minValue + interval * values[index];
+                        }
+                      });
   }
 
   public static Matrix createRandomNormal(final int count)
@@ -196,14 +431,88 @@ public class Matrix implements Iterable<Double>
                                           final double σ,
                                           final double µ)
   {
-    final double[][] elements = new double[rows][columns];
-    for (var row = 0; row < rows; row++) {
-      for (var column = 0; column < columns; column++) {
-        elements[row][column] =
-          BasicSampleFunction.RANDOM_NORMAL.apply(null) * σ + µ;
-      }
-    }
-    return new Matrix(elements);
+    return createRandomNormal(columns, rows, σ, µ, DataType.FLOAT64);
+  }
+
+  public static Matrix createRandomNormal(final int columns,
+                                          final int rows,
+                                          final double σ,
+                                          final double µ,
+                                          final DataType dataType)
+  {
+    return fillRandom(new Matrix(rows, columns, dataType),
+                      (random, values, length) -> {
+                        RandomUtils.fillNormal(random, values, 0, length);
+                        for (int index = 0; index < length; index++) {
+                          values[index] = values[index] * σ + µ;
+                        }
+                      });
+  }
+
+  /**
+   * Creates a columns×rows matrix of samples of the normal
+   * distribution with standard deviation σ and mean µ, truncated to
+   * [µ - {@link RandomUtils#TRUNCATION_BOUND}·σ, µ + {@link
+   * RandomUtils#TRUNCATION_BOUND}·σ], as commonly used for initial
+   * weights.
+   */
+  public static Matrix createTruncatedNormal(final int columns,
+                                             final int rows,
+                                             final double σ,
+                                             final double µ)
+  {
+    return createTruncatedNormal(columns, rows, σ, µ, DataType.FLOAT64);
+  }
+
+  public static Matrix createTruncatedNormal(final int columns,
+                                             final int rows,
+                                             final double σ,
+                                             final double µ,
+                                             final DataType dataType)
+  {
+    return fillRandom(new Matrix(rows, columns, dataType),
+                      (random, values, length) -> {
+                        RandomUtils.fillTruncatedNormal(random, values,
+                                                        0, length);
+                        for (int index = 0; index < length; index++) {
+                          values[index] = values[index] * σ + µ;
+                        }
+                      });
+  }
+
+  /**
+   * Fills a block of values with random samples.
+   */
+  private interface RandomFill
+  {
+    void fill(RandomGenerator random, double[] values, int length);
+  }
+
+  /**
+   * Fills the newly created, contiguous matrix block by block with
+   * samples, each block with its own generator split off {@link
+   * RandomUtils}.  Since the blocks have a fixed size, the result
+   * depends on the seed only, but not on how the blocks are
+   * distributed over threads.
+   */
+  private static Matrix fillRandom(final Matrix matrix, final RandomFill fill)
+  {
+    final Matrix flat = matrix.flatView();
+    final int size = matrix.getSize();
+    final int blocks = (size + RANDOM_BLOCK_SIZE - 1) / RANDOM_BLOCK_SIZE;
+    final SplittableRandom[] generators = RandomUtils.split(blocks);
+    final ExecutionPolicy policy = matrix.selectExecutionPolicy();
+    policy.forEachRowBlock(blocks, RANDOM_BLOCK_SIZE,
+                           (fromBlock, toBlock) -> {
+        final double[] values = new double[RANDOM_BLOCK_SIZE];
+        for (int block = fromBlock; block < toBlock; block++) {
+          final int fromIndex = block * RANDOM_BLOCK_SIZE;
+          final int length = Math.min(RANDOM_BLOCK_SIZE, size - fromIndex);
+          fill.fill(generators[block], values, length);
+          flat.storeRow(0, fromIndex, values, length);
+        }
+      });
+    return matrix;
   }
 
   public static Matrix fromArray(final double[][] elements)
@@ -215,13 +524,64 @@ public class Matrix implements Iterable<Double>
         columns = elements[row].length;
       }
     }
-    final double[][] internalElements = new double[rows][columns];
+    final double[] internalElements = new double[rows * columns];
+    for (int row = 0; row < rows; row++) {
+      System.arraycopy(elements[row], 0, internalElements, row * columns,
+                       elements[row].length);
+    }
+    return new Matrix(rows, columns, internalElements);
+  }
+
+  public static Matrix fromArray(final float[][] elements)
+  {
+    final int rows = elements.length;
+    int columns = 0;
     for (int row = 0; row < rows; row++) {
-      for (int column = 0; column < elements[row].length; column++) {
-        internalElements[row][column] = elements[row][column];
+      if (elements[row].length > columns) {
+        columns = elements[row].length;
       }
     }
-    return new Matrix(internalElements);
+    final float[] internalElements = new float[rows * columns];
+    for (int row = 0; row < rows; row++) {
+      System.arraycopy(elements[row], 0, internalElements, row * columns,
+                       elements[row].length);
+    }
+    return new Matrix(rows, columns, internalElements);
+  }
+
+  /**
+   * Opens the NumPy .npy file at path as a read-only matrix that
+   * maps the file into memory rather than reading it, such that
+   * elements are paged in only upon access; see {@link NpyFormat}
+   * for the supported contents.  Use {@link #materialize()} for a
+   * modifiable on-heap copy.
+   */
+  public static Matrix load(final Path path)
+    throws IOException
+  {
+    return NpyFormat.load(path);
+  }
+
+  public static Matrix load(final String filePath)
+    throws IOException
+  {
+    return load(Path.of(filePath));
+  }
+
+  /**
+   * Writes this matrix as NumPy .npy file (format version 1.0) of
+   * its data type to path, replacing any existing file.
+   */
+  public void save(final Path path)
+    throws IOException
+  {
+    NpyFormat.save(this, path);
+  }
+
+  public void save(final String filePath)
+    throws IOException
+  {
+    save(Path.of(filePath));
   }
 
   private Matrix()
@@ -231,24 +591,109 @@ public class Matrix implements Iterable<Double>
 
   public Matrix(final double scale)
   {
-    this(new double[][] {{scale, 0.0}, {0.0, scale}});
+    this(2, 2, new double[] {scale, 0.0, 0.0, scale});
   }
 
-  private Matrix(final double[][] elements)
+  private Matrix(final int rows, final int columns)
   {
-    assert elements != null : "unexpected null elements";
-    id = "matrix-" + Uid.createUniqueId();
-    rows = elements.length;
-    columns = rows > 0 ? elements[0].length : 0;
-    for (int row = 0; row < rows; row++) {
-      assert
-        elements[row].length == columns : "elements must have square shape";
+    this(rows, columns, new double[rows * columns]);
+  }
+
+  private Matrix(final int rows, final int columns, final DataType dataType)
+  {
+    this(rows, columns,
+         dataType == DataType.FLOAT64 ? new double[rows * columns] : null,
+         dataType == DataType.FLOAT32 ? new float[rows * columns] : null,
+         null, 0, columns, 1, null);
+  }
+
+  private Matrix(final int rows, final int columns, final double[] elements)
+  {
+    this(rows, columns, elements, null, null, 0, columns, 1, null);
+  }
+
+  private Matrix(final int rows, final int columns,
+                 final float[] floatElements)
+  {
+    this(rows, columns, null, floatElements, null, 0, columns, 1, null);
+  }
+
+  /**
+   * Creates a matrix on off-heap storage, which must hold exactly
+   * rows×columns elements.  Used by {@link OffHeapMatrices}.
+   */
+  Matrix(final int rows, final int columns,
+         final OffHeapStorage offHeapElements)
+  {
+    this(rows, columns, null, null, offHeapElements, 0, columns, 1, null);
+    if (offHeapElements.getLength() != rows * columns) {
+      throw new IllegalArgumentException("storage size mismatch: " +
+                                         offHeapElements.getLength() +
+                                         " != " + rows + "×" + columns);
     }
+  }
+
+  private Matrix(final int rows, final int columns,
+                 final double[] elements,
+                 final float[] floatElements,
+                 final OffHeapStorage offHeapElements,
+                 final int offset,
+                 final int rowStride,
+                 final int columnStride,
+                 final int[] rowIndices)
+  {
+    assert
+      (elements != null ? 1 : 0) + (floatElements != null ? 1 : 0) +
+      (offHeapElements != null ? 1 : 0) == 1 :
+      "expected exactly one kind of element storage";
+    assert rows >= 0 : "rows must be non-negative";
+    assert columns >= 0 : "columns must be non-negative";
+    assert
+      (rowIndices == null) || (rowIndices.length == rows) :
+      "row indices do not match rows";
+    assert
+      (rows == 0) || (columns == 0) || (rowIndices != null) ||
+      (offset + (rows - 1) * rowStride + (columns - 1) * columnStride <
+       (elements != null ? elements.length :
+        floatElements != null ? floatElements.length :
+        offHeapElements.getLength())) :
+      "elements too small for shape";
+    id = null;
+    this.rows = rows;
+    this.columns = columns;
     this.elements = elements;
+    this.floatElements = floatElements;
+    this.offHeapElements = offHeapElements;
+    this.offset = offset;
+    this.rowStride = rowStride;
+    this.columnStride = columnStride;
+    this.rowIndices = rowIndices;
+  }
+
+  /**
+   * Creates a view with the given shape and layout on the storage of
+   * this matrix.
+   */
+  private Matrix view(final int rows, final int columns,
+                      final int offset,
+                      final int rowStride,
+                      final int columnStride,
+                      final int[] rowIndices)
+  {
+    return new Matrix(rows, columns, elements, floatElements, offHeapElements,
+                      offset, rowStride, columnStride, rowIndices);
   }
 
+  /**
+   * Returns the id of this matrix.  The id is created lazily upon
+   * first request, since most matrices, e.g. intermediate results of
+   * kernels, never need one.
+   */
   public String getId()
   {
+    if (id == null) {
+      id = "matrix-" + Uid.createUniqueId();
+    }
     return id;
   }
 
@@ -267,178 +712,1035 @@ public class Matrix implements Iterable<Double>
     return rows * columns;
   }
 
-  public Double getElementAt(final int row, final int column)
+  public DataType getDataType()
   {
-    return elements[row][column];
+    if (elements != null) {
+      return DataType.FLOAT64;
+    }
+    if (floatElements != null) {
+      return DataType.FLOAT32;
+    }
+    return offHeapElements.getDataType();
   }
 
-  public void setElementAt(final int row, final int column,
-                           final Double element)
+  /**
+   * Returns this matrix, if it already has the requested data type,
+   * or otherwise a copy of this matrix converted to that type.
+   */
+  public Matrix convertTo(final DataType dataType)
   {
-    elements[row][column] = element;
+    if (dataType == null) {
+      throw new NullPointerException("dataType");
+    }
+    if (dataType == getDataType()) {
+      return this;
+    }
+    return copyInto(new Matrix(rows, columns, dataType));
   }
 
-  private Iterator<Double> rowIterator(final int row)
+  /**
+   * Returns true if the elements of this matrix occupy the range
+   * <code>[offset, offset + size)</code> of the storage array in
+   * row-major order, such that element loops may run over that range
+   * as a whole.
+   */
+  boolean isContiguous()
   {
-    return new ElementIterator(Direction.VERTICAL, row);
+    return
+      (rowIndices == null) &&
+      (columnStride == 1) && ((rowStride == columns) || (rows <= 1));
   }
 
-  private Iterator<Double> columnIterator(final int column)
+  boolean sharesStorageWith(final Matrix other)
   {
-    return new ElementIterator(Direction.HORIZONTAL, column);
+    if (other == null) {
+      return false;
+    }
+    if (elements != null) {
+      return other.elements == elements;
+    }
+    if (floatElements != null) {
+      return other.floatElements == floatElements;
+    }
+    return other.offHeapElements == offHeapElements;
   }
 
-  public Iterator<Double> iterator()
+  /**
+   * Returns true if this matrix exclusively owns its on-heap element
+   * storage, such that a {@link MatrixPool} may hand it out again.
+   */
+  boolean isPoolable()
   {
-    return new ElementIterator();
+    if ((offset != 0) || !isContiguous()) {
+      return false;
+    }
+    if (elements != null) {
+      return elements.length == rows * columns;
+    }
+    if (floatElements != null) {
+      return floatElements.length == rows * columns;
+    }
+    return false;
   }
 
-  public Stream<Double> stream()
+  private void checkTarget(final Matrix target,
+                           final int rows, final int columns)
   {
-    final Iterable<Double> iterable = () -> iterator();
-    return StreamSupport.stream(iterable.spliterator(), false);
+    if (target == null) {
+      throw new NullPointerException("target");
+    }
+    if ((target.rows != rows) || (target.columns != columns)) {
+      throw new IllegalArgumentException("target shape mismatch: " +
+                                         target.rows + "×" +
+                                         target.columns + " != " +
+                                         rows + "×" + columns);
+    }
   }
 
-  public Matrix apply(final SampleFunction function)
+  private void checkNotShared(final Matrix target, final Matrix operand)
   {
-    final double[][] elements = new double[rows][columns];
-    for (int row = 0; row < rows; row++) {
-      for (int column = 0; column < columns; column++) {
-        elements[row][column] = function.apply(null);
-      }
+    if (target.sharesStorageWith(operand)) {
+      throw new IllegalArgumentException("target must not share storage " +
+                                         "with operand");
     }
-    return new Matrix(elements);
   }
 
-  private static void copyElements(final Matrix sourceMatrix,
-                                   final double[][] targetElements,
-                                   final int rowOffset,
-                                   final int columnOffset)
+  private int index(final int row, final int column)
   {
-    for (var row = 0; row < sourceMatrix.rows; row++) {
-      for (var column = 0; column < sourceMatrix.columns; column++) {
-        targetElements[row + rowOffset][column + columnOffset] =
-          sourceMatrix.elements[row][column];
-      }
-    }
+    final int storageRow = rowIndices != null ? rowIndices[row] : row;
+    return offset + storageRow * rowStride + column * columnStride;
   }
 
-  public static Matrix concat(final Matrix a,
-                              final Matrix b,
-                              final Direction direction)
+  /**
+   * Reads the element at the given storage index, widening it to
+   * double precision if necessary.
+   */
+  private double load(final int index)
   {
-    final int rows;
-    final int columns;
-    final double[][] elements;
-    switch (direction) {
-    case HORIZONTAL:
-      rows = Math.max(a.rows, b.rows);
-      columns = a.columns + b.columns;
-      elements = new double[rows][columns];
-      copyElements(a, elements, 0, 0);
-      copyElements(b, elements, 0, a.columns);
-      break;
-    case VERTICAL:
-      rows = a.rows + b.rows;
-      columns = Math.max(a.columns, b.columns);
-      elements = new double[rows][columns];
-      copyElements(a, elements, 0, 0);
-      copyElements(b, elements, b.rows, 0);
-      break;
-    default:
-      throw new IllegalStateException("unexpected case fall-through");
+    if (elements != null) {
+      return elements[index];
     }
-    return new Matrix(elements);
+    if (floatElements != null) {
+      return floatElements[index];
+    }
+    return offHeapElements.get(index);
   }
 
-  public Matrix transpose()
+  /**
+   * Writes the element at the given storage index, rounding it to
+   * single precision if necessary.
+   */
+  private void store(final int index, final double value)
   {
-    final double[][] transposed = new double[columns][rows];
-    for (int row = 0; row < rows; row++) {
-      for (int column = 0; column < columns; column++) {
-        transposed[column][row] = elements[row][column];
-      }
+    if (elements != null) {
+      elements[index] = value;
+    } else if (floatElements != null) {
+      floatElements[index] = (float)value;
+    } else {
+      offHeapElements.set(index, value);
     }
-    return new Matrix(transposed);
   }
 
-  private static void copyElements(final Matrix sourceMatrix,
-                                   final int sourceRowIndex,
-                                   final int sourceColumnIndex,
-                                   final int rows,
-                                   final int columns,
-                                   final double[][] targetElements,
-                                   final int rowOffset,
-                                   final int columnOffset)
+  /**
+   * Returns true if elements are stored in the on-heap double array.
+   */
+  private boolean isFloat64()
   {
-    for (var row = sourceRowIndex;
-         row < sourceRowIndex + rows;
-         row++) {
-      for (var column = sourceColumnIndex;
-           column < sourceColumnIndex + columns;
-           column++) {
-        final double value = sourceMatrix.elements[row][column];
-        targetElements
-          [row - sourceRowIndex + rowOffset]
-          [column - sourceColumnIndex + columnOffset] =
-          value;
-      }
-    }
+    return elements != null;
   }
 
-  public Matrix reduceSum()
-  {
-    double sum = 0.0;
-    for (int row = 0; row < rows; row++) {
-      for (int column = 0; column < columns; column++) {
-        sum += elements[row][column];
+  /**
+   * Returns true if elements are stored in the on-heap float array.
+   */
+  private boolean isFloat32()
+  {
+    return floatElements != null;
+  }
+
+  public Double getElementAt(final int row, final int column)
+  {
+    return load(index(row, column));
+  }
+
+  public void setElementAt(final int row, final int column,
+                           final Double element)
+  {
+    store(index(row, column), element);
+  }
+
+  /**
+   * Returns a spliterator over all elements in row-major order that
+   * splits along row ranges, such that streams over this matrix can
+   * be processed in parallel.
+   */
+  public Spliterator.OfDouble spliterator()
+  {
+    return new ElementSpliterator(0, 0, rows);
+  }
+
+  public PrimitiveIterator.OfDouble iterator()
+  {
+    return Spliterators.iterator(spliterator());
+  }
+
+  public Stream<Double> stream()
+  {
+    return StreamSupport.stream(spliterator(), false);
+  }
+
+  public DoubleStream doubleStream()
+  {
+    return StreamSupport.doubleStream(spliterator(), false);
+  }
+
+  public Spliterator.OfDouble rowSpliterator(final int row)
+  {
+    return rowRangeView(row, row + 1).spliterator();
+  }
+
+  public Spliterator.OfDouble columnSpliterator(final int column)
+  {
+    return columnRangeView(column, column + 1).spliterator();
+  }
+
+  public PrimitiveIterator.OfDouble rowIterator(final int row)
+  {
+    return Spliterators.iterator(rowSpliterator(row));
+  }
+
+  public PrimitiveIterator.OfDouble columnIterator(final int column)
+  {
+    return Spliterators.iterator(columnSpliterator(column));
+  }
+
+  public DoubleStream rowStream(final int row)
+  {
+    return StreamSupport.doubleStream(rowSpliterator(row), false);
+  }
+
+  public DoubleStream columnStream(final int column)
+  {
+    return StreamSupport.doubleStream(columnSpliterator(column), false);
+  }
+
+  /**
+   * Returns a matrix of the same shape and data type as this matrix
+   * with each element replaced by the result of the operator applied
+   * on it.  The operator must be free of side effects, since elements
+   * may be processed in parallel.
+   */
+  public Matrix map(final DoubleUnaryOperator operator)
+  {
+    return mapInto(operator, new Matrix(rows, columns, getDataType()));
+  }
+
+  /**
+   * Writes the elements of this matrix, each one mapped by the
+   * operator, into the target.  The target must have the same shape
+   * and may be identical with this matrix, but must not otherwise
+   * overlap with it.
+   */
+  public Matrix mapInto(final DoubleUnaryOperator operator,
+                        final Matrix target)
+  {
+    if (operator == null) {
+      throw new NullPointerException("operator");
+    }
+    checkTarget(target, rows, columns);
+    final ExecutionPolicy policy = selectExecutionPolicy(target);
+    policy.forEachRowBlock(rows, columns, (fromRow, toRow) -> {
+        for (int row = fromRow; row < toRow; row++) {
+          int index = index(row, 0);
+          int targetIndex = target.index(row, 0);
+          for (int column = 0; column < columns; column++) {
+            target.store(targetIndex, operator.applyAsDouble(load(index)));
+            index += columnStride;
+            targetIndex += target.columnStride;
+          }
+        }
+      });
+    return target;
+  }
+
+  public Matrix apply(final SampleFunction function)
+  {
+    return applyInto(function, new Matrix(rows, columns));
+  }
+
+  /**
+   * Fills the target, which must have the shape of this matrix, with
+   * samples of the function.
+   */
+  public Matrix applyInto(final SampleFunction function, final Matrix target)
+  {
+    checkTarget(target, rows, columns);
+    final ExecutionPolicy policy =
+      function.isThreadSafe() ?
+      selectExecutionPolicy(target) : ExecutionPolicy.sequential();
+    policy.forEachRowBlock(rows, columns, (fromRow, toRow) -> {
+        final double[] values =
+          new double[Math.min(columns, SAMPLE_CHUNK_SIZE)];
+        for (int row = fromRow; row < toRow; row++) {
+          for (int column = 0; column < columns; column += values.length) {
+            final int length = Math.min(values.length, columns - column);
+            function.fill(values, 0, length);
+            target.storeRow(row, column, values, length);
+          }
+        }
+      });
+    return target;
+  }
+
+  /**
+   * Updates the target matrices element by element in a single pass
+   * over them and the source matrices, which must all have the same
+   * shape.  Chunks of at most SAMPLE_CHUNK_SIZE corresponding elements
+   * are copied into double buffers, passed to the update and copied
+   * back into the targets, such that the update sees each element in
+   * double precision, whatever the data type and layout of the
+   * matrices, and the matrices are read and written only once.
+   * Targets must not share storage with each other or with sources.
+   */
+  public static void updateElementwise(final ElementwiseUpdate update,
+                                       final Matrix[] targets,
+                                       final Matrix... sources)
+  {
+    if (update == null) {
+      throw new NullPointerException("update");
+    }
+    if (targets == null) {
+      throw new NullPointerException("targets");
+    }
+    if (sources == null) {
+      throw new NullPointerException("sources");
+    }
+    if (targets.length == 0) {
+      throw new IllegalArgumentException("require at least 1 target");
+    }
+    final Matrix[] matrices = new Matrix[targets.length + sources.length];
+    System.arraycopy(targets, 0, matrices, 0, targets.length);
+    System.arraycopy(sources, 0, matrices, targets.length, sources.length);
+    final Matrix first = targets[0];
+    boolean flat = true;
+    for (int i = 0; i < matrices.length; i++) {
+      if (matrices[i] == null) {
+        throw new NullPointerException(i < targets.length ?
+                                       "target" : "source");
+      }
+      first.checkTarget(matrices[i], first.rows, first.columns);
+      flat &= matrices[i].isContiguous();
+      for (int j = 0; j < Math.min(i, targets.length); j++) {
+        matrices[j].checkNotShared(matrices[i], matrices[j]);
+      }
+    }
+    final int rows = flat ? Math.min(1, first.rows) : first.rows;
+    final int columns = flat ? first.getSize() : first.columns;
+    final Matrix[] views = new Matrix[matrices.length];
+    for (int i = 0; i < matrices.length; i++) {
+      views[i] = flat ? matrices[i].flatView() : matrices[i];
+    }
+    final ExecutionPolicy policy = first.selectExecutionPolicy(matrices);
+    final int chunkSize = Math.max(1, Math.min(columns, SAMPLE_CHUNK_SIZE));
+    final int chunksPerRow = (columns + chunkSize - 1) / chunkSize;
+    policy.forEachRowBlock(rows * chunksPerRow, chunkSize,
+                           (fromChunk, toChunk) -> {
+        final double[][] chunks = new double[views.length][chunkSize];
+        for (int chunk = fromChunk; chunk < toChunk; chunk++) {
+          final int row = chunk / chunksPerRow;
+          final int column = (chunk % chunksPerRow) * chunkSize;
+          final int length = Math.min(chunkSize, columns - column);
+          for (int i = 0; i < views.length; i++) {
+            views[i].loadRow(row, column, chunks[i], length);
+          }
+          update.update(chunks, length);
+          for (int i = 0; i < targets.length; i++) {
+            views[i].storeRow(row, column, chunks[i], length);
+          }
+        }
+      });
+  }
+
+  /**
+   * Copies a rows×columns block of the source matrix, starting at
+   * (sourceRow, sourceColumn), into the target matrix, starting at
+   * (targetRow, targetColumn).
+   */
+  private static void copyElements(final Matrix source,
+                                   final int sourceRow,
+                                   final int sourceColumn,
+                                   final int rows,
+                                   final int columns,
+                                   final Matrix target,
+                                   final int targetRow,
+                                   final int targetColumn)
+  {
+    final boolean unitStrides =
+      (source.columnStride == 1) && (target.columnStride == 1);
+    for (var row = 0; row < rows; row++) {
+      int sourceIndex = source.index(sourceRow + row, sourceColumn);
+      int targetIndex = target.index(targetRow + row, targetColumn);
+      if (unitStrides && source.isFloat64() && target.isFloat64()) {
+        System.arraycopy(source.elements, sourceIndex,
+                         target.elements, targetIndex, columns);
+      } else if (unitStrides && source.isFloat32() && target.isFloat32()) {
+        System.arraycopy(source.floatElements, sourceIndex,
+                         target.floatElements, targetIndex, columns);
+      } else if (unitStrides && source.isFloat64() &&
+                 (target.offHeapElements != null)) {
+        target.offHeapElements.copyFrom(source.elements, sourceIndex,
+                                        targetIndex, columns);
+      } else if (unitStrides && (source.offHeapElements != null) &&
+                 target.isFloat64()) {
+        source.offHeapElements.copyTo(sourceIndex, target.elements,
+                                      targetIndex, columns);
+      } else {
+        for (var column = 0; column < columns; column++) {
+          target.store(targetIndex, source.load(sourceIndex));
+          sourceIndex += source.columnStride;
+          targetIndex += target.columnStride;
+        }
+      }
+    }
+  }
+
+  public static Matrix concat(final Matrix a,
+                              final Matrix b,
+                              final Direction direction)
+  {
+    final DataType dataType = DataType.promote(a.getDataType(),
+                                               b.getDataType());
+    final Matrix result;
+    switch (direction) {
+    case HORIZONTAL:
+      result = new Matrix(Math.max(a.rows, b.rows), a.columns + b.columns,
+                          dataType);
+      copyElements(a, 0, 0, a.rows, a.columns, result, 0, 0);
+      copyElements(b, 0, 0, b.rows, b.columns, result, 0, a.columns);
+      break;
+    case VERTICAL:
+      result = new Matrix(a.rows + b.rows, Math.max(a.columns, b.columns),
+                          dataType);
+      copyElements(a, 0, 0, a.rows, a.columns, result, 0, 0);
+      copyElements(b, 0, 0, b.rows, b.columns, result, a.rows, 0);
+      break;
+    default:
+      throw new IllegalStateException("unexpected case fall-through");
+    }
+    return result;
+  }
+
+  /**
+   * Copies all elements of this matrix into the target, which must
+   * have the same shape, converting them to the data type of the
+   * target if necessary.
+   */
+  public Matrix copyInto(final Matrix target)
+  {
+    checkTarget(target, rows, columns);
+    final ExecutionPolicy policy = selectExecutionPolicy(target);
+    policy.forEachRowBlock(rows, columns, (fromRow, toRow) -> {
+        copyElements(this, fromRow, 0, toRow - fromRow, columns,
+                     target, fromRow, 0);
+      });
+    return target;
+  }
+
+  /**
+   * Returns the transposed matrix as a new matrix of the same data
+   * type; see {@link #transposeView()} for a view that shares
+   * storage with this matrix instead.
+   */
+  public Matrix transpose()
+  {
+    return transposeInto(new Matrix(columns, rows, getDataType()));
+  }
+
+  /**
+   * Writes the transposed matrix into the target, which must have
+   * columns×rows shape and must not share storage with this matrix.
+   */
+  public Matrix transposeInto(final Matrix target)
+  {
+    checkTarget(target, columns, rows);
+    checkNotShared(target, this);
+    return transposeView().copyInto(target);
+  }
+
+  /**
+   * Returns a transposed view of this matrix that shares its storage
+   * by merely swapping row and column strides.  For an index-gather
+   * view, the view is taken of a materialized copy, since the rows
+   * of the gather view would become gathered columns.
+   */
+  public Matrix transposeView()
+  {
+    if (rowIndices != null) {
+      return materialize().transposeView();
+    }
+    return view(columns, rows, offset, columnStride, rowStride, null);
+  }
+
+  private static void checkRange(final int from, final int to,
+                                 final int bound, final String name)
+  {
+    if ((from < 0) || (from > to) || (to > bound)) {
+      throw new IndexOutOfBoundsException(name + " range [" + from + ", " +
+                                          to + ") out of bounds [0, " +
+                                          bound + ")");
+    }
+  }
+
+  /**
+   * Returns a view of rows fromRow (inclusive) to toRow (exclusive)
+   * of this matrix that shares its storage.
+   */
+  public Matrix rowRangeView(final int fromRow, final int toRow)
+  {
+    checkRange(fromRow, toRow, rows, "row");
+    if (rowIndices != null) {
+      return view(toRow - fromRow, columns, offset, rowStride, columnStride,
+                  Arrays.copyOfRange(rowIndices, fromRow, toRow));
+    }
+    return view(toRow - fromRow, columns,
+                offset + fromRow * rowStride, rowStride, columnStride, null);
+  }
+
+  /**
+   * Returns a view of columns fromColumn (inclusive) to toColumn
+   * (exclusive) of this matrix that shares its storage.
+   */
+  public Matrix columnRangeView(final int fromColumn, final int toColumn)
+  {
+    checkRange(fromColumn, toColumn, columns, "column");
+    return view(rows, toColumn - fromColumn,
+                offset + fromColumn * columnStride,
+                rowStride, columnStride, rowIndices);
+  }
+
+  /**
+   * Returns an index-gather view whose i-th row is row
+   * <code>selectedRows[i]</code> of this matrix, sharing the storage
+   * of this matrix.  Rows may be selected multiple times.
+   */
+  public Matrix rowSelectionView(final int[] selectedRows)
+  {
+    if (selectedRows == null) {
+      throw new NullPointerException("selectedRows");
+    }
+    return rowSelectionView(selectedRows, 0, selectedRows.length);
+  }
+
+  /**
+   * Like {@link #rowSelectionView(int[])}, but selects only the rows
+   * given by elements fromIndex (inclusive) to toIndex (exclusive) of
+   * selectedRows, e.g. a mini-batch range of an {@link
+   * EpochPermutation}.
+   */
+  public Matrix rowSelectionView(final int[] selectedRows,
+                                 final int fromIndex, final int toIndex)
+  {
+    if (selectedRows == null) {
+      throw new NullPointerException("selectedRows");
+    }
+    checkRange(fromIndex, toIndex, selectedRows.length, "index");
+    final int[] indices = new int[toIndex - fromIndex];
+    for (int i = 0; i < indices.length; i++) {
+      final int row = selectedRows[fromIndex + i];
+      if ((row < 0) || (row >= rows)) {
+        throw new IndexOutOfBoundsException("row " + row +
+                                            " out of bounds [0, " +
+                                            rows + ")");
+      }
+      indices[i] = rowIndices != null ? rowIndices[row] : row;
+    }
+    return view(indices.length, columns,
+                offset, rowStride, columnStride, indices);
+  }
+
+  /**
+   * Returns a lazy element-wise expression with this matrix as its
+   * only operand, for chaining element-wise operations that are
+   * evaluated in a single pass; see {@link MatrixExpression}.
+   */
+  public MatrixExpression lazy()
+  {
+    return MatrixExpression.of(this);
+  }
+
+  /**
+   * Returns a newly allocated, contiguous copy of this matrix with
+   * the same data type.
+   */
+  public Matrix materialize()
+  {
+    return copyInto(new Matrix(rows, columns, getDataType()));
+  }
+
+  /**
+   * Running sum with compensation for rounding errors, as computed
+   * by the compensated array kernels.
+   */
+  private static class CompensatedSum
+  {
+    private double sum;
+    private double compensation;
+
+    private void add(final double value)
+    {
+      final double t = sum + value;
+      final double v = t - sum;
+      compensation += (sum - (t - v)) + (value - v);
+      sum = t;
+    }
+
+    private double get()
+    {
+      return sum + compensation;
+    }
+  }
+
+  /**
+   * Returns the sum of count values, starting at index from with the
+   * given stride, adding up halves recursively, such that the
+   * rounding error grows only logarithmically with count.
+   */
+  private static double sumPairwise(final double[] values, final int from,
+                                    final int count, final int stride)
+  {
+    if (count <= 8) {
+      double sum = 0.0;
+      for (int i = 0; i < count; i++) {
+        sum += values[from + i * stride];
+      }
+      return sum;
+    }
+    final int half = count / 2;
+    return
+      sumPairwise(values, from, half, stride) +
+      sumPairwise(values, from + half * stride, count - half, stride);
+  }
+
+  /**
+   * Returns the compensated sum of columns fromColumn (inclusive) to
+   * toColumn (exclusive) of the given row.
+   */
+  private double sumRow(final int row,
+                        final int fromColumn, final int toColumn)
+  {
+    final int index = index(row, fromColumn);
+    if (columnStride == 1) {
+      if (isFloat64()) {
+        return kernels.sumCompensated(elements, index, toColumn - fromColumn);
+      }
+      if (isFloat32()) {
+        return kernels.sumCompensated(floatElements, index,
+                                      toColumn - fromColumn);
+      }
+    }
+    final CompensatedSum sum = new CompensatedSum();
+    for (int column = fromColumn; column < toColumn; column++) {
+      sum.add(load(index + (column - fromColumn) * columnStride));
+    }
+    return sum.get();
+  }
+
+  private double sumRows(final int fromRow, final int toRow)
+  {
+    if (isContiguous()) {
+      final int index = index(fromRow, 0);
+      final int length = (toRow - fromRow) * columns;
+      if (isFloat64()) {
+        return kernels.sumCompensated(elements, index, length);
+      }
+      if (isFloat32()) {
+        return kernels.sumCompensated(floatElements, index, length);
+      }
+    }
+    final CompensatedSum sum = new CompensatedSum();
+    for (int row = fromRow; row < toRow; row++) {
+      sum.add(sumRow(row, 0, columns));
+    }
+    return sum.get();
+  }
+
+  /**
+   * Returns the sum of all elements as 1×1 matrix of the data type
+   * of this matrix.  Blocks of REDUCTION_BLOCK_SIZE elements are
+   * summed up in parallel with compensation, and the partial sums of
+   * the blocks pairwise, such that the result is accurate even for
+   * millions of elements and independent of the execution policy.
+   */
+  public Matrix reduceSum()
+  {
+    final Matrix result = new Matrix(1, 1, getDataType());
+    result.store(0, sum());
+    return result;
+  }
+
+  private double sum()
+  {
+    final int rowsPerBlock =
+      Math.max(1, REDUCTION_BLOCK_SIZE / Math.max(1, columns));
+    final int blocks = (rows + rowsPerBlock - 1) / rowsPerBlock;
+    final double[] partialSums = new double[blocks];
+    final ExecutionPolicy policy = selectExecutionPolicy();
+    policy.forEachRowBlock(blocks, (long)rowsPerBlock * columns,
+                           (fromBlock, toBlock) -> {
+        for (int block = fromBlock; block < toBlock; block++) {
+          final int fromRow = block * rowsPerBlock;
+          final int toRow = Math.min(fromRow + rowsPerBlock, rows);
+          partialSums[block] = sumRows(fromRow, toRow);
+        }
+      });
+    return sumPairwise(partialSums, 0, blocks, 1);
+  }
+
+  /**
+   * Returns the sum of the elements in each row (direction
+   * HORIZONTAL) as rows×1 matrix, or in each column (direction
+   * VERTICAL) as 1×columns matrix, with the data type of this matrix
+   * and the same accuracy as {@link #reduceSum()}.
+   */
+  public Matrix reduceSum(final Direction direction)
+  {
+    return reduceSumInto(direction, createReduced(direction, getDataType()));
+  }
+
+  /**
+   * Writes the sums of {@link #reduceSum(Direction)} into the target,
+   * which must have the shape of the result.
+   */
+  public Matrix reduceSumInto(final Direction direction, final Matrix target)
+  {
+    return reduceInto(direction, Reduction.SUM, target);
+  }
+
+  /**
+   * Returns the mean of all elements as 1×1 matrix of the data type
+   * of this matrix.
+   */
+  public Matrix reduceMean()
+  {
+    final Matrix result = new Matrix(1, 1, getDataType());
+    result.store(0, sum() / ((double)rows * columns));
+    return result;
+  }
+
+  /**
+   * Returns the mean of the elements in each row (direction
+   * HORIZONTAL) or column (direction VERTICAL), shaped as for {@link
+   * #reduceSum(Direction)}.
+   */
+  public Matrix reduceMean(final Direction direction)
+  {
+    return reduceMeanInto(direction, createReduced(direction, getDataType()));
+  }
+
+  public Matrix reduceMeanInto(final Direction direction, final Matrix target)
+  {
+    return reduceInto(direction, Reduction.MEAN, target);
+  }
+
+  /**
+   * Returns the maximum of all elements as 1×1 matrix of the data
+   * type of this matrix.  NaN elements propagate into the result.
+   */
+  public Matrix reduceMax()
+  {
+    final Matrix result = new Matrix(1, 1, getDataType());
+    result.store(0, reduceMax(Direction.VERTICAL).
+                 reduceMax(Direction.HORIZONTAL).load(0));
+    return result;
+  }
+
+  /**
+   * Returns the maximum element of each row (direction HORIZONTAL) or
+   * column (direction VERTICAL), shaped as for {@link
+   * #reduceSum(Direction)}.  NaN elements propagate into the result.
+   */
+  public Matrix reduceMax(final Direction direction)
+  {
+    return reduceMaxInto(direction, createReduced(direction, getDataType()));
+  }
+
+  public Matrix reduceMaxInto(final Direction direction, final Matrix target)
+  {
+    return reduceInto(direction, Reduction.MAX, target);
+  }
+
+  /**
+   * Returns the column index of the maximum element of each row
+   * (direction HORIZONTAL) as rows×1 matrix, or the row index of the
+   * maximum element of each column (direction VERTICAL) as
+   * 1×columns matrix.  Of equal maxima, the first one counts; NaN
+   * elements count as maximum.  The result is of data type FLOAT64.
+   */
+  public Matrix argMax(final Direction direction)
+  {
+    return argMaxInto(direction, createReduced(direction, DataType.FLOAT64));
+  }
+
+  public Matrix argMaxInto(final Direction direction, final Matrix target)
+  {
+    return reduceInto(direction, Reduction.ARG_MAX, target);
+  }
+
+  private enum Reduction { SUM, MEAN, MAX, ARG_MAX };
+
+  private Matrix createReduced(final Direction direction,
+                               final DataType dataType)
+  {
+    if (direction == null) {
+      throw new NullPointerException("direction");
+    }
+    switch (direction) {
+    case HORIZONTAL:
+      return new Matrix(rows, 1, dataType);
+    case VERTICAL:
+      return new Matrix(1, columns, dataType);
+    default:
+      throw new IllegalStateException("unexpected case fall-through");
+    }
+  }
+
+  private Matrix reduceInto(final Direction direction,
+                            final Reduction reduction, final Matrix target)
+  {
+    if (direction == null) {
+      throw new NullPointerException("direction");
+    }
+    final boolean maximum =
+      (reduction == Reduction.MAX) || (reduction == Reduction.ARG_MAX);
+    switch (direction) {
+    case HORIZONTAL:
+      checkTarget(target, rows, 1);
+      if (maximum && (columns == 0)) {
+        throw new IllegalStateException("maximum of empty rows");
+      }
+      reduceRowsInto(reduction, target);
+      break;
+    case VERTICAL:
+      checkTarget(target, 1, columns);
+      if (maximum && (rows == 0)) {
+        throw new IllegalStateException("maximum of empty columns");
+      }
+      if (maximum) {
+        maxColumnsInto(reduction == Reduction.ARG_MAX, target);
+      } else {
+        sumColumnsInto(reduction == Reduction.MEAN, target);
+      }
+      break;
+    default:
+      throw new IllegalStateException("unexpected case fall-through");
+    }
+    return target;
+  }
+
+  /**
+   * Returns true if the value supersedes the maximum found so far,
+   * with NaN superseding any number.
+   */
+  private static boolean isGreater(final double value, final double max)
+  {
+    return (value > max) || (Double.isNaN(value) && !Double.isNaN(max));
+  }
+
+  /**
+   * Reduces each row on its own, distributing rows via the execution
+   * policy.
+   */
+  private void reduceRowsInto(final Reduction reduction, final Matrix target)
+  {
+    final ExecutionPolicy policy = selectExecutionPolicy(target);
+    policy.forEachRowBlock(rows, columns, (fromRow, toRow) -> {
+        for (int row = fromRow; row < toRow; row++) {
+          final double value;
+          switch (reduction) {
+          case SUM:
+            value = sumRow(row, 0, columns);
+            break;
+          case MEAN:
+            value = sumRow(row, 0, columns) / columns;
+            break;
+          case MAX:
+          case ARG_MAX:
+            int index = index(row, 0);
+            double max = load(index);
+            int argMax = 0;
+            for (int column = 1; column < columns; column++) {
+              index += columnStride;
+              final double element = load(index);
+              if (isGreater(element, max)) {
+                max = element;
+                argMax = column;
+              }
+            }
+            value = reduction == Reduction.MAX ? max : argMax;
+            break;
+          default:
+            throw new IllegalStateException("unexpected case fall-through");
+          }
+          target.store(target.index(row, 0), value);
+        }
+      });
+  }
+
+  /**
+   * Column reductions run over a grid of tiles, each of up to
+   * rowsPerTile rows and REDUCTION_BLOCK_SIZE columns, such that both
+   * tall and wide matrices split into parallel work.  Partial results
+   * of the tiles are combined in fixed order, such that the result
+   * does not depend on the execution policy.
+   */
+  private int getRowsPerTile()
+  {
+    return Math.max(64, REDUCTION_BLOCK_SIZE / Math.max(1, columns));
+  }
+
+  private void sumColumnsInto(final boolean mean, final Matrix target)
+  {
+    final int rowsPerTile = getRowsPerTile();
+    final int rowTiles = Math.max(1, (rows + rowsPerTile - 1) / rowsPerTile);
+    final int columnTiles =
+      (columns + REDUCTION_BLOCK_SIZE - 1) / REDUCTION_BLOCK_SIZE;
+    final double[] partialSums = new double[rowTiles * columns];
+    final ExecutionPolicy policy = selectExecutionPolicy(target);
+    policy.forEachRowBlock(rowTiles * columnTiles,
+                           (long)rowsPerTile * REDUCTION_BLOCK_SIZE,
+                           (fromTile, toTile) -> {
+        for (int tile = fromTile; tile < toTile; tile++) {
+          final int fromRow = (tile / columnTiles) * rowsPerTile;
+          final int toRow = Math.min(fromRow + rowsPerTile, rows);
+          final int fromColumn = (tile % columnTiles) * REDUCTION_BLOCK_SIZE;
+          final int width =
+            Math.min(fromColumn + REDUCTION_BLOCK_SIZE, columns) - fromColumn;
+          final double[] sums = new double[width];
+          final double[] compensations = new double[width];
+          for (int row = fromRow; row < toRow; row++) {
+            int index = index(row, fromColumn);
+            if ((columnStride == 1) && isFloat64()) {
+              kernels.addCompensated(elements, index,
+                                     sums, compensations, 0, width);
+            } else if ((columnStride == 1) && isFloat32()) {
+              kernels.addCompensated(floatElements, index,
+                                     sums, compensations, 0, width);
+            } else {
+              for (int column = 0; column < width; column++) {
+                final double value = load(index);
+                final double t = sums[column] + value;
+                final double v = t - sums[column];
+                compensations[column] +=
+                  (sums[column] - (t - v)) + (value - v);
+                sums[column] = t;
+                index += columnStride;
+              }
+            }
+          }
+          final int sumsIndex = (tile / columnTiles) * columns + fromColumn;
+          for (int column = 0; column < width; column++) {
+            partialSums[sumsIndex + column] =
+              sums[column] + compensations[column];
+          }
+        }
+      });
+    for (int column = 0; column < columns; column++) {
+      final double sum = sumPairwise(partialSums, column, rowTiles, columns);
+      target.store(target.index(0, column), mean ? sum / rows : sum);
+    }
+  }
+
+  private void maxColumnsInto(final boolean argMax, final Matrix target)
+  {
+    final int rowsPerTile = getRowsPerTile();
+    final int rowTiles = (rows + rowsPerTile - 1) / rowsPerTile;
+    final int columnTiles =
+      (columns + REDUCTION_BLOCK_SIZE - 1) / REDUCTION_BLOCK_SIZE;
+    final double[] partialMaxima = new double[rowTiles * columns];
+    final int[] partialArgMaxima = new int[rowTiles * columns];
+    final ExecutionPolicy policy = selectExecutionPolicy(target);
+    policy.forEachRowBlock(rowTiles * columnTiles,
+                           (long)rowsPerTile * REDUCTION_BLOCK_SIZE,
+                           (fromTile, toTile) -> {
+        for (int tile = fromTile; tile < toTile; tile++) {
+          final int fromRow = (tile / columnTiles) * rowsPerTile;
+          final int toRow = Math.min(fromRow + rowsPerTile, rows);
+          final int fromColumn = (tile % columnTiles) * REDUCTION_BLOCK_SIZE;
+          final int toColumn =
+            Math.min(fromColumn + REDUCTION_BLOCK_SIZE, columns);
+          final int maximaIndex = (tile / columnTiles) * columns;
+          for (int column = fromColumn; column < toColumn; column++) {
+            partialMaxima[maximaIndex + column] = load(index(fromRow, column));
+            partialArgMaxima[maximaIndex + column] = fromRow;
+          }
+          for (int row = fromRow + 1; row < toRow; row++) {
+            int index = index(row, fromColumn);
+            for (int column = fromColumn; column < toColumn; column++) {
+              final double element = load(index);
+              if (isGreater(element, partialMaxima[maximaIndex + column])) {
+                partialMaxima[maximaIndex + column] = element;
+                partialArgMaxima[maximaIndex + column] = row;
+              }
+              index += columnStride;
+            }
+          }
+        }
+      });
+    for (int column = 0; column < columns; column++) {
+      double max = partialMaxima[column];
+      int maxRow = partialArgMaxima[column];
+      for (int rowTile = 1; rowTile < rowTiles; rowTile++) {
+        final double element = partialMaxima[rowTile * columns + column];
+        if (isGreater(element, max)) {
+          max = element;
+          maxRow = partialArgMaxima[rowTile * columns + column];
+        }
       }
+      target.store(target.index(0, column), argMax ? maxRow : max);
     }
-    return new Matrix(new double[][] {{ sum }});
   }
 
+  /**
+   * Randomly selects count columns (direction HORIZONTAL) or rows
+   * (direction VERTICAL) of this matrix.  Selected rows are returned
+   * as an index-gather view that shares storage with this matrix,
+   * while selected columns are copied.
+   */
   public Matrix sample(final Direction direction,
                        final int count)
   {
-    final double[][] samples;
+    final Matrix samples;
     switch (direction) {
     case HORIZONTAL:
-      samples = new double[rows][count];
+      samples = new Matrix(rows, count, getDataType());
       int targetColumn = 0;
-      for (final int column : RandomUtils.createSelection(columns, count)) {
-        copyElements(this, 0, column, rows, 1,
-                     samples, 0, targetColumn++);
+      for (final int column : RandomUtils.select(columns, count)) {
+        copyElements(this, 0, column, rows, 1, samples, 0, targetColumn++);
       }
       break;
     case VERTICAL:
-      samples = new double[count][columns];
-      int targetRow = 0;
-      for (final int row : RandomUtils.createSelection(rows, count)) {
-        copyElements(this, row, 0, 1, columns,
-                     samples, targetRow++, 0);
-      }
+      samples = rowSelectionView(RandomUtils.select(rows, count));
       break;
     default:
       throw new IllegalStateException("unexpected case fall-through");
     }
-    return new Matrix(samples);
+    return samples;
   }
 
   public void plot(final int indexX,
                    final int indexY,
                    final Direction direction)
   {
-    final Plot plot = new Plot(id, id);
-    final Iterable<Double> xData;
-    final Iterable<Double> yData;
+    final Plot plot = new Plot(getId(), getId());
+    final DoubleStream xData;
+    final DoubleStream yData;
     switch (direction) {
     case HORIZONTAL:
-      xData = () -> columnIterator(indexX);
-      yData = () -> columnIterator(indexY);
+      xData = rowStream(indexX);
+      yData = rowStream(indexY);
       break;
     case VERTICAL:
-      xData = () -> rowIterator(indexX);
-      yData = () -> rowIterator(indexY);
+      xData = columnStream(indexX);
+      yData = columnStream(indexY);
       break;
     default:
       throw new IllegalStateException("unexpected case fall-through");
@@ -447,52 +1749,467 @@ public class Matrix implements Iterable<Double>
     plot.show();
   }
 
-  public Matrix add(final Matrix other)
+  /**
+   * Returns the size of a dimension when broadcasting two operands
+   * of the given sizes against each other, i.e. the common size, if
+   * equal, or else the other size, if one of them is 1.
+   *
+   * @exception IllegalArgumentException If the sizes are neither
+   * equal nor either of them is 1.
+   */
+  static int broadcast(final String dimension,
+                       final int size, final int otherSize)
   {
-    if (other == null) {
-      throw new NullPointerException("other");
+    if ((size == otherSize) || (otherSize == 1)) {
+      return size;
+    }
+    if (size == 1) {
+      return otherSize;
+    }
+    throw new IllegalArgumentException(dimension + " mismatch: " +
+                                       otherSize + " != " + size);
+  }
+
+  /**
+   * Returns a view of this matrix stretched to shape rows×columns, as
+   * if broadcast against a matrix of that shape.  The view shares
+   * storage with this matrix, repeating each stretched dimension
+   * without copying it, and hence must only be read.
+   *
+   * @exception IllegalArgumentException If a dimension of this matrix
+   * neither equals the given one nor is 1.
+   */
+  public Matrix broadcastTo(final int rows, final int columns)
+  {
+    if (((rows != this.rows) && (this.rows != 1)) ||
+        ((columns != this.columns) && (this.columns != 1))) {
+      throw new IllegalArgumentException("can not broadcast " +
+                                         this.rows + "×" + this.columns +
+                                         " matrix to shape " +
+                                         rows + "×" + columns);
+    }
+    return broadcastView(rows, columns);
+  }
+
+  /**
+   * Returns a view of this matrix stretched to shape rows×columns,
+   * reading each dimension of size 1 that is stretched with stride 0,
+   * such that the broadcast operand is never materialized.
+   */
+  private Matrix broadcastView(final int rows, final int columns)
+  {
+    if ((rows == this.rows) && (columns == this.columns)) {
+      return this;
     }
-    if (other.rows != rows) {
-      throw new IllegalArgumentException("rows mismatch: " + other.rows +
-                                         " != " + rows +
+    if (rowIndices != null) {
+      return materialize().broadcastView(rows, columns);
+    }
+    return view(rows, columns, offset,
+                rows == this.rows ? rowStride : 0,
+                columns == this.columns ? columnStride : 0, null);
+  }
+
+  /**
+   * Returns this matrix as 1×size view, if it is laid out
+   * contiguously, or else null.
+   */
+  Matrix flatView()
+  {
+    if (!isContiguous()) {
+      return null;
+    }
+    final int size = rows * columns;
+    return view(size > 0 ? 1 : 0, size, offset, size, 1, null);
+  }
+
+  private int broadcastRows(final Matrix other)
+  {
+    try {
+      return broadcast("rows", rows, other.rows);
+    } catch (final IllegalArgumentException e) {
+      throw new IllegalArgumentException(e.getMessage() +
                                          ", m1=" + fullToString() +
                                          ", m2=" + other.fullToString());
     }
-    if (other.columns != columns) {
-      throw new IllegalArgumentException("rows mismatch: " + other.columns +
-                                         " != " + columns +
+  }
+
+  private int broadcastColumns(final Matrix other)
+  {
+    try {
+      return broadcast("columns", columns, other.columns);
+    } catch (final IllegalArgumentException e) {
+      throw new IllegalArgumentException(e.getMessage() +
                                          ", m1=" + fullToString() +
                                          ", m2=" + other.fullToString());
     }
-    final double[][] sum = new double[rows][columns];
-    for (int row = 0; row < rows; row++) {
-      for (int column = 0; column < columns; column++) {
-        sum[row][column] = elements[row][column] + other.elements[row][column];
+  }
+
+  /**
+   * Element-wise binary operations that support broadcasting.  Both
+   * are commutative, such that operands may be swapped for choosing
+   * the faster kernel.
+   */
+  private enum Combination
+  {
+    SUM, PRODUCT;
+
+    private double apply(final double a, final double b)
+    {
+      switch (this) {
+      case SUM:
+        return a + b;
+      case PRODUCT:
+        return a * b;
+      default:
+        throw new IllegalStateException("unexpected case fall-through");
       }
     }
-    return new Matrix(sum);
   }
 
-  public Matrix add(final Double summand)
+  /**
+   * Returns the sum of this matrix and the other matrix, with
+   * NumPy-style broadcasting: in each dimension, the operands must
+   * have the same size, or one of them size 1, in which case it is
+   * repeated along that dimension.  Hence, the other matrix may
+   * e.g. be a scalar, a row vector, or a column vector.
+   */
+  public Matrix add(final Matrix other)
   {
-    final double[][] scaled = new double[rows][columns];
-    for (int row = 0; row < rows; row++) {
-      for (int column = 0; column < columns; column++) {
-        scaled[row][column] = elements[row][column] + summand;
+    if (other == null) {
+      throw new NullPointerException("other");
+    }
+    return addInto(other,
+                   new Matrix(broadcastRows(other), broadcastColumns(other),
+                              DataType.promote(getDataType(),
+                                               other.getDataType())));
+  }
+
+  /**
+   * Adds the other matrix, broadcast to the shape of this matrix if
+   * necessary, to this matrix in place.
+   */
+  public Matrix addInPlace(final Matrix other)
+  {
+    return addInto(other, this);
+  }
+
+  /**
+   * Writes the sum of this matrix and the other matrix, broadcast as
+   * for {@link #add(Matrix)}, into the target.  The target must have
+   * the shape of the result and may be identical with this or the
+   * other matrix, but must not otherwise overlap with them.  Operands
+   * and target may have any data type.
+   */
+  public Matrix addInto(final Matrix other, final Matrix target)
+  {
+    return combineInto(other, target, Combination.SUM);
+  }
+
+  /**
+   * Returns the element-wise (Hadamard) product of this matrix and
+   * the other matrix, with broadcasting as for {@link #add(Matrix)}.
+   */
+  public Matrix multiply(final Matrix other)
+  {
+    if (other == null) {
+      throw new NullPointerException("other");
+    }
+    return multiplyInto(other,
+                        new Matrix(broadcastRows(other),
+                                   broadcastColumns(other),
+                                   DataType.promote(getDataType(),
+                                                    other.getDataType())));
+  }
+
+  /**
+   * Multiplies this matrix element-wise by the other matrix,
+   * broadcast to the shape of this matrix if necessary, in place.
+   */
+  public Matrix multiplyInPlace(final Matrix other)
+  {
+    return multiplyInto(other, this);
+  }
+
+  /**
+   * Writes the element-wise product of this matrix and the other
+   * matrix, broadcast as for {@link #add(Matrix)}, into the target.
+   * The target must have the shape of the result and may be identical
+   * with this or the other matrix, but must not otherwise overlap with
+   * them.  Operands and target may have any data type.
+   */
+  public Matrix multiplyInto(final Matrix other, final Matrix target)
+  {
+    return combineInto(other, target, Combination.PRODUCT);
+  }
+
+  private Matrix combineInto(final Matrix other, final Matrix target,
+                             final Combination combination)
+  {
+    if (other == null) {
+      throw new NullPointerException("other");
+    }
+    final int resultRows = broadcastRows(other);
+    final int resultColumns = broadcastColumns(other);
+    checkTarget(target, resultRows, resultColumns);
+    final Matrix x = broadcastView(resultRows, resultColumns);
+    final Matrix y = other.broadcastView(resultRows, resultColumns);
+    if ((x.columnStride == 0) && (y.columnStride != 0)) {
+      y.combineBroadcastInto(x, target, combination);
+    } else {
+      x.combineBroadcastInto(y, target, combination);
+    }
+    return target;
+  }
+
+  /**
+   * Combines this matrix and the other matrix of the same shape
+   * element-wise into the target.  Either operand may be a broadcast
+   * view, but if only one of them repeats a single value along each
+   * row, it must be the other one.
+   */
+  private void combineBroadcastInto(final Matrix other, final Matrix target,
+                                    final Combination combination)
+  {
+    final boolean float64 =
+      isFloat64() && other.isFloat64() && target.isFloat64();
+    final boolean float32 =
+      isFloat32() && other.isFloat32() && target.isFloat32();
+    final boolean contiguous =
+      isContiguous() && other.isContiguous() && target.isContiguous();
+    final boolean unitStrides =
+      (float64 || float32) &&
+      (columnStride == 1) && (other.columnStride == 1) &&
+      (target.columnStride == 1);
+    final boolean rowValues =
+      (float64 || float32) &&
+      (columnStride == 1) && (other.columnStride == 0) &&
+      (target.columnStride == 1);
+    final ExecutionPolicy policy = selectExecutionPolicy(other, target);
+    policy.forEachRowBlock(rows, columns, (fromRow, toRow) -> {
+        if (unitStrides && contiguous) {
+          combineRange(other, target, index(fromRow, 0),
+                       other.index(fromRow, 0), target.index(fromRow, 0),
+                       (toRow - fromRow) * columns, combination);
+        } else {
+          for (int row = fromRow; row < toRow; row++) {
+            int index = index(row, 0);
+            int otherIndex = other.index(row, 0);
+            int targetIndex = target.index(row, 0);
+            if (unitStrides) {
+              combineRange(other, target, index, otherIndex, targetIndex,
+                           columns, combination);
+            } else if (rowValues) {
+              combineRange(other.load(otherIndex), target, index,
+                           targetIndex, columns, combination);
+            } else {
+              for (int column = 0; column < columns; column++) {
+                target.store(targetIndex,
+                             combination.apply(load(index),
+                                               other.load(otherIndex)));
+                index += columnStride;
+                otherIndex += other.columnStride;
+                targetIndex += target.columnStride;
+              }
+            }
+          }
+        }
+      });
+  }
+
+  /**
+   * Combines contiguous element ranges of this and the other matrix
+   * into the target, all of which must have the same data type.
+   */
+  private void combineRange(final Matrix other, final Matrix target,
+                            final int index, final int otherIndex,
+                            final int targetIndex, final int length,
+                            final Combination combination)
+  {
+    switch (combination) {
+    case SUM:
+      if (isFloat64()) {
+        kernels.add(elements, index, other.elements, otherIndex,
+                    target.elements, targetIndex, length);
+      } else {
+        kernels.add(floatElements, index, other.floatElements, otherIndex,
+                    target.floatElements, targetIndex, length);
+      }
+      break;
+    case PRODUCT:
+      if (isFloat64()) {
+        kernels.multiply(elements, index, other.elements, otherIndex,
+                         target.elements, targetIndex, length);
+      } else {
+        kernels.multiply(floatElements, index,
+                         other.floatElements, otherIndex,
+                         target.floatElements, targetIndex, length);
       }
+      break;
+    default:
+      throw new IllegalStateException("unexpected case fall-through");
+    }
+  }
+
+  /**
+   * Combines a contiguous element range of this matrix with a single
+   * value of the same data type into the target.
+   */
+  private void combineRange(final double value, final Matrix target,
+                            final int index, final int targetIndex,
+                            final int length, final Combination combination)
+  {
+    switch (combination) {
+    case SUM:
+      addRange(value, target, index, targetIndex, length);
+      break;
+    case PRODUCT:
+      scaleRange(value, target, index, targetIndex, length);
+      break;
+    default:
+      throw new IllegalStateException("unexpected case fall-through");
+    }
+  }
+
+  public Matrix add(final Double summand)
+  {
+    return add(summand.doubleValue());
+  }
+
+  public Matrix add(final double summand)
+  {
+    return addInto(summand, new Matrix(rows, columns, getDataType()));
+  }
+
+  /**
+   * Adds the summand to each element of this matrix in place.
+   */
+  public Matrix addInPlace(final double summand)
+  {
+    return addInto(summand, this);
+  }
+
+  /**
+   * Writes this matrix with the summand added to each element into
+   * the target.  The target must have the same shape and may be
+   * identical with this matrix, but must not otherwise overlap with
+   * it.  For FLOAT32 matrices, the summand is rounded to single
+   * precision and added in single precision.
+   */
+  public Matrix addInto(final double summand, final Matrix target)
+  {
+    checkTarget(target, rows, columns);
+    final boolean sameArrays =
+      (isFloat64() && target.isFloat64()) ||
+      (isFloat32() && target.isFloat32());
+    final boolean contiguous = isContiguous() && target.isContiguous();
+    final boolean unitStrides =
+      sameArrays && (columnStride == 1) && (target.columnStride == 1);
+    final ExecutionPolicy policy = selectExecutionPolicy(target);
+    policy.forEachRowBlock(rows, columns, (fromRow, toRow) -> {
+        if (unitStrides && contiguous) {
+          addRange(summand, target, index(fromRow, 0),
+                   target.index(fromRow, 0), (toRow - fromRow) * columns);
+        } else {
+          for (int row = fromRow; row < toRow; row++) {
+            int index = index(row, 0);
+            int targetIndex = target.index(row, 0);
+            if (unitStrides) {
+              addRange(summand, target, index, targetIndex, columns);
+            } else {
+              for (int column = 0; column < columns; column++) {
+                target.store(targetIndex, load(index) + summand);
+                index += columnStride;
+                targetIndex += target.columnStride;
+              }
+            }
+          }
+        }
+      });
+    return target;
+  }
+
+  private void addRange(final double summand, final Matrix target,
+                        final int index, final int targetIndex,
+                        final int length)
+  {
+    if (isFloat64()) {
+      kernels.add(elements, index, summand,
+                  target.elements, targetIndex, length);
+    } else {
+      kernels.add(floatElements, index, (float)summand,
+                  target.floatElements, targetIndex, length);
     }
-    return new Matrix(scaled);
   }
 
   public Matrix scale(final Double scale)
   {
-    final double[][] scaled = new double[rows][columns];
-    for (int row = 0; row < rows; row++) {
-      for (int column = 0; column < columns; column++) {
-        scaled[row][column] = elements[row][column] * scale;
-      }
+    return scale(scale.doubleValue());
+  }
+
+  public Matrix scale(final double scale)
+  {
+    return scaleInto(scale, new Matrix(rows, columns, getDataType()));
+  }
+
+  /**
+   * Multiplies each element of this matrix by the scale in place.
+   */
+  public Matrix scaleInPlace(final double scale)
+  {
+    return scaleInto(scale, this);
+  }
+
+  /**
+   * Writes this matrix with each element multiplied by the scale into
+   * the target.  The target must have the same shape and may be
+   * identical with this matrix, but must not otherwise overlap with
+   * it.  For FLOAT32 matrices, the scale is rounded to single
+   * precision and multiplied in single precision.
+   */
+  public Matrix scaleInto(final double scale, final Matrix target)
+  {
+    checkTarget(target, rows, columns);
+    final boolean sameArrays =
+      (isFloat64() && target.isFloat64()) ||
+      (isFloat32() && target.isFloat32());
+    final boolean contiguous = isContiguous() && target.isContiguous();
+    final boolean unitStrides =
+      sameArrays && (columnStride == 1) && (target.columnStride == 1);
+    final ExecutionPolicy policy = selectExecutionPolicy(target);
+    policy.forEachRowBlock(rows, columns, (fromRow, toRow) -> {
+        if (unitStrides && contiguous) {
+          scaleRange(scale, target, index(fromRow, 0),
+                     target.index(fromRow, 0), (toRow - fromRow) * columns);
+        } else {
+          for (int row = fromRow; row < toRow; row++) {
+            int index = index(row, 0);
+            int targetIndex = target.index(row, 0);
+            if (unitStrides) {
+              scaleRange(scale, target, index, targetIndex, columns);
+            } else {
+              for (int column = 0; column < columns; column++) {
+                target.store(targetIndex, load(index) * scale);
+                index += columnStride;
+                targetIndex += target.columnStride;
+              }
+            }
+          }
+        }
+      });
+    return target;
+  }
+
+  private void scaleRange(final double scale, final Matrix target,
+                          final int index, final int targetIndex,
+                          final int length)
+  {
+    if (isFloat64()) {
+      kernels.scale(elements, index, scale,
+                    target.elements, targetIndex, length);
+    } else {
+      kernels.scale(floatElements, index, (float)scale,
+                    target.floatElements, targetIndex, length);
     }
-    return new Matrix(scaled);
   }
 
   public Matrix dot(final Matrix other)
@@ -500,24 +2217,294 @@ public class Matrix implements Iterable<Double>
     if (other == null) {
       throw new NullPointerException("other");
     }
+    return dotInto(other,
+                   new Matrix(rows, other.columns,
+                              DataType.promote(getDataType(),
+                                               other.getDataType())));
+  }
+
+  /**
+   * Returns the matrix product of this matrix and the other
+   * expression, which is evaluated first.
+   */
+  public Matrix dot(final MatrixExpression other)
+  {
+    if (other == null) {
+      throw new NullPointerException("other");
+    }
+    return dot(other.materialize());
+  }
+
+  /**
+   * Writes the matrix product of this matrix and the other matrix
+   * into the target, which must have shape rows×other.columns and
+   * must not share storage with either operand.  Operands may have
+   * any data type; products are always accumulated in double
+   * precision and rounded only when stored into a FLOAT32 target.
+   */
+  public Matrix dotInto(final Matrix other, final Matrix target)
+  {
+    if (other == null) {
+      throw new NullPointerException("other");
+    }
+    return dotInto(other, target, selectExecutionPolicy(other));
+  }
+
+  /**
+   * Like {@link #dotInto(Matrix, Matrix)}, but distributes the work
+   * according to the given policy, e.g. sequentially for products
+   * that run in parallel with each other.
+   */
+  Matrix dotInto(final Matrix other, final Matrix target,
+                 final ExecutionPolicy policy)
+  {
+    return dotInto(other, target, policy, null);
+  }
+
+  /**
+   * Like {@link #dotInto(Matrix, Matrix, ExecutionPolicy)}, but
+   * applies the epilogue, if not null, to the target.  Where the
+   * product is computed directly into the target, the epilogue is
+   * applied to each block of the target as soon as the block is
+   * final, while it is still in cache; otherwise, it is applied to
+   * the whole target afterwards.
+   */
+  Matrix dotInto(final Matrix other, final Matrix target,
+                 final ExecutionPolicy policy, final Gemm.Epilogue epilogue)
+  {
     if (other.rows != columns) {
       throw new IllegalArgumentException("size mismatch: " + other.rows +
                                          " != " + columns +
                                          ", m1=" + fullToString() +
                                          ", m2=" + other.fullToString());
     }
-    final double[][] product = new double[rows][other.columns];
-    for (int otherColumn = 0; otherColumn < other.columns; otherColumn++) {
-      for (int row = 0; row < rows; row++) {
-        double dotSum = 0.0;
-        for (int column = 0; column < columns; column++) {
-          dotSum += elements[row][column] * other.elements[column][otherColumn];
+    checkTarget(target, rows, other.columns);
+    checkNotShared(target, this);
+    checkNotShared(target, other);
+    if ((rowIndices != null) || (other.rowIndices != null)) {
+      // kernel addresses operands via strides only => gather rows;
+      // this costs a copy of the operand, but no more than that
+      final Matrix a = rowIndices != null ? materialize() : this;
+      final Matrix b = other.rowIndices != null ? other.materialize() : other;
+      return a.dotInto(b, target, policy, epilogue);
+    }
+    if ((target.columnStride != 1) || (target.rowIndices != null) ||
+        !target.isFloat64()) {
+      // kernel requires unit column stride and accumulates into
+      // double array storage => go via temporary matrix
+      final Matrix product = new Matrix(rows, other.columns, DataType.FLOAT64);
+      dotInto(other, product, policy).copyInto(target);
+      if (epilogue != null) {
+        epilogue.apply(0, target.rows, 0, target.columns);
+      }
+      return target;
+    }
+    // transposed views and slices are handled by the kernel's strides
+    Gemm.multiply(policy, rows, other.columns, columns,
+                  elements, floatElements, offHeapElements,
+                  offset, rowStride, columnStride,
+                  other.elements, other.floatElements, other.offHeapElements,
+                  other.offset,
+                  other.rowStride, other.columnStride,
+                  target.elements, target.offset, target.rowStride,
+                  epilogue);
+    return target;
+  }
+
+  /**
+   * Returns a copy of this matrix in CSR format.
+   */
+  public SparseMatrix toSparse()
+  {
+    return toSparse(getSize());
+  }
+
+  /**
+   * Returns a copy of this matrix in CSR format, or null if it has
+   * more than maxNonZeros non-zero elements.  Counting stops as soon
+   * as the limit is exceeded, such that dense matrices are rejected
+   * after inspecting only their first rows.
+   */
+  SparseMatrix toSparse(final int maxNonZeros)
+  {
+    final int[] rowPointers = new int[rows + 1];
+    int nonZeros = 0;
+    for (int row = 0; row < rows; row++) {
+      int index = index(row, 0);
+      for (int column = 0; column < columns; column++) {
+        if (load(index) != 0.0) {
+          nonZeros++;
         }
-        product[row][otherColumn] = dotSum;
+        index += columnStride;
       }
+      if (nonZeros > maxNonZeros) {
+        return null;
+      }
+      rowPointers[row + 1] = nonZeros;
     }
-    final Matrix result = new Matrix(product);
-    return result;
+    final int[] columnIndices = new int[nonZeros];
+    final double[] values = new double[nonZeros];
+    int p = 0;
+    for (int row = 0; row < rows; row++) {
+      int index = index(row, 0);
+      for (int column = 0; column < columns; column++) {
+        final double value = load(index);
+        if (value != 0.0) {
+          columnIndices[p] = column;
+          values[p] = value;
+          p++;
+        }
+        index += columnStride;
+      }
+    }
+    return new SparseMatrix(rows, columns, rowPointers, columnIndices, values);
+  }
+
+  /**
+   * Copies length elements of the row, starting at fromColumn, into
+   * the buffer, widening them to double precision if necessary.
+   */
+  void loadRow(final int row, final int fromColumn,
+               final double[] buffer, final int length)
+  {
+    int index = index(row, fromColumn);
+    if (isFloat64() && (columnStride == 1)) {
+      System.arraycopy(elements, index, buffer, 0, length);
+    } else if ((offHeapElements != null) && (columnStride == 1)) {
+      offHeapElements.copyTo(index, buffer, 0, length);
+    } else {
+      for (int i = 0; i < length; i++) {
+        buffer[i] = load(index);
+        index += columnStride;
+      }
+    }
+  }
+
+  /**
+   * Stores length elements from the buffer into the row, starting at
+   * fromColumn, rounding them to the data type of this matrix.
+   */
+  void storeRow(final int row, final int fromColumn,
+                final double[] buffer, final int length)
+  {
+    int index = index(row, fromColumn);
+    if (isFloat64() && (columnStride == 1)) {
+      System.arraycopy(buffer, 0, elements, index, length);
+    } else if ((offHeapElements != null) && (columnStride == 1)) {
+      offHeapElements.copyFrom(buffer, 0, index, length);
+    } else {
+      for (int i = 0; i < length; i++) {
+        store(index, buffer[i]);
+        index += columnStride;
+      }
+    }
+  }
+
+  private void checkSparseProduct(final int leftColumns, final int rightRows,
+                                  final Matrix target,
+                                  final int targetRows,
+                                  final int targetColumns)
+  {
+    if (rightRows != leftColumns) {
+      throw new IllegalArgumentException("size mismatch: " + rightRows +
+                                         " != " + leftColumns);
+    }
+    checkTarget(target, targetRows, targetColumns);
+    checkNotShared(target, this);
+  }
+
+  public Matrix dot(final SparseMatrix other)
+  {
+    if (other == null) {
+      throw new NullPointerException("other");
+    }
+    return dotInto(other, new Matrix(rows, other.getColumns(), getDataType()));
+  }
+
+  /**
+   * Writes the product of this matrix and the sparse other matrix
+   * into the target, which must have shape rows×other.columns and
+   * must not share storage with this matrix.  Takes time proportional
+   * to the size of this matrix plus, for each of its non-zero
+   * elements, the number of non-zero elements in the corresponding
+   * row of the other matrix.
+   */
+  public Matrix dotInto(final SparseMatrix other, final Matrix target)
+  {
+    if (other == null) {
+      throw new NullPointerException("other");
+    }
+    checkSparseProduct(columns, other.getRows(),
+                       target, rows, other.getColumns());
+    final int[] rowPointers = other.getRowPointers();
+    final int[] columnIndices = other.getColumnIndices();
+    final double[] values = other.getValues();
+    final int targetColumns = other.getColumns();
+    final long costPerRow =
+      columns + (long)values.length * columns / Math.max(1, other.getRows());
+    final ExecutionPolicy policy = selectExecutionPolicy(target);
+    policy.forEachRowBlock(rows, costPerRow, (fromRow, toRow) -> {
+        final double[] sums = new double[targetColumns];
+        for (int row = fromRow; row < toRow; row++) {
+          Arrays.fill(sums, 0.0);
+          int index = index(row, 0);
+          for (int column = 0; column < columns; column++) {
+            final double a = load(index);
+            if (a != 0.0) {
+              for (int p = rowPointers[column];
+                   p < rowPointers[column + 1]; p++) {
+                sums[columnIndices[p]] += a * values[p];
+              }
+            }
+            index += columnStride;
+          }
+          target.storeRow(row, 0, sums, targetColumns);
+        }
+      });
+    return target;
+  }
+
+  /**
+   * Writes the product of the sparse matrix and this matrix into the
+   * target, which must have shape sparse.rows×columns and must not
+   * share storage with this matrix.  Each non-zero element of the
+   * sparse matrix scales one row of this matrix, such that the
+   * product takes time proportional to the number of non-zero
+   * elements times columns.
+   */
+  Matrix sparseDotInto(final SparseMatrix sparse, final Matrix target)
+  {
+    checkSparseProduct(sparse.getColumns(), rows,
+                       target, sparse.getRows(), columns);
+    final int[] rowPointers = sparse.getRowPointers();
+    final int[] columnIndices = sparse.getColumnIndices();
+    final double[] values = sparse.getValues();
+    final long costPerRow =
+      columns + (long)values.length * columns / Math.max(1, sparse.getRows());
+    final ExecutionPolicy policy = selectExecutionPolicy(target);
+    policy.forEachRowBlock(sparse.getRows(), costPerRow,
+                           (fromRow, toRow) -> {
+        final double[] sums = new double[columns];
+        for (int row = fromRow; row < toRow; row++) {
+          Arrays.fill(sums, 0.0);
+          for (int p = rowPointers[row]; p < rowPointers[row + 1]; p++) {
+            int index = index(columnIndices[p], 0);
+            final double a = values[p];
+            if ((columnStride == 1) && isFloat64()) {
+              kernels.axpy(a, elements, index, sums, 0, columns);
+            } else if ((columnStride == 1) && isFloat32()) {
+              kernels.axpy(a, floatElements, index, sums, 0, columns);
+            } else {
+              for (int column = 0; column < columns; column++) {
+                sums[column] += a * load(index);
+                index += columnStride;
+              }
+            }
+          }
+          target.storeRow(row, 0, sums, columns);
+        }
+      });
+    return target;
   }
 
   private final static int MAX_ROWS_PRINT = 10;
@@ -528,19 +2515,19 @@ public class Matrix implements Iterable<Double>
     final StringBuilder s = new StringBuilder();
     final boolean abbreviate = columns > MAX_COLUMNS_PRINT;
     if (abbreviate) {
-      s.append(elements[row][0]);
+      s.append(load(index(row, 0)));
       s.append(", ");
-      s.append(elements[row][1]);
+      s.append(load(index(row, 1)));
       s.append(", ");
-      s.append(elements[row][2]);
+      s.append(load(index(row, 2)));
       s.append(", …, ");
-      s.append(elements[row][columns - 1]);
+      s.append(load(index(row, columns - 1)));
     } else {
       for (int column = 0; column < columns; column++) {
         if (s.length() > 0) {
           s.append(", ");
         }
-        s.append(elements[row][column]);
+        s.append(load(index(row, column)));
       }
     }
     return "{" + s + "}";
@@ -571,7 +2558,7 @@ public class Matrix implements Iterable<Double>
 
   public String fullToString()
   {
-    return "Matrix(id=" + id + ", rows=" + rows + ", columns=" + columns +
+    return "Matrix(id=" + getId() + ", rows=" + rows + ", columns=" + columns +
       ", contents=" + contentsToString() + ")";
   }
 
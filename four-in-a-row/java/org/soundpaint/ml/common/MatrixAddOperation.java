@@ -31,7 +31,7 @@ public class MatrixAddOperation extends Operation<Matrix, Matrix>
   public MatrixAddOperation(final Node<Matrix, Matrix> x,
                             final double y)
   {
-    this(x, new MatrixSampleOperation(x, y));
+    this(x, new Variable<Matrix>(Matrix.fromArray(new double[][] {{y}})));
   }
 
   public MatrixAddOperation(final Matrix x,
@@ -64,7 +64,28 @@ public class MatrixAddOperation extends Operation<Matrix, Matrix>
       throw new IllegalArgumentException("require 2 operands, got: " +
                                          inputValues.size());
     }
-    return inputValues.get(0).add(inputValues.get(1));
+    final Matrix x = inputValues.get(0);
+    final Matrix y = inputValues.get(1);
+    final Matrix output =
+      Matrix.reuseOrCreate(getReusableOutputValue(), getMatrixPool(),
+                           Matrix.broadcast("rows",
+                                            x.getRows(), y.getRows()),
+                           Matrix.broadcast("columns",
+                                            x.getColumns(), y.getColumns()),
+                           x, y);
+    return x.addInto(y, output);
+  }
+
+  /**
+   * The gradient with respect to a broadcast operand is summed up
+   * over the stretched dimensions.
+   */
+  @Override
+  public Node<?, Matrix> createGradient(final int index,
+                                        final Node<?, Matrix> outputGradient)
+  {
+    return new MatrixSumToShapeOperation(outputGradient,
+                                         getInputNodes().get(index));
   }
 }
 
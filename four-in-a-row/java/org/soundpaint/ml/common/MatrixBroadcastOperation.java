@@ -0,0 +1,80 @@
+/*
+ * @(#)MatrixBroadcastOperation.java 1.00 26/10/18
+ *
+ * Copyright (C) 2026 Jürgen Reuter
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.soundpaint.ml.common;
+
+import java.util.List;
+
+/**
+ * Stretches a matrix to the shape of a reference matrix by repeating
+ * each dimension of size 1, as when broadcasting it against the
+ * reference matrix.  This is the gradient of reducing the reference
+ * matrix, e.g. by {@link MatrixReduceSumOperation}.  In average mode,
+ * each element is divided by the number of elements that it is
+ * repeated to, as for the gradient of {@link
+ * MatrixReduceMeanOperation}.
+ */
+public class MatrixBroadcastOperation extends Operation<Matrix, Matrix>
+{
+  private final boolean average;
+
+  public MatrixBroadcastOperation(final Node<?, Matrix> x,
+                                  final Node<?, Matrix> reference)
+  {
+    this(x, reference, false);
+  }
+
+  public MatrixBroadcastOperation(final Node<?, Matrix> x,
+                                  final Node<?, Matrix> reference,
+                                  final boolean average)
+  {
+    super("matrixbroadcastop", List.of(x, reference));
+    this.average = average;
+  }
+
+  public boolean isAverage()
+  {
+    return average;
+  }
+
+  public Matrix performOperation()
+  {
+    if (inputValues.size() != 2) {
+      throw new IllegalArgumentException("require 2 operands, got: " +
+                                         inputValues.size());
+    }
+    final Matrix x = inputValues.get(0);
+    final Matrix reference = inputValues.get(1);
+    final int rows = reference.getRows();
+    final int columns = reference.getColumns();
+    final Matrix output =
+      Matrix.reuseOrCreate(getReusableOutputValue(), getMatrixPool(),
+                           rows, columns, x);
+    final double scale =
+      average ? (double)x.getSize() / ((double)rows * columns) : 1.0;
+    return x.broadcastTo(rows, columns).scaleInto(scale, output);
+  }
+
+}
+
+/*
+ * Local Variables:
+ *   coding:utf-8
+ *   mode:Java
+ * End:
+ */
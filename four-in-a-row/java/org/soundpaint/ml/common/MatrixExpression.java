@@ -0,0 +1,478 @@
+/*
+ * @(#)MatrixExpression.java 1.00 26/10/18
+ *
+ * Copyright (C) 2026 Jürgen Reuter
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.soundpaint.ml.common;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.DoubleUnaryOperator;
+
+/**
+ * Lazily evaluated tree of element-wise operations on matrices.
+ * Chaining operations on an expression, as obtained from {@link
+ * Matrix#lazy()}, does not compute anything, but only builds the
+ * tree.  {@link #materialize()} then evaluates the whole tree in a
+ * single fused pass, reading each operand matrix once and writing
+ * the result once, rather than passing over memory and allocating a
+ * temporary matrix for each operation.  Matrix operands broadcast
+ * like for {@link Matrix#add(Matrix)}.
+ *
+ * The tree is evaluated chunk by chunk, each chunk being a part of a
+ * row of at most CHUNK_SIZE elements, with intermediate results held
+ * in per-thread buffers that stay in cache, and computed by the same
+ * array kernels as the eager matrix operations.  Intermediate results
+ * are kept in double precision; the result is rounded to the data
+ * type of the target only when stored.
+ *
+ * Expressions hold references to their operand matrices; changing
+ * an operand before materializing an expression changes its result.
+ */
+public abstract class MatrixExpression
+{
+  private static final int CHUNK_SIZE = 1024;
+
+  private static final ArrayKernels kernels = ArrayKernels.getInstance();
+
+  private final int rows;
+  private final int columns;
+
+  private MatrixExpression()
+  {
+    throw new UnsupportedOperationException("unsupported default constructor");
+  }
+
+  private MatrixExpression(final int rows, final int columns)
+  {
+    this.rows = rows;
+    this.columns = columns;
+  }
+
+  /**
+   * Returns an expression with the matrix as its only operand.
+   */
+  public static MatrixExpression of(final Matrix matrix)
+  {
+    if (matrix == null) {
+      throw new NullPointerException("matrix");
+    }
+    return new Operand(matrix);
+  }
+
+  public int getRows()
+  {
+    return rows;
+  }
+
+  public int getColumns()
+  {
+    return columns;
+  }
+
+  public int getSize()
+  {
+    return rows * columns;
+  }
+
+  /**
+   * Returns the data type of the result, as promoted from the data
+   * types of all operand matrices.
+   */
+  public abstract Matrix.DataType getDataType();
+
+  public MatrixExpression scale(final double factor)
+  {
+    return new Scale(this, factor);
+  }
+
+  public MatrixExpression add(final double summand)
+  {
+    return new AddScalar(this, summand);
+  }
+
+  public MatrixExpression add(final Matrix other)
+  {
+    return add(of(other));
+  }
+
+  public MatrixExpression add(final MatrixExpression other)
+  {
+    return new Combine(this, other, false);
+  }
+
+  /**
+   * Element-wise (Hadamard) product.
+   */
+  public MatrixExpression multiply(final Matrix other)
+  {
+    return multiply(of(other));
+  }
+
+  public MatrixExpression multiply(final MatrixExpression other)
+  {
+    return new Combine(this, other, true);
+  }
+
+  /**
+   * Applies the operator to each element.  Like for {@link
+   * Matrix#map(DoubleUnaryOperator)}, the operator may be called
+   * concurrently from multiple threads.
+   */
+  public MatrixExpression map(final DoubleUnaryOperator operator)
+  {
+    return new Map(this, operator);
+  }
+
+  /**
+   * Evaluates this expression into a newly allocated matrix.
+   */
+  public Matrix materialize()
+  {
+    return materializeInto(Matrix.createZeros(columns, rows, getDataType()));
+  }
+
+  /**
+   * Evaluates this expression into the target, which must have the
+   * shape of this expression.  The target may be identical with an
+   * operand matrix of the same shape, but must not otherwise overlap
+   * with any operand.
+   */
+  public Matrix materializeInto(final Matrix target)
+  {
+    if (target == null) {
+      throw new NullPointerException("target");
+    }
+    if ((target.getRows() != rows) || (target.getColumns() != columns)) {
+      throw new IllegalArgumentException("target shape mismatch: " +
+                                         target.getRows() + "×" +
+                                         target.getColumns() + " != " +
+                                         rows + "×" + columns);
+    }
+    final List<Operand> operands = new ArrayList<Operand>();
+    final int buffers = prepare(operands, 0);
+    final Matrix[] matrices = new Matrix[operands.size()];
+    boolean flat = target.isContiguous();
+    for (int i = 0; i < matrices.length; i++) {
+      final Operand operand = operands.get(i);
+      matrices[i] = operand.matrix;
+      flat &= (operand.flatMatrix != null) &&
+        (((operand.getRows() == rows) && (operand.getColumns() == columns)) ||
+         (operand.getSize() == 1));
+    }
+    final ExecutionPolicy policy = target.selectExecutionPolicy(matrices);
+    if (flat) {
+      // all operands line up with the target or are scalars => run
+      // over chunks of the whole storage rather than of single rows
+      final Matrix flatTarget = target.flatView();
+      final int size = getSize();
+      final int chunks = (size + CHUNK_SIZE - 1) / CHUNK_SIZE;
+      policy.forEachRowBlock(chunks, CHUNK_SIZE, (fromChunk, toChunk) -> {
+          final double[] out = new double[CHUNK_SIZE];
+          final double[][] scratch = new double[buffers][CHUNK_SIZE];
+          for (int chunk = fromChunk; chunk < toChunk; chunk++) {
+            final int fromIndex = chunk * CHUNK_SIZE;
+            final int length = Math.min(CHUNK_SIZE, size - fromIndex);
+            evaluate(true, 0, fromIndex, length, out, scratch);
+            flatTarget.storeRow(0, fromIndex, out, length);
+          }
+        });
+    } else {
+      policy.forEachRowBlock(rows, columns, (fromRow, toRow) -> {
+          final double[] out = new double[Math.min(CHUNK_SIZE, columns)];
+          final double[][] scratch = new double[buffers][out.length];
+          for (int row = fromRow; row < toRow; row++) {
+            for (int column = 0; column < columns; column += CHUNK_SIZE) {
+              final int length = Math.min(CHUNK_SIZE, columns - column);
+              evaluate(false, row, column, length, out, scratch);
+              target.storeRow(row, column, out, length);
+            }
+          }
+        });
+    }
+    return target;
+  }
+
+  /**
+   * Prepares this expression for {@link #materializeInto(Matrix, int,
+   * int, int, int, int)} and returns the number of scratch buffers
+   * that it requires.
+   */
+  int prepare()
+  {
+    return prepare(new ArrayList<Operand>(), 0);
+  }
+
+  /**
+   * Evaluates the given rows and columns of this expression, which
+   * must have been prepared, into the same elements of the target,
+   * e.g. as epilogue of a matrix product that is an operand of this
+   * expression.  As for {@link #materializeInto(Matrix)}, the target
+   * may be identical with an operand of the same shape.  Calls for
+   * distinct rows may run concurrently.
+   */
+  void materializeInto(final Matrix target,
+                       final int fromRow, final int toRow,
+                       final int fromColumn, final int columns,
+                       final int buffers)
+  {
+    final double[] out = new double[Math.min(CHUNK_SIZE, columns)];
+    final double[][] scratch = new double[buffers][out.length];
+    final int toColumn = fromColumn + columns;
+    for (int row = fromRow; row < toRow; row++) {
+      for (int column = fromColumn; column < toColumn; column += CHUNK_SIZE) {
+        final int length = Math.min(CHUNK_SIZE, toColumn - column);
+        evaluate(false, row, column, length, out, scratch);
+        target.storeRow(row, column, out, length);
+      }
+    }
+  }
+
+  /**
+   * Returns the matrix product of this expression, which is
+   * evaluated first, and the other matrix.
+   */
+  public Matrix dot(final Matrix other)
+  {
+    return materialize().dot(other);
+  }
+
+  public Matrix dot(final MatrixExpression other)
+  {
+    return materialize().dot(other);
+  }
+
+  /**
+   * Collects the operands of this subtree and assigns scratch buffer
+   * indices, starting at the given one, to binary operations.
+   *
+   * @return The next unassigned buffer index.
+   */
+  abstract int prepare(final List<Operand> operands, final int nextBuffer);
+
+  /**
+   * Evaluates length elements of this subtree, starting at (row,
+   * fromColumn) of the result, into the out buffer.  In flat mode,
+   * the result is addressed as single row of all elements.
+   */
+  abstract void evaluate(final boolean flat,
+                         final int row, final int fromColumn,
+                         final int length, final double[] out,
+                         final double[][] scratch);
+
+  private static class Operand extends MatrixExpression
+  {
+    private final Matrix matrix;
+
+    /**
+     * The operand as single row, if it is a 1×1 matrix or contiguous,
+     * or else null.
+     */
+    private final Matrix flatMatrix;
+
+    private Operand(final Matrix matrix)
+    {
+      super(matrix.getRows(), matrix.getColumns());
+      this.matrix = matrix;
+      flatMatrix =
+        matrix.getRows() == 1 && matrix.getColumns() == 1 ?
+        matrix : matrix.flatView();
+    }
+
+    public Matrix.DataType getDataType()
+    {
+      return matrix.getDataType();
+    }
+
+    int prepare(final List<Operand> operands, final int nextBuffer)
+    {
+      operands.add(this);
+      return nextBuffer;
+    }
+
+    void evaluate(final boolean flat,
+                  final int row, final int fromColumn,
+                  final int length, final double[] out,
+                  final double[][] scratch)
+    {
+      final Matrix source = flat ? flatMatrix : matrix;
+      final int sourceRow = source.getRows() == 1 ? 0 : row;
+      if (source.getColumns() == 1) {
+        source.loadRow(sourceRow, 0, out, 1);
+        Arrays.fill(out, 1, length, out[0]);
+      } else {
+        source.loadRow(sourceRow, fromColumn, out, length);
+      }
+    }
+  }
+
+  private static class Scale extends MatrixExpression
+  {
+    private final MatrixExpression operand;
+    private final double factor;
+
+    private Scale(final MatrixExpression operand, final double factor)
+    {
+      super(operand.getRows(), operand.getColumns());
+      this.operand = operand;
+      this.factor = factor;
+    }
+
+    public Matrix.DataType getDataType()
+    {
+      return operand.getDataType();
+    }
+
+    int prepare(final List<Operand> operands, final int nextBuffer)
+    {
+      return operand.prepare(operands, nextBuffer);
+    }
+
+    void evaluate(final boolean flat,
+                  final int row, final int fromColumn,
+                  final int length, final double[] out,
+                  final double[][] scratch)
+    {
+      operand.evaluate(flat, row, fromColumn, length, out, scratch);
+      kernels.scale(out, 0, factor, out, 0, length);
+    }
+  }
+
+  private static class AddScalar extends MatrixExpression
+  {
+    private final MatrixExpression operand;
+    private final double summand;
+
+    private AddScalar(final MatrixExpression operand, final double summand)
+    {
+      super(operand.getRows(), operand.getColumns());
+      this.operand = operand;
+      this.summand = summand;
+    }
+
+    public Matrix.DataType getDataType()
+    {
+      return operand.getDataType();
+    }
+
+    int prepare(final List<Operand> operands, final int nextBuffer)
+    {
+      return operand.prepare(operands, nextBuffer);
+    }
+
+    void evaluate(final boolean flat,
+                  final int row, final int fromColumn,
+                  final int length, final double[] out,
+                  final double[][] scratch)
+    {
+      operand.evaluate(flat, row, fromColumn, length, out, scratch);
+      kernels.add(out, 0, summand, out, 0, length);
+    }
+  }
+
+  private static class Map extends MatrixExpression
+  {
+    private final MatrixExpression operand;
+    private final DoubleUnaryOperator operator;
+
+    private Map(final MatrixExpression operand,
+                final DoubleUnaryOperator operator)
+    {
+      super(operand.getRows(), operand.getColumns());
+      if (operator == null) {
+        throw new NullPointerException("operator");
+      }
+      this.operand = operand;
+      this.operator = operator;
+    }
+
+    public Matrix.DataType getDataType()
+    {
+      return operand.getDataType();
+    }
+
+    int prepare(final List<Operand> operands, final int nextBuffer)
+    {
+      return operand.prepare(operands, nextBuffer);
+    }
+
+    void evaluate(final boolean flat,
+                  final int row, final int fromColumn,
+                  final int length, final double[] out,
+                  final double[][] scratch)
+    {
+      operand.evaluate(flat, row, fromColumn, length, out, scratch);
+      for (int i = 0; i < length; i++) {
+        out[i] = operator.applyAsDouble(out[i]);
+      }
+    }
+  }
+
+  private static class Combine extends MatrixExpression
+  {
+    private final MatrixExpression left;
+    private final MatrixExpression right;
+    private final boolean product;
+    private int buffer;
+
+    private Combine(final MatrixExpression left,
+                    final MatrixExpression right,
+                    final boolean product)
+    {
+      super(Matrix.broadcast("rows", left.getRows(), right.getRows()),
+            Matrix.broadcast("columns",
+                             left.getColumns(), right.getColumns()));
+      this.left = left;
+      this.right = right;
+      this.product = product;
+    }
+
+    public Matrix.DataType getDataType()
+    {
+      return Matrix.DataType.promote(left.getDataType(),
+                                     right.getDataType());
+    }
+
+    int prepare(final List<Operand> operands, final int nextBuffer)
+    {
+      buffer = nextBuffer;
+      return right.prepare(operands, left.prepare(operands, nextBuffer + 1));
+    }
+
+    void evaluate(final boolean flat,
+                  final int row, final int fromColumn,
+                  final int length, final double[] out,
+                  final double[][] scratch)
+    {
+      final double[] rightOut = scratch[buffer];
+      left.evaluate(flat, row, fromColumn, length, out, scratch);
+      right.evaluate(flat, row, fromColumn, length, rightOut, scratch);
+      if (product) {
+        kernels.multiply(out, 0, rightOut, 0, out, 0, length);
+      } else {
+        kernels.add(out, 0, rightOut, 0, out, 0, length);
+      }
+    }
+  }
+}
+
+/*
+ * Local Variables:
+ *   coding:utf-8
+ *   mode:Java
+ * End:
+ */
@@ -18,30 +18,85 @@
  */
 package org.soundpaint.ml.common;
 
+import java.util.function.Supplier;
+
 public class MatrixInitializer implements Initializer<Matrix>
 {
-  private final Matrix matrix;
-  private final Initializer<Double> elementInitializer;
+  private final Supplier<Matrix> supplier;
 
   private MatrixInitializer()
   {
     throw new UnsupportedOperationException("unsupported default constructor");
   }
 
-  public MatrixInitializer(final Matrix matrix,
-                           final Initializer<Double> elementInitializer)
+  private MatrixInitializer(final Supplier<Matrix> supplier)
   {
-    this.matrix = matrix;
-    this.elementInitializer = elementInitializer;
+    this.supplier = supplier;
   }
 
-  public Matrix createInitialValue()
+  /**
+   * Creates an initializer that creates a matrix of the shape of the
+   * given matrix, drawing each element separately from the element
+   * initializer.
+   */
+  public MatrixInitializer(final Matrix matrix,
+                           final Initializer<Double> elementInitializer)
   {
-    return matrix.apply(new SampleFunction() {
+    this(() -> matrix.apply(new SampleFunction() {
         public Double apply(final Void __) {
           return elementInitializer.createInitialValue();
         }
-      });
+      }));
+  }
+
+  /**
+   * Creates an initializer that fills a matrix of the shape of the
+   * given matrix with samples of the function, which are drawn in
+   * bulk.
+   */
+  public MatrixInitializer(final Matrix matrix,
+                           final SampleFunction sampleFunction)
+  {
+    this(() -> matrix.apply(sampleFunction));
+  }
+
+  /**
+   * Creates an initializer that creates a matrix of the shape and
+   * data type of the given matrix with samples of the normal
+   * distribution with standard deviation σ and mean µ.
+   */
+  public static MatrixInitializer createRandomNormal(final Matrix matrix,
+                                                     final double σ,
+                                                     final double µ)
+  {
+    final int columns = matrix.getColumns();
+    final int rows = matrix.getRows();
+    final Matrix.DataType dataType = matrix.getDataType();
+    return new MatrixInitializer(() ->
+                                 Matrix.createRandomNormal(columns, rows, σ, µ,
+                                                           dataType));
+  }
+
+  /**
+   * Like {@link #createRandomNormal(Matrix, double, double)}, but
+   * with the samples truncated as by {@link
+   * Matrix#createTruncatedNormal(int, int, double, double)}.
+   */
+  public static MatrixInitializer createTruncatedNormal(final Matrix matrix,
+                                                        final double σ,
+                                                        final double µ)
+  {
+    final int columns = matrix.getColumns();
+    final int rows = matrix.getRows();
+    final Matrix.DataType dataType = matrix.getDataType();
+    return new MatrixInitializer(() ->
+                                 Matrix.createTruncatedNormal(columns, rows,
+                                                              σ, µ, dataType));
+  }
+
+  public Matrix createInitialValue()
+  {
+    return supplier.get();
   }
 }
 
@@ -22,10 +22,54 @@ import java.util.List;
 
 public class MatrixMultiplyOperation extends Operation<Matrix, Matrix>
 {
-  public MatrixMultiplyOperation(final Node<Matrix, Matrix> x,
-                                 final Node<Matrix, Matrix> y)
+  /**
+   * Default maximum fraction of non-zero elements up to which an
+   * operand is multiplied in sparse format.  Since checking the
+   * density scans the operand and converting it allocates the CSR
+   * arrays on every run, the sparse product is disabled by default
+   * and must be enabled per operation for inputs known to be sparse.
+   */
+  public static final double DEFAULT_SPARSE_DENSITY = 0.0;
+
+  private double sparseDensity;
+
+  public MatrixMultiplyOperation(final Node<?, Matrix> x,
+                                 final Node<?, Matrix> y)
   {
     super("matrixmulop", List.of(x, y));
+    sparseDensity = DEFAULT_SPARSE_DENSITY;
+  }
+
+  /**
+   * Sets the maximum fraction of non-zero elements up to which an
+   * operand, e.g. a one-hot encoded input, is converted into a
+   * SparseMatrix, such that the product costs time proportional to
+   * its non-zero elements.  A value of 0.0, the default, always
+   * uses the dense product.  Encodings that are already available in
+   * CSR format, such as GameModel#createSparseEncoding(), can be
+   * multiplied directly with {@link Matrix#dot(SparseMatrix)} and
+   * {@link SparseMatrix#dot(Matrix)} instead.
+   */
+  public void setSparseDensity(final double sparseDensity)
+  {
+    if ((sparseDensity < 0.0) || (sparseDensity > 1.0)) {
+      throw new IllegalArgumentException("sparse density not in [0, 1]: " +
+                                         sparseDensity);
+    }
+    this.sparseDensity = sparseDensity;
+  }
+
+  public double getSparseDensity()
+  {
+    return sparseDensity;
+  }
+
+  private SparseMatrix toSparse(final Matrix operand)
+  {
+    if (sparseDensity == 0.0) {
+      return null;
+    }
+    return operand.toSparse((int)(sparseDensity * operand.getSize()));
   }
 
   public Matrix performOperation()
@@ -34,7 +78,56 @@ public class MatrixMultiplyOperation extends Operation<Matrix, Matrix>
       throw new IllegalArgumentException("require 2 operands, got: " +
                                          inputValues.size());
     }
-    return inputValues.get(0).dot(inputValues.get(1));
+    final Matrix x = inputValues.get(0);
+    final Matrix y = inputValues.get(1);
+    final Matrix output =
+      Matrix.reuseOrCreate(getReusableOutputValue(), getMatrixPool(),
+                           x.getRows(), y.getColumns(), x, y);
+    return multiplyInto(x, y, output, null);
+  }
+
+  /**
+   * Writes the product of x and y into the output, in sparse format
+   * if either operand is sparse enough, and applies the epilogue, if
+   * not null, to the output; see {@link Matrix#dotInto(Matrix,
+   * Matrix, ExecutionPolicy, Gemm.Epilogue)}.
+   */
+  Matrix multiplyInto(final Matrix x, final Matrix y, final Matrix output,
+                      final Gemm.Epilogue epilogue)
+  {
+    final SparseMatrix sparseX = toSparse(x);
+    final SparseMatrix sparseY = sparseX == null ? toSparse(y) : null;
+    if ((sparseX == null) && (sparseY == null)) {
+      return x.dotInto(y, output, x.selectExecutionPolicy(y), epilogue);
+    }
+    if (sparseX != null) {
+      sparseX.dotInto(y, output);
+    } else {
+      x.dotInto(sparseY, output);
+    }
+    if (epilogue != null) {
+      epilogue.apply(0, output.getRows(), 0, output.getColumns());
+    }
+    return output;
+  }
+
+  /**
+   * For output x·y and output gradient g, the gradients are g·yᵀ and
+   * xᵀ·g, multiplied with the same sparse density as the forward
+   * product, such that a sparse input is exploited backwards as well.
+   */
+  @Override
+  public Node<?, Matrix> createGradient(final int index,
+                                        final Node<?, Matrix> outputGradient)
+  {
+    final Node<?, Matrix> other = getInputNodes().get(1 - index);
+    final Node<?, Matrix> otherTransposed = new MatrixTransposeOperation(other);
+    final MatrixMultiplyOperation gradient =
+      index == 0 ?
+      new MatrixMultiplyOperation(outputGradient, otherTransposed) :
+      new MatrixMultiplyOperation(otherTransposed, outputGradient);
+    gradient.setSparseDensity(sparseDensity);
+    return gradient;
   }
 }
 
@@ -0,0 +1,217 @@
+/*
+ * @(#)MatrixPool.java 1.00 26/10/18
+ *
+ * Copyright (C) 2026 Jürgen Reuter
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.soundpaint.ml.common;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Pool of matrix buffers, keyed by shape and data type, from which
+ * operations draw their output values.  Buffers handed out by {@link
+ * #acquire(int, int, Matrix.DataType)} have unspecified contents;
+ * kernels writing into them overwrite all elements.  Buffers
+ * returned via {@link #release(Matrix)} must no longer be referenced
+ * by the caller.
+ *
+ * The pool counts hits and misses, as well as the bytes allocated
+ * for misses, such that a steady-state training loop can be checked
+ * to allocate close to nothing per step.  All methods are thread-safe.
+ */
+public class MatrixPool
+{
+  private static class Key
+  {
+    private final int rows;
+    private final int columns;
+    private final Matrix.DataType dataType;
+
+    private Key(final int rows, final int columns,
+                final Matrix.DataType dataType)
+    {
+      this.rows = rows;
+      this.columns = columns;
+      this.dataType = dataType;
+    }
+
+    @Override
+    public boolean equals(final Object obj)
+    {
+      if (!(obj instanceof Key)) {
+        return false;
+      }
+      final Key other = (Key)obj;
+      return
+        (other.rows == rows) && (other.columns == columns) &&
+        (other.dataType == dataType);
+    }
+
+    @Override
+    public int hashCode()
+    {
+      return (31 * rows + columns) * 31 + dataType.hashCode();
+    }
+  }
+
+  private final Map<Key, Deque<Matrix>> buffers;
+  private long hits;
+  private long misses;
+  private long allocatedBytes;
+  private long releases;
+  private int pooled;
+
+  public MatrixPool()
+  {
+    buffers = new HashMap<Key, Deque<Matrix>>();
+  }
+
+  /**
+   * Returns a rows×columns matrix of the given data type with
+   * unspecified contents, either from the pool or newly allocated.
+   */
+  public synchronized Matrix acquire(final int rows, final int columns,
+                                     final Matrix.DataType dataType)
+  {
+    if (dataType == null) {
+      throw new NullPointerException("dataType");
+    }
+    final Deque<Matrix> available =
+      buffers.get(new Key(rows, columns, dataType));
+    if ((available != null) && !available.isEmpty()) {
+      hits++;
+      pooled--;
+      return available.pop();
+    }
+    misses++;
+    allocatedBytes +=
+      (long)rows * columns * (dataType == Matrix.DataType.FLOAT64 ? 8 : 4);
+    return Matrix.createZeros(columns, rows, dataType);
+  }
+
+  /**
+   * Returns the matrix to the pool for reuse by subsequent calls of
+   * {@link #acquire(int, int, Matrix.DataType)}.  Matrices that do
+   * not exclusively own their on-heap storage, such as views and
+   * off-heap matrices, are silently not pooled.
+   *
+   * @return True if the matrix has been put into the pool.
+   */
+  public synchronized boolean release(final Matrix matrix)
+  {
+    if (matrix == null) {
+      throw new NullPointerException("matrix");
+    }
+    if (!matrix.isPoolable()) {
+      return false;
+    }
+    final Key key =
+      new Key(matrix.getRows(), matrix.getColumns(), matrix.getDataType());
+    final Deque<Matrix> available =
+      buffers.computeIfAbsent(key, k -> new ArrayDeque<Matrix>());
+    for (final Matrix buffer : available) {
+      if (buffer == matrix) {
+        throw new IllegalStateException("matrix already released: " +
+                                        matrix.getId());
+      }
+    }
+    available.push(matrix);
+    releases++;
+    pooled++;
+    return true;
+  }
+
+  public synchronized long getHits()
+  {
+    return hits;
+  }
+
+  public synchronized long getMisses()
+  {
+    return misses;
+  }
+
+  /**
+   * Returns the fraction of acquisitions served from the pool, or
+   * 0.0 if there have been no acquisitions yet.
+   */
+  public synchronized double getHitRate()
+  {
+    final long acquisitions = hits + misses;
+    return acquisitions > 0 ? (double)hits / acquisitions : 0.0;
+  }
+
+  /**
+   * Returns the number of bytes of element storage allocated for
+   * acquisitions that missed the pool.
+   */
+  public synchronized long getAllocatedBytes()
+  {
+    return allocatedBytes;
+  }
+
+  public synchronized long getReleases()
+  {
+    return releases;
+  }
+
+  /**
+   * Returns the number of buffers currently available in the pool.
+   */
+  public synchronized int getPooled()
+  {
+    return pooled;
+  }
+
+  /**
+   * Resets hit, miss, release and allocation counts, e.g. after a
+   * warm-up phase, but keeps the pooled buffers.
+   */
+  public synchronized void resetStatistics()
+  {
+    hits = 0;
+    misses = 0;
+    allocatedBytes = 0;
+    releases = 0;
+  }
+
+  /**
+   * Drops all pooled buffers, leaving them to garbage collection.
+   */
+  public synchronized void clear()
+  {
+    buffers.clear();
+    pooled = 0;
+  }
+
+  public synchronized String toString()
+  {
+    return
+      "MatrixPool(hits=" + hits + ", misses=" + misses +
+      ", hitRate=" + getHitRate() + ", allocatedBytes=" + allocatedBytes +
+      ", releases=" + releases + ", pooled=" + pooled + ")";
+  }
+}
+
+/*
+ * Local Variables:
+ *   coding:utf-8
+ *   mode:Java
+ * End:
+ */
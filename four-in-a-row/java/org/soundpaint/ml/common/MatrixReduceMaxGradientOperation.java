@@ -0,0 +1,77 @@
+/*
+ * @(#)MatrixReduceMaxGradientOperation.java 1.00 26/10/18
+ *
+ * Copyright (C) 2026 Jürgen Reuter
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.soundpaint.ml.common;
+
+import java.util.List;
+
+/**
+ * Computes the gradient of {@link MatrixReduceMaxOperation}: each
+ * element of the input matrix that equals the maximum of its row,
+ * column or the whole matrix receives the respective element of the
+ * output gradient, all other elements 0.
+ */
+public class MatrixReduceMaxGradientOperation
+  extends Operation<Matrix, Matrix>
+{
+  public MatrixReduceMaxGradientOperation(final Node<?, Matrix> outputGradient,
+                                          final Node<?, Matrix> x,
+                                          final Node<?, Matrix> max)
+  {
+    super("matrixreducemaxgradientop", List.of(outputGradient, x, max));
+  }
+
+  public Matrix performOperation()
+  {
+    if (inputValues.size() != 3) {
+      throw new IllegalArgumentException("require 3 operands, got: " +
+                                         inputValues.size());
+    }
+    final Matrix x = inputValues.get(1);
+    final int rows = x.getRows();
+    final int columns = x.getColumns();
+    final Matrix outputGradient =
+      inputValues.get(0).broadcastTo(rows, columns);
+    final Matrix max = inputValues.get(2).broadcastTo(rows, columns);
+    final Matrix output =
+      Matrix.reuseOrCreate(getReusableOutputValue(), getMatrixPool(),
+                           rows, columns, x);
+    final double[] xRow = new double[columns];
+    final double[] gradientRow = new double[columns];
+    final double[] maxRow = new double[columns];
+    for (int row = 0; row < rows; row++) {
+      x.loadRow(row, 0, xRow, columns);
+      outputGradient.loadRow(row, 0, gradientRow, columns);
+      max.loadRow(row, 0, maxRow, columns);
+      for (int column = 0; column < columns; column++) {
+        if (xRow[column] != maxRow[column]) {
+          gradientRow[column] = 0.0;
+        }
+      }
+      output.storeRow(row, 0, gradientRow, columns);
+    }
+    return output;
+  }
+}
+
+/*
+ * Local Variables:
+ *   coding:utf-8
+ *   mode:Java
+ * End:
+ */
@@ -0,0 +1,98 @@
+/*
+ * @(#)MatrixReduceMeanOperation.java 1.00 26/10/18
+ *
+ * Copyright (C) 2026 Jürgen Reuter
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.soundpaint.ml.common;
+
+import java.util.List;
+
+/**
+ * Computes the mean of all elements of a matrix, or of each row or
+ * column, if a direction is given; see {@link
+ * Matrix#reduceMean(Matrix.Direction)}.
+ */
+public class MatrixReduceMeanOperation extends Operation<Matrix, Matrix>
+{
+  private final Matrix.Direction direction;
+
+  public MatrixReduceMeanOperation(final Matrix x)
+  {
+    this(new Variable<Matrix>(x));
+  }
+
+  public MatrixReduceMeanOperation(final Node<Matrix, Matrix> x)
+  {
+    super("matrixreducemeanop", List.of(x));
+    direction = null;
+  }
+
+  public MatrixReduceMeanOperation(final Matrix x,
+                                   final Matrix.Direction direction)
+  {
+    this(new Variable<Matrix>(x), direction);
+  }
+
+  public MatrixReduceMeanOperation(final Node<Matrix, Matrix> x,
+                                   final Matrix.Direction direction)
+  {
+    super("matrixreducemeanop", List.of(x));
+    if (direction == null) {
+      throw new NullPointerException("direction");
+    }
+    this.direction = direction;
+  }
+
+  public Matrix.Direction getDirection()
+  {
+    return direction;
+  }
+
+  public Matrix performOperation()
+  {
+    if (inputValues.size() != 1) {
+      throw new IllegalArgumentException("require 1 operand, got: " +
+                                         inputValues.size());
+    }
+    final Matrix x = inputValues.get(0);
+    if (direction == null) {
+      return x.reduceMean();
+    }
+    final Matrix output =
+      Matrix.reuseOrCreate(getReusableOutputValue(), getMatrixPool(),
+                           direction == Matrix.Direction.HORIZONTAL ?
+                           x.getRows() : 1,
+                           direction == Matrix.Direction.VERTICAL ?
+                           x.getColumns() : 1,
+                           x);
+    return x.reduceMeanInto(direction, output);
+  }
+
+  @Override
+  public Node<?, Matrix> createGradient(final int index,
+                                        final Node<?, Matrix> outputGradient)
+  {
+    return new MatrixBroadcastOperation(outputGradient,
+                                        getInputNodes().get(0), true);
+  }
+}
+
+/*
+ * Local Variables:
+ *   coding:utf-8
+ *   mode:Java
+ * End:
+ */
@@ -20,8 +20,15 @@ package org.soundpaint.ml.common;
 
 import java.util.List;
 
+/**
+ * Computes the sum of all elements of a matrix, or of each row or
+ * column, if a direction is given; see {@link
+ * Matrix#reduceSum(Matrix.Direction)}.
+ */
 public class MatrixReduceSumOperation extends Operation<Matrix, Matrix>
 {
+  private final Matrix.Direction direction;
+
   public MatrixReduceSumOperation(final Matrix x)
   {
     this(new Variable<Matrix>(x));
@@ -30,6 +37,28 @@ public class MatrixReduceSumOperation extends Operation<Matrix, Matrix>
   public MatrixReduceSumOperation(final Node<Matrix, Matrix> x)
   {
     super("matrixreducesumop", List.of(x));
+    direction = null;
+  }
+
+  public MatrixReduceSumOperation(final Matrix x,
+                                  final Matrix.Direction direction)
+  {
+    this(new Variable<Matrix>(x), direction);
+  }
+
+  public MatrixReduceSumOperation(final Node<Matrix, Matrix> x,
+                                  final Matrix.Direction direction)
+  {
+    super("matrixreducesumop", List.of(x));
+    if (direction == null) {
+      throw new NullPointerException("direction");
+    }
+    this.direction = direction;
+  }
+
+  public Matrix.Direction getDirection()
+  {
+    return direction;
   }
 
   public Matrix performOperation()
@@ -38,7 +67,26 @@ public class MatrixReduceSumOperation extends Operation<Matrix, Matrix>
       throw new IllegalArgumentException("require 1 operand, got: " +
                                          inputValues.size());
     }
-    return inputValues.get(1).reduceSum();
+    final Matrix x = inputValues.get(0);
+    if (direction == null) {
+      return x.reduceSum();
+    }
+    final Matrix output =
+      Matrix.reuseOrCreate(getReusableOutputValue(), getMatrixPool(),
+                           direction == Matrix.Direction.HORIZONTAL ?
+                           x.getRows() : 1,
+                           direction == Matrix.Direction.VERTICAL ?
+                           x.getColumns() : 1,
+                           x);
+    return x.reduceSumInto(direction, output);
+  }
+
+  @Override
+  public Node<?, Matrix> createGradient(final int index,
+                                        final Node<?, Matrix> outputGradient)
+  {
+    return new MatrixBroadcastOperation(outputGradient,
+                                        getInputNodes().get(0));
   }
 }
 
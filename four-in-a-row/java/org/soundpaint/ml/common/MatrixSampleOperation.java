@@ -37,6 +37,15 @@ public class MatrixSampleOperation extends Operation<Matrix, Matrix>
     this.function = function;
   }
 
+  /**
+   * Samples are drawn anew on each evaluation.
+   */
+  @Override
+  public boolean isPure()
+  {
+    return false;
+  }
+
   public Matrix performOperation()
   {
     if (inputValues.size() != 1) {
@@ -45,6 +54,17 @@ public class MatrixSampleOperation extends Operation<Matrix, Matrix>
     }
     return inputValues.get(0).apply(function);
   }
+
+  /**
+   * Samples depend on the shape of the input value only, and hence
+   * pass no gradient.
+   */
+  @Override
+  public Node<?, Matrix> createGradient(final int index,
+                                        final Node<?, Matrix> outputGradient)
+  {
+    return null;
+  }
 }
 
 /*
@@ -22,6 +22,8 @@ import java.util.List;
 
 public class MatrixScaleOperation extends Operation<Matrix, Matrix>
 {
+  private final double scale;
+
   public MatrixScaleOperation(final double scale,
                               final Matrix x)
   {
@@ -29,10 +31,11 @@ public class MatrixScaleOperation extends Operation<Matrix, Matrix>
   }
 
   public MatrixScaleOperation(final double scale,
-                              final Node<Matrix, Matrix> x)
+                              final Node<?, Matrix> x)
   {
     super("matrixscaleop",
           List.of(new Variable<Matrix>(Matrix.fromArray(new double[][] {{scale}})), x));
+    this.scale = scale;
   }
 
   public Matrix performOperation()
@@ -41,7 +44,23 @@ public class MatrixScaleOperation extends Operation<Matrix, Matrix>
       throw new IllegalArgumentException("require 2 operands, got: " +
                                          inputValues.size());
     }
-    return inputValues.get(1).scale(inputValues.get(0).getElementAt(0, 0));
+    final double scale = inputValues.get(0).getElementAt(0, 0);
+    final Matrix x = inputValues.get(1);
+    final Matrix output =
+      Matrix.reuseOrCreate(getReusableOutputValue(), getMatrixPool(),
+                           x.getRows(), x.getColumns(), x);
+    return x.scaleInto(scale, output);
+  }
+
+  /**
+   * The scale is a constant, hence only the gradient with respect to
+   * the scaled matrix is defined.
+   */
+  @Override
+  public Node<?, Matrix> createGradient(final int index,
+                                        final Node<?, Matrix> outputGradient)
+  {
+    return index == 1 ? new MatrixScaleOperation(scale, outputGradient) : null;
   }
 }
 
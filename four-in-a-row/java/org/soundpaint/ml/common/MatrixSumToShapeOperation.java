@@ -0,0 +1,77 @@
+/*
+ * @(#)MatrixSumToShapeOperation.java 1.00 26/10/18
+ *
+ * Copyright (C) 2026 Jürgen Reuter
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.soundpaint.ml.common;
+
+import java.util.List;
+
+/**
+ * Sums up a matrix over each dimension in which it is larger than a
+ * reference matrix of size 1 in that dimension, i.e. reverts
+ * broadcasting the reference matrix to the shape of the first one.
+ * This is the gradient of broadcasting, e.g. of adding a bias row
+ * vector to each row of a batch.  If the shapes match, the output
+ * value is the input value itself.
+ */
+public class MatrixSumToShapeOperation extends Operation<Matrix, Matrix>
+{
+  public MatrixSumToShapeOperation(final Node<?, Matrix> x,
+                                   final Node<?, Matrix> reference)
+  {
+    super("matrixsumtoshapeop", List.of(x, reference));
+  }
+
+  public Matrix performOperation()
+  {
+    if (inputValues.size() != 2) {
+      throw new IllegalArgumentException("require 2 operands, got: " +
+                                         inputValues.size());
+    }
+    final Matrix x = inputValues.get(0);
+    final Matrix reference = inputValues.get(1);
+    final int rows = reference.getRows();
+    final int columns = reference.getColumns();
+    final boolean sumRows = rows != x.getRows();
+    final boolean sumColumns = columns != x.getColumns();
+    if ((sumRows && (rows != 1)) || (sumColumns && (columns != 1))) {
+      throw new IllegalArgumentException("can not sum up " +
+                                         x.getRows() + "×" + x.getColumns() +
+                                         " matrix to shape " +
+                                         rows + "×" + columns);
+    }
+    if (sumRows && sumColumns) {
+      return x.reduceSum();
+    }
+    if (!sumRows && !sumColumns) {
+      return x;
+    }
+    final Matrix output =
+      Matrix.reuseOrCreate(getReusableOutputValue(), getMatrixPool(),
+                           rows, columns, x);
+    return x.reduceSumInto(sumRows ?
+                           Matrix.Direction.VERTICAL :
+                           Matrix.Direction.HORIZONTAL, output);
+  }
+}
+
+/*
+ * Local Variables:
+ *   coding:utf-8
+ *   mode:Java
+ * End:
+ */
@@ -0,0 +1,67 @@
+/*
+ * @(#)MatrixTransposeOperation.java 1.00 26/10/18
+ *
+ * Copyright (C) 2026 Jürgen Reuter
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.soundpaint.ml.common;
+
+import java.util.List;
+
+/**
+ * Transposes a matrix.  Like for {@link Matrix#transpose()}, the
+ * output value is a copy rather than a view of the input value, such
+ * that consumers that write their input in place, like {@link
+ * ActivationOperation}, do not modify the input value.
+ */
+public class MatrixTransposeOperation extends Operation<Matrix, Matrix>
+{
+  public MatrixTransposeOperation(final Matrix x)
+  {
+    this(new Variable<Matrix>(x));
+  }
+
+  public MatrixTransposeOperation(final Node<?, Matrix> x)
+  {
+    super("matrixtransposeop", List.of(x));
+  }
+
+  public Matrix performOperation()
+  {
+    if (inputValues.size() != 1) {
+      throw new IllegalArgumentException("require 1 operand, got: " +
+                                         inputValues.size());
+    }
+    final Matrix x = inputValues.get(0);
+    final Matrix output =
+      Matrix.reuseOrCreate(getReusableOutputValue(), getMatrixPool(),
+                           x.getColumns(), x.getRows(), x);
+    return x.transposeInto(output);
+  }
+
+  @Override
+  public Node<?, Matrix> createGradient(final int index,
+                                        final Node<?, Matrix> outputGradient)
+  {
+    return new MatrixTransposeOperation(outputGradient);
+  }
+}
+
+/*
+ * Local Variables:
+ *   coding:utf-8
+ *   mode:Java
+ * End:
+ */
@@ -22,8 +22,8 @@ import java.util.List;
 
 public class MultiplyOperation extends Operation<Double, Double>
 {
-  public MultiplyOperation(final Node<Double, Double> x,
-                           final Node<Double, Double> y)
+  public MultiplyOperation(final Node<?, Double> x,
+                           final Node<?, Double> y)
   {
     super("mulop", List.of(x, y));
   }
@@ -36,6 +36,14 @@ public class MultiplyOperation extends Operation<Double, Double>
     }
     return inputValues.get(0) * inputValues.get(1);
   }
+
+  @Override
+  public Node<?, Double> createGradient(final int index,
+                                        final Node<?, Double> outputGradient)
+  {
+    return new MultiplyOperation(outputGradient,
+                                 getInputNodes().get(1 - index));
+  }
 }
 
 /*
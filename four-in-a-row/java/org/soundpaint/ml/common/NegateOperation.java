@@ -22,7 +22,7 @@ import java.util.List;
 
 public class NegateOperation extends Operation<Double, Double>
 {
-  public NegateOperation(final Node<Double, Double> x)
+  public NegateOperation(final Node<?, Double> x)
   {
     super("negop", List.of(x));
   }
@@ -35,6 +35,13 @@ public class NegateOperation extends Operation<Double, Double>
     }
     return -inputValues.get(0);
   }
+
+  @Override
+  public Node<?, Double> createGradient(final int index,
+                                        final Node<?, Double> outputGradient)
+  {
+    return new NegateOperation(outputGradient);
+  }
 }
 
 /*
@@ -19,13 +19,17 @@
 package org.soundpaint.ml.common;
 
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
 import java.util.List;
+import java.util.Set;
 
 public abstract class Node<U, V>
 {
   private final String id;
   private final List<Operation<V, ?>> operations;
   private V outputValue;
+  private long version;
 
   public Node()
   {
@@ -61,25 +65,62 @@ public abstract class Node<U, V>
     return outputValue;
   }
 
+  /**
+   * Returns a counter that is incremented whenever the output value
+   * of this node may have changed, such that consumers can tell
+   * whether they need to be evaluated again; see {@link
+   * Session#setIncremental(boolean)}.
+   */
+  public long getVersion()
+  {
+    return version;
+  }
+
+  protected void incrementVersion()
+  {
+    version++;
+  }
+
   abstract void update(final FeedDictionary feedDictionary);
 
-  private void recurse(final List<Node<?, ?>> nodesPostOrder)
+  /**
+   * Like {@link #update(FeedDictionary)}, but may skip the update if
+   * the output value is known to be still up to date.
+   */
+  void updateIncrementally(final FeedDictionary feedDictionary)
   {
+    update(feedDictionary);
+  }
+
+  private void recurse(final List<Node<?, ?>> nodesPostOrder,
+                       final Set<Node<?, ?>> visited)
+  {
+    if (!visited.add(this)) {
+      return;
+    }
     if (this instanceof Operation) {
       final List<? extends Node<?, U>> inputNodes =
         ((Operation<U, V>)this).getInputNodes();
       for (final Node<?, U> inputNode : inputNodes) {
-        inputNode.recurse(nodesPostOrder);
+        inputNode.recurse(nodesPostOrder, visited);
       }
     }
     nodesPostOrder.add(this);
   }
 
+  /**
+   * Returns all nodes that the given nodes depend on, including the
+   * given nodes themselves, in topological order, i.e. each node
+   * after all of its input nodes.  Each node occurs only once, even
+   * if reachable via multiple paths.
+   */
   public static List<Node<?, ?>> traversePostOrder(final List<Node<?, ?>> nodes)
   {
     final List<Node<?, ?>> nodesPostOrder = new ArrayList<Node<?, ?>>();
+    final Set<Node<?, ?>> visited =
+      Collections.newSetFromMap(new IdentityHashMap<Node<?, ?>, Boolean>());
     for (final Node<?, ?> node : nodes) {
-      node.recurse(nodesPostOrder);
+      node.recurse(nodesPostOrder, visited);
     }
     return nodesPostOrder;
   }
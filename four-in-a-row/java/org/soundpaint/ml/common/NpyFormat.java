@@ -0,0 +1,421 @@
+/*
+ * @(#)NpyFormat.java 1.00 26/10/18
+ *
+ * Copyright (C) 2026 Jürgen Reuter
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.soundpaint.ml.common;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
+import java.nio.FloatBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Reading and writing matrices in the NumPy <code>.npy</code> file
+ * format, see
+ * https://numpy.org/doc/stable/reference/generated/numpy.lib.format.html.
+ * Files are written in format version 1.0 with little-endian
+ * elements in C (row-major) order, such that numpy.load() reads
+ * them as 2-dimensional arrays.  Files of versions 1.0 and 2.0 with
+ * 0 to 2 dimensions, float64 or float32 elements of either byte
+ * order, and C or Fortran order are read; 0- and 1-dimensional
+ * arrays become 1×1 and 1×n matrices, respectively.
+ *
+ * Reading does not copy the elements, but maps the file into
+ * memory, such that even large files open instantly and are paged
+ * in as elements are accessed.  The resulting matrix is read-only;
+ * storing into it throws a ReadOnlyBufferException.  Use {@link
+ * Matrix#materialize()} for a modifiable on-heap copy.
+ */
+final class NpyFormat
+{
+  private static final byte[] MAGIC = {
+    (byte)0x93, 'N', 'U', 'M', 'P', 'Y'
+  };
+
+  /**
+   * Alignment of the start of the elements, as required by the
+   * format for the total header length.
+   */
+  private static final int HEADER_ALIGNMENT = 64;
+
+  /**
+   * Number of elements per mapped region, since a single mapping
+   * cannot exceed 2 GiB.
+   */
+  private static final int REGION_SHIFT = 27;
+  private static final int REGION_SIZE = 1 << REGION_SHIFT;
+  private static final int REGION_MASK = REGION_SIZE - 1;
+
+  /**
+   * Number of bytes written per write call.
+   */
+  private static final int WRITE_BUFFER_SIZE = 1 << 16;
+
+  private static final Pattern DESCR_PATTERN =
+    Pattern.compile("'descr'\\s*:\\s*'([<>=|]?)f([48])'");
+  private static final Pattern FORTRAN_ORDER_PATTERN =
+    Pattern.compile("'fortran_order'\\s*:\\s*(True|False)");
+  private static final Pattern SHAPE_PATTERN =
+    Pattern.compile("'shape'\\s*:\\s*\\(([^)]*)\\)");
+
+  private static class MappedStorage extends OffHeapStorage
+  {
+    private final Matrix.DataType dataType;
+    private final int length;
+    private final DoubleBuffer[] doubleRegions;
+    private final FloatBuffer[] floatRegions;
+
+    private MappedStorage(final FileChannel channel,
+                          final long position,
+                          final Matrix.DataType dataType,
+                          final ByteOrder byteOrder,
+                          final int length)
+      throws IOException
+    {
+      this.dataType = dataType;
+      this.length = length;
+      final int regions = (length + REGION_SIZE - 1) >>> REGION_SHIFT;
+      final int elementSize = dataType == Matrix.DataType.FLOAT64 ? 8 : 4;
+      doubleRegions =
+        dataType == Matrix.DataType.FLOAT64 ? new DoubleBuffer[regions] : null;
+      floatRegions =
+        dataType == Matrix.DataType.FLOAT32 ? new FloatBuffer[regions] : null;
+      for (int region = 0; region < regions; region++) {
+        final long first = (long)region << REGION_SHIFT;
+        final long count = Math.min(REGION_SIZE, length - first);
+        final ByteBuffer buffer =
+          channel.map(FileChannel.MapMode.READ_ONLY,
+                      position + first * elementSize, count * elementSize);
+        buffer.order(byteOrder);
+        if (doubleRegions != null) {
+          doubleRegions[region] = buffer.asDoubleBuffer();
+        } else {
+          floatRegions[region] = buffer.asFloatBuffer();
+        }
+      }
+    }
+
+    Matrix.DataType getDataType()
+    {
+      return dataType;
+    }
+
+    int getLength()
+    {
+      return length;
+    }
+
+    boolean isThreadConfined()
+    {
+      return false;
+    }
+
+    double get(final int index)
+    {
+      if (doubleRegions != null) {
+        return
+          doubleRegions[index >>> REGION_SHIFT].get(index & REGION_MASK);
+      }
+      return floatRegions[index >>> REGION_SHIFT].get(index & REGION_MASK);
+    }
+
+    void set(final int index, final double value)
+    {
+      if (doubleRegions != null) {
+        doubleRegions[index >>> REGION_SHIFT].put(index & REGION_MASK, value);
+      } else {
+        floatRegions[index >>> REGION_SHIFT].put(index & REGION_MASK,
+                                                 (float)value);
+      }
+    }
+
+    void copyTo(final int index, final double[] target, final int targetIndex,
+                final int length)
+    {
+      int done = 0;
+      while (done < length) {
+        final int region = (index + done) >>> REGION_SHIFT;
+        final int regionIndex = (index + done) & REGION_MASK;
+        final int count = Math.min(length - done, REGION_SIZE - regionIndex);
+        if (doubleRegions != null) {
+          doubleRegions[region].get(regionIndex, target,
+                                    targetIndex + done, count);
+        } else {
+          final FloatBuffer floats = floatRegions[region];
+          for (int i = 0; i < count; i++) {
+            target[targetIndex + done + i] = floats.get(regionIndex + i);
+          }
+        }
+        done += count;
+      }
+    }
+
+    void copyFrom(final double[] source, final int sourceIndex,
+                  final int index, final int length)
+    {
+      for (int i = 0; i < length; i++) {
+        set(index + i, source[sourceIndex + i]);
+      }
+    }
+  }
+
+  private NpyFormat()
+  {
+    throw new UnsupportedOperationException("unsupported default constructor");
+  }
+
+  private static void readFully(final FileChannel channel,
+                                final ByteBuffer buffer)
+    throws IOException
+  {
+    while (buffer.hasRemaining()) {
+      if (channel.read(buffer) < 0) {
+        throw new IOException("truncated .npy header");
+      }
+    }
+    buffer.flip();
+  }
+
+  private static String readHeader(final FileChannel channel)
+    throws IOException
+  {
+    final ByteBuffer preamble =
+      ByteBuffer.allocate(MAGIC.length + 2).order(ByteOrder.LITTLE_ENDIAN);
+    readFully(channel, preamble);
+    for (final byte b : MAGIC) {
+      if (preamble.get() != b) {
+        throw new IOException("not a .npy file: bad magic string");
+      }
+    }
+    final int major = preamble.get() & 0xff;
+    final int minor = preamble.get() & 0xff;
+    final int headerLengthSize;
+    if (major == 1) {
+      headerLengthSize = 2;
+    } else if (major == 2) {
+      headerLengthSize = 4;
+    } else {
+      throw new IOException("unsupported .npy format version " +
+                            major + "." + minor);
+    }
+    final ByteBuffer headerLength =
+      ByteBuffer.allocate(headerLengthSize).order(ByteOrder.LITTLE_ENDIAN);
+    readFully(channel, headerLength);
+    final long length =
+      headerLengthSize == 2 ?
+      headerLength.getShort() & 0xffff : headerLength.getInt() & 0xffffffffL;
+    if (length > Integer.MAX_VALUE) {
+      throw new IOException("unsupported .npy header length: " + length);
+    }
+    final ByteBuffer header = ByteBuffer.allocate((int)length);
+    readFully(channel, header);
+    return StandardCharsets.ISO_8859_1.decode(header).toString();
+  }
+
+  private static Matcher match(final Pattern pattern, final String header,
+                               final String key)
+    throws IOException
+  {
+    final Matcher matcher = pattern.matcher(header);
+    if (!matcher.find()) {
+      throw new IOException("missing or unsupported '" + key +
+                            "' in .npy header: " + header.trim());
+    }
+    return matcher;
+  }
+
+  private static int[] parseShape(final String shape)
+    throws IOException
+  {
+    final String[] items = shape.trim().split("\\s*,\\s*");
+    final int dimensions =
+      items[items.length - 1].isEmpty() ? items.length - 1 : items.length;
+    if (dimensions > 2) {
+      throw new IOException("unsupported .npy shape: (" + shape + ")");
+    }
+    final int[] extents = new int[dimensions];
+    long size = 1;
+    for (int dimension = 0; dimension < dimensions; dimension++) {
+      try {
+        extents[dimension] = Integer.parseInt(items[dimension]);
+      } catch (final NumberFormatException e) {
+        throw new IOException("invalid .npy shape: (" + shape + ")");
+      }
+      if (extents[dimension] < 0) {
+        throw new IOException("invalid .npy shape: (" + shape + ")");
+      }
+      size *= extents[dimension];
+    }
+    if (size > Integer.MAX_VALUE) {
+      throw new IOException("too many elements for a matrix: (" +
+                            shape + ")");
+    }
+    return extents;
+  }
+
+  /**
+   * Maps the .npy file at path into memory and returns a read-only
+   * matrix on it.
+   */
+  static Matrix load(final Path path)
+    throws IOException
+  {
+    if (path == null) {
+      throw new NullPointerException("path");
+    }
+    try (final FileChannel channel =
+         FileChannel.open(path, StandardOpenOption.READ)) {
+      final String header = readHeader(channel);
+      final Matcher descr = match(DESCR_PATTERN, header, "descr");
+      final ByteOrder byteOrder =
+        descr.group(1).equals(">") ? ByteOrder.BIG_ENDIAN :
+        descr.group(1).equals("<") ? ByteOrder.LITTLE_ENDIAN :
+        ByteOrder.nativeOrder();
+      final Matrix.DataType dataType =
+        descr.group(2).equals("8") ?
+        Matrix.DataType.FLOAT64 : Matrix.DataType.FLOAT32;
+      final boolean fortranOrder =
+        match(FORTRAN_ORDER_PATTERN, header, "fortran_order").group(1)
+        .equals("True");
+      final int[] shape =
+        parseShape(match(SHAPE_PATTERN, header, "shape").group(1));
+      final int rows = shape.length == 2 ? shape[0] : 1;
+      final int columns = shape.length == 0 ? 1 : shape[shape.length - 1];
+      final int size = rows * columns;
+      final long position = channel.position();
+      final int elementSize = dataType == Matrix.DataType.FLOAT64 ? 8 : 4;
+      final long required = position + (long)size * elementSize;
+      if (channel.size() < required) {
+        throw new IOException("truncated .npy file: " + channel.size() +
+                              " < " + required + " bytes");
+      }
+      final MappedStorage storage =
+        new MappedStorage(channel, position, dataType, byteOrder, size);
+      if (fortranOrder) {
+        // column-major rows×columns is row-major columns×rows
+        return new Matrix(columns, rows, storage).transposeView();
+      }
+      return new Matrix(rows, columns, storage);
+    }
+  }
+
+  private static ByteBuffer createHeader(final Matrix matrix)
+  {
+    final String descr =
+      matrix.getDataType() == Matrix.DataType.FLOAT64 ? "<f8" : "<f4";
+    final StringBuilder dictionary = new StringBuilder();
+    dictionary.append("{'descr': '").append(descr).
+      append("', 'fortran_order': False, 'shape': (").
+      append(matrix.getRows()).append(", ").append(matrix.getColumns()).
+      append("), }");
+    final int unpadded = MAGIC.length + 4 + dictionary.length() + 1;
+    final int padding = -unpadded & (HEADER_ALIGNMENT - 1);
+    for (int i = 0; i < padding; i++) {
+      dictionary.append(' ');
+    }
+    dictionary.append('\n');
+    final ByteBuffer header =
+      ByteBuffer.allocate(MAGIC.length + 4 + dictionary.length());
+    header.order(ByteOrder.LITTLE_ENDIAN);
+    header.put(MAGIC);
+    header.put((byte)1);
+    header.put((byte)0);
+    header.putShort((short)dictionary.length());
+    header.put(dictionary.toString().getBytes(StandardCharsets.ISO_8859_1));
+    header.flip();
+    return header;
+  }
+
+  private static void writeFully(final FileChannel channel,
+                                 final ByteBuffer buffer)
+    throws IOException
+  {
+    buffer.flip();
+    while (buffer.hasRemaining()) {
+      channel.write(buffer);
+    }
+    buffer.clear();
+  }
+
+  /**
+   * Writes the matrix as .npy file to path, replacing any existing
+   * file.  The elements are streamed through a small direct buffer
+   * rather than copied into an array of the whole file size, and in
+   * row-major order regardless of the layout of the matrix, e.g. of
+   * a transposed view.
+   */
+  static void save(final Matrix matrix, final Path path)
+    throws IOException
+  {
+    if (matrix == null) {
+      throw new NullPointerException("matrix");
+    }
+    if (path == null) {
+      throw new NullPointerException("path");
+    }
+    try (final FileChannel channel =
+         FileChannel.open(path, StandardOpenOption.WRITE,
+                          StandardOpenOption.CREATE,
+                          StandardOpenOption.TRUNCATE_EXISTING)) {
+      final ByteBuffer header = createHeader(matrix);
+      while (header.hasRemaining()) {
+        channel.write(header);
+      }
+      final boolean isDouble = matrix.getDataType() == Matrix.DataType.FLOAT64;
+      final int elementSize = isDouble ? 8 : 4;
+      final ByteBuffer buffer =
+        ByteBuffer.allocateDirect(WRITE_BUFFER_SIZE)
+        .order(ByteOrder.LITTLE_ENDIAN);
+      final int chunkSize = WRITE_BUFFER_SIZE / elementSize;
+      final double[] chunk = new double[chunkSize];
+      final int columns = matrix.getColumns();
+      for (int row = 0; row < matrix.getRows(); row++) {
+        for (int column = 0; column < columns; column += chunkSize) {
+          final int length = Math.min(chunkSize, columns - column);
+          if (buffer.remaining() < length * elementSize) {
+            writeFully(channel, buffer);
+          }
+          matrix.loadRow(row, column, chunk, length);
+          if (isDouble) {
+            buffer.asDoubleBuffer().put(chunk, 0, length);
+          } else {
+            final FloatBuffer floats = buffer.asFloatBuffer();
+            for (int i = 0; i < length; i++) {
+              floats.put((float)chunk[i]);
+            }
+          }
+          buffer.position(buffer.position() + length * elementSize);
+        }
+      }
+      writeFully(channel, buffer);
+    }
+  }
+}
+
+/*
+ * Local Variables:
+ *   coding:utf-8
+ *   mode:Java
+ * End:
+ */
@@ -0,0 +1,205 @@
+/*
+ * @(#)OffHeapMatrices.java 1.00 26/10/18
+ *
+ * Copyright (C) 2026 Jürgen Reuter
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.soundpaint.ml.common;
+
+import java.lang.foreign.Arena;
+import java.lang.foreign.MemorySegment;
+import java.lang.foreign.ValueLayout;
+
+/**
+ * Factories for matrices whose elements live outside of the Java
+ * heap, in memory segments allocated from a caller-supplied arena,
+ * such that large data sets do not add to garbage collection work
+ * and are freed deterministically when the arena is closed.
+ * Accessing a matrix after its arena has been closed throws an
+ * IllegalStateException.
+ *
+ * Matrices allocated from a confined arena (Arena.ofConfined()) may
+ * be accessed only by the thread that created the arena; kernels on
+ * them therefore run sequentially in that thread.  Matrices
+ * allocated from a shared arena (Arena.ofShared()) are processed
+ * according to the execution policy, like on-heap matrices.
+ *
+ * Off-heap matrices support the same kernels as on-heap matrices.
+ * Kernels that allocate their result, such as add() or dot(), return
+ * on-heap matrices; pass an off-heap target to the corresponding
+ * <code>…Into()</code> method to keep results off-heap.
+ *
+ * This class uses the foreign memory API, which is final as of JDK
+ * 22; with older JDKs, it is left out of the build.
+ */
+public final class OffHeapMatrices
+{
+  private static class SegmentStorage extends OffHeapStorage
+  {
+    /**
+     * A thread that is never started and hence never owns an arena;
+     * probing a segment's accessibility by this thread tells whether
+     * the segment is confined to its owner thread.
+     */
+    private static final Thread PROBE_THREAD = new Thread(() -> {});
+
+    private final Matrix.DataType dataType;
+    private final MemorySegment segment;
+    private final int length;
+    private final boolean threadConfined;
+
+    private SegmentStorage(final Arena arena,
+                           final Matrix.DataType dataType,
+                           final int length)
+    {
+      final ValueLayout layout =
+        dataType == Matrix.DataType.FLOAT64 ?
+        ValueLayout.JAVA_DOUBLE : ValueLayout.JAVA_FLOAT;
+      this.dataType = dataType;
+      segment = arena.allocate(layout.byteSize() * length,
+                               layout.byteAlignment());
+      this.length = length;
+      threadConfined = !segment.isAccessibleBy(PROBE_THREAD);
+    }
+
+    Matrix.DataType getDataType()
+    {
+      return dataType;
+    }
+
+    int getLength()
+    {
+      return length;
+    }
+
+    boolean isThreadConfined()
+    {
+      return threadConfined;
+    }
+
+    double get(final int index)
+    {
+      if (dataType == Matrix.DataType.FLOAT64) {
+        return segment.getAtIndex(ValueLayout.JAVA_DOUBLE, index);
+      }
+      return segment.getAtIndex(ValueLayout.JAVA_FLOAT, index);
+    }
+
+    void set(final int index, final double value)
+    {
+      if (dataType == Matrix.DataType.FLOAT64) {
+        segment.setAtIndex(ValueLayout.JAVA_DOUBLE, index, value);
+      } else {
+        segment.setAtIndex(ValueLayout.JAVA_FLOAT, index, (float)value);
+      }
+    }
+
+    void copyTo(final int index, final double[] target, final int targetIndex,
+                final int length)
+    {
+      if (dataType == Matrix.DataType.FLOAT64) {
+        MemorySegment.copy(segment, ValueLayout.JAVA_DOUBLE,
+                           index * ValueLayout.JAVA_DOUBLE.byteSize(),
+                           target, targetIndex, length);
+      } else {
+        for (int i = 0; i < length; i++) {
+          target[targetIndex + i] =
+            segment.getAtIndex(ValueLayout.JAVA_FLOAT, index + i);
+        }
+      }
+    }
+
+    void copyFrom(final double[] source, final int sourceIndex,
+                  final int index, final int length)
+    {
+      if (dataType == Matrix.DataType.FLOAT64) {
+        MemorySegment.copy(source, sourceIndex,
+                           segment, ValueLayout.JAVA_DOUBLE,
+                           index * ValueLayout.JAVA_DOUBLE.byteSize(),
+                           length);
+      } else {
+        for (int i = 0; i < length; i++) {
+          segment.setAtIndex(ValueLayout.JAVA_FLOAT, index + i,
+                             (float)source[sourceIndex + i]);
+        }
+      }
+    }
+  }
+
+  private OffHeapMatrices()
+  {
+    throw new UnsupportedOperationException("unsupported default constructor");
+  }
+
+  /**
+   * Creates an off-heap columns×rows FLOAT64 matrix filled with 0
+   * values in memory allocated from the arena.
+   */
+  public static Matrix createZeros(final Arena arena,
+                                   final int columns, final int rows)
+  {
+    return createZeros(arena, columns, rows, Matrix.DataType.FLOAT64);
+  }
+
+  /**
+   * Creates an off-heap columns×rows matrix of the given data type
+   * filled with 0 values in memory allocated from the arena.
+   */
+  public static Matrix createZeros(final Arena arena,
+                                   final int columns, final int rows,
+                                   final Matrix.DataType dataType)
+  {
+    if (arena == null) {
+      throw new NullPointerException("arena");
+    }
+    if (dataType == null) {
+      throw new NullPointerException("dataType");
+    }
+    if ((columns < 0) || (rows < 0)) {
+      throw new IllegalArgumentException("negative shape: " +
+                                         rows + "×" + columns);
+    }
+    final int length;
+    try {
+      length = Math.multiplyExact(rows, columns);
+    } catch (final ArithmeticException e) {
+      throw new IllegalArgumentException("too many elements: " +
+                                         rows + "×" + columns);
+    }
+    return new Matrix(rows, columns,
+                      new SegmentStorage(arena, dataType, length));
+  }
+
+  /**
+   * Returns an off-heap copy of the matrix with the same data type,
+   * in memory allocated from the arena.
+   */
+  public static Matrix copyOf(final Arena arena, final Matrix matrix)
+  {
+    if (matrix == null) {
+      throw new NullPointerException("matrix");
+    }
+    final Matrix copy = createZeros(arena, matrix.getColumns(),
+                                    matrix.getRows(), matrix.getDataType());
+    return matrix.copyInto(copy);
+  }
+}
+
+/*
+ * Local Variables:
+ *   coding:utf-8
+ *   mode:Java
+ * End:
+ */
@@ -0,0 +1,69 @@
+/*
+ * @(#)OffHeapStorage.java 1.00 26/10/18
+ *
+ * Copyright (C) 2026 Jürgen Reuter
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.soundpaint.ml.common;
+
+/**
+ * Element storage of a matrix outside of the Java heap.  Matrix
+ * accesses off-heap elements only through this class, such that it
+ * does not link against the foreign memory API, which is final only
+ * as of JDK 22.  See {@link OffHeapMatrices} for creating off-heap
+ * matrices.
+ *
+ * All indices count elements rather than bytes.
+ */
+abstract class OffHeapStorage
+{
+  abstract Matrix.DataType getDataType();
+
+  /**
+   * Returns the number of elements of this storage.
+   */
+  abstract int getLength();
+
+  /**
+   * Returns true if only the thread that allocated this storage may
+   * access it, such that kernels must not distribute work on it over
+   * other threads.
+   */
+  abstract boolean isThreadConfined();
+
+  abstract double get(int index);
+
+  abstract void set(int index, double value);
+
+  /**
+   * Copies length elements starting at index into the target array.
+   */
+  abstract void copyTo(int index, double[] target, int targetIndex,
+                       int length);
+
+  /**
+   * Copies length elements of the source array into this storage,
+   * starting at index.
+   */
+  abstract void copyFrom(double[] source, int sourceIndex, int index,
+                         int length);
+}
+
+/*
+ * Local Variables:
+ *   coding:utf-8
+ *   mode:Java
+ * End:
+ */
@@ -27,6 +27,19 @@ public abstract class Operation<U, V> extends Node<U, V>
   private List<? extends Node<?, U>> inputNodes;
   private Node<U, V> outputNode;
 
+  /**
+   * Whether the output value may be overwritten by the next run, or
+   * null if not set explicitly.
+   */
+  private Boolean reuseOutputValue;
+  private MatrixPool matrixPool;
+
+  /**
+   * Versions of the input nodes as of the last evaluation, or null
+   * if not yet evaluated.
+   */
+  private long[] inputVersions;
+
   private Operation()
   {
     throw new UnsupportedOperationException("unsupported default constructor");
@@ -44,6 +57,7 @@ public abstract class Operation<U, V> extends Node<U, V>
       inputNode.getOperations().add(this);
     }
     inputValues = new ArrayList<U>();
+    reuseOutputValue = null;
     Graph.getDefaultInstance().add(this);
   }
 
@@ -62,16 +76,156 @@ public abstract class Operation<U, V> extends Node<U, V>
     return outputNode;
   }
 
+  /**
+   * Controls whether this operation may overwrite its previous
+   * output value with the result of the next run, rather than
+   * allocating a new one.  Operations that support this feature do
+   * so only if the shape of the result matches.  Unless set
+   * explicitly, it is enabled only when run by a session with a
+   * matrix pool (see {@link Session#Session(MatrixPool)}), such that
+   * by default, output values returned by a run do not change in
+   * subsequent runs.  Enable it to save allocations if references
+   * to output values are not kept across runs; disable it if they
+   * are, even with a matrix pool.
+   */
+  public void setReuseOutputValue(final boolean reuseOutputValue)
+  {
+    if (!Boolean.valueOf(reuseOutputValue).equals(this.reuseOutputValue)) {
+      this.reuseOutputValue = reuseOutputValue;
+      // plans do not fuse operations whose reuse is disabled
+      Graph.getDefaultInstance().invalidatePlans();
+    }
+  }
+
+  public boolean getReuseOutputValue()
+  {
+    return reuseOutputValue != null ? reuseOutputValue : matrixPool != null;
+  }
+
+  /**
+   * Returns true if reusing the output value has been disabled
+   * explicitly, i.e. references to it may be kept across runs.
+   */
+  boolean isReuseOutputValueDisabled()
+  {
+    return Boolean.FALSE.equals(reuseOutputValue);
+  }
+
+  /**
+   * Returns the previous output value as candidate for being
+   * overwritten by the next result, or null if reusing it is not
+   * allowed.
+   */
+  protected V getReusableOutputValue()
+  {
+    return getReuseOutputValue() ? getOutputValue() : null;
+  }
+
+  /**
+   * Sets the pool that the running session provides for drawing new
+   * output values, or null for none.
+   */
+  void setMatrixPool(final MatrixPool matrixPool)
+  {
+    this.matrixPool = matrixPool;
+  }
+
+  /**
+   * Returns the pool from which to draw a new output value, if the
+   * previous one can not be reused, or null for plain allocation.
+   */
+  protected MatrixPool getMatrixPool()
+  {
+    return matrixPool;
+  }
+
+  /**
+   * Returns true if the output value of this operation depends on
+   * nothing but the output values of its input nodes, such that an
+   * incremental session may skip evaluating it if none of them has
+   * changed.  Operations that draw random numbers, have side effects
+   * or read other state must override this method to return false.
+   */
+  public boolean isPure()
+  {
+    return true;
+  }
+
+  /**
+   * Returns the nodes whose output values this operation modifies in
+   * place as a side effect, such as the variables that an optimizer
+   * updates; none by default.  A session evaluates this operation
+   * only after all other nodes of the same run that depend on any of
+   * these nodes, except for nodes that depend on this operation; see
+   * {@link Session#run(List, FeedDictionary)}.  Operations that
+   * modify nodes must not be pure.
+   */
+  public List<? extends Node<?, ?>> getModifiedNodes()
+  {
+    return List.of();
+  }
+
   abstract public V performOperation();
 
+  /**
+   * Creates a node that computes the gradient of some scalar loss
+   * with respect to the input node at the given index, given a node
+   * that computes the gradient with respect to the output value of
+   * this operation; see {@link Gradients#gradients(Node, List)}.
+   * The created node reads the values of this operation and of its
+   * input nodes as computed by the forward pass, rather than
+   * computing them again.  Returns null if the output value does not
+   * depend differentiably on that input.
+   *
+   * @exception UnsupportedOperationException If this operation does
+   * not support differentiation.
+   */
+  public Node<?, U> createGradient(final int index,
+                                   final Node<?, V> outputGradient)
+  {
+    throw new UnsupportedOperationException("no gradient defined for " +
+                                            getId());
+  }
+
   @Override
   public void update(final FeedDictionary feedDictionary)
   {
     inputValues.clear();
+    final long[] versions = new long[inputNodes.size()];
+    int index = 0;
     for (final Node<?, U> inputNode : inputNodes) {
       inputValues.add(inputNode.getOutputValue());
+      versions[index++] = inputNode.getVersion();
     }
     setOutputValue(performOperation());
+    inputVersions = versions;
+    incrementVersion();
+  }
+
+  /**
+   * Returns true if this operation has been evaluated before and none
+   * of its input nodes has changed since then.
+   */
+  private boolean isUpToDate()
+  {
+    if ((inputVersions == null) || (getOutputValue() == null) || !isPure()) {
+      return false;
+    }
+    int index = 0;
+    for (final Node<?, U> inputNode : inputNodes) {
+      if (inputNode.getVersion() != inputVersions[index++]) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  @Override
+  void updateIncrementally(final FeedDictionary feedDictionary)
+  {
+    if (!isUpToDate()) {
+      update(feedDictionary);
+    }
   }
 
   private String inputNodesToString()
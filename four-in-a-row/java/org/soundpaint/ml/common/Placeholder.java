@@ -24,6 +24,13 @@ public class Placeholder<T> extends Node<T, T>
 {
   private int batchSize;
 
+  /**
+   * The variable fed as of the last update and its version, for
+   * telling whether the output value has changed.
+   */
+  private Variable<T> fed;
+  private long fedVersion;
+
   public Placeholder()
   {
     this(1);
@@ -44,10 +51,22 @@ public class Placeholder<T> extends Node<T, T>
     return batchSize;
   }
 
+  /**
+   * Outputs the value of the variable that the feed dictionary
+   * provides for this placeholder.  The version of this placeholder
+   * changes only if a different variable is fed or the fed variable
+   * has changed; see {@link Variable#markChanged()}.
+   */
   @Override
   public void update(final FeedDictionary feedDictionary)
   {
-    setOutputValue(feedDictionary.get(this).getValue());
+    final Variable<T> variable = feedDictionary.get(this);
+    setOutputValue(variable.getValue());
+    if ((variable != fed) || (variable.getVersion() != fedVersion)) {
+      fed = variable;
+      fedVersion = variable.getVersion();
+      incrementVersion();
+    }
   }
 }
 
@@ -20,9 +20,12 @@ package org.soundpaint.ml.common;
 
 import java.awt.Color;
 import java.awt.geom.Point2D;
+import java.util.ArrayList;
 import java.util.Iterator;
 import java.util.List;
+import java.util.PrimitiveIterator;
 import java.util.function.BiFunction;
+import java.util.stream.DoubleStream;
 import java.util.stream.StreamSupport;
 import javax.swing.JOptionPane;
 
@@ -85,7 +88,24 @@ public class Plot
                    final Mode mode,
                    final Color color)
   {
-    plot(x.getOutputValue(), y.getOutputValue(), mode, color);
+    plot(x.getOutputValue().doubleStream(), y.getOutputValue().doubleStream(),
+         mode, color);
+  }
+
+  public void plot(final DoubleStream x,
+                   final DoubleStream y,
+                   final Mode mode,
+                   final Color color)
+  {
+    final PrimitiveIterator.OfDouble xIterator = x.iterator();
+    final PrimitiveIterator.OfDouble yIterator = y.iterator();
+    final List<Point2D> points = new ArrayList<Point2D>();
+    while (xIterator.hasNext() && yIterator.hasNext()) {
+      points.add(new Point2D.Double(xIterator.nextDouble(),
+                                    yIterator.nextDouble()));
+    }
+    plotPane.addPoints(points, mode,
+                       color != null ? color : nextAutoColor(), null);
   }
 
   public void plot(final Iterable<Double> x,
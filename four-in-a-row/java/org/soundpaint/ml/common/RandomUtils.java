@@ -18,20 +18,209 @@
  */
 package org.soundpaint.ml.common;
 
-import java.util.HashMap;
+import java.util.Arrays;
+import java.util.HashSet;
 import java.util.Random;
 import java.util.Set;
+import java.util.SplittableRandom;
+import java.util.random.RandomGenerator;
 
+/**
+ * Random number generation for sampling.  All generators derive from
+ * a single root SplittableRandom, which {@link #setSeed(long)}
+ * reseeds.  Rather than sharing one generator, whose state would be
+ * contended by concurrent threads, each thread draws from its own
+ * generator ({@link #getGenerator()}), and each parallel task, such
+ * as filling a block of a random matrix, from a generator split off
+ * for that task ({@link #split(int)}).
+ *
+ * After setting the seed, the results of splitting, and hence of the
+ * random matrix factories, are reproducible as long as the calls
+ * occur in the same order, independently of the number of threads.
+ * Samples drawn via per-thread generators, e.g. by {@link
+ * BasicSampleFunction#RANDOM_UNIFORM}, are reproducible only if the
+ * same threads draw in the same order.
+ */
 public class RandomUtils
 {
+  /**
+   * Bound in units of the standard deviation beyond which truncated
+   * normal samples are redrawn.
+   */
+  public static final double TRUNCATION_BOUND = 2.0;
+
+  /**
+   * Selections of more than a 1/FISHER_YATES_RATIO fraction of the
+   * range are taken by shuffling the whole range.
+   */
+  private static final int FISHER_YATES_RATIO = 4;
+
   private static final Random RANDOM_INSTANCE = new Random();
 
+  private static SplittableRandom root = new SplittableRandom();
+
+  /**
+   * Incremented upon reseeding, such that per-thread generators
+   * derived from a previous root are replaced.
+   */
+  private static volatile long generation;
+
+  private static class ThreadState
+  {
+    private final long generation;
+    private final SplittableRandom random;
+
+    private ThreadState(final long generation, final SplittableRandom random)
+    {
+      this.generation = generation;
+      this.random = random;
+    }
+  }
+
+  private static final ThreadLocal<ThreadState> threadState =
+    new ThreadLocal<ThreadState>();
+
   /**
-   * Return singleton instance of java.util.Random object
-   * to ensure global uniform distribution.
+   * Return singleton instance of java.util.Random object.  This
+   * instance is independent of the generators of this class, which
+   * the sample functions and random matrix factories use, and is
+   * contended when used from multiple threads.
    */
   public static Random getRandom() { return RANDOM_INSTANCE; }
 
+  /**
+   * Reseeds the root generator from which all generators of this
+   * class derive.
+   */
+  public static synchronized void setSeed(final long seed)
+  {
+    root = new SplittableRandom(seed);
+    generation++;
+  }
+
+  /**
+   * Returns a new generator split off the root generator, for
+   * exclusive use by a single task.
+   */
+  public static synchronized SplittableRandom split()
+  {
+    return root.split();
+  }
+
+  /**
+   * Returns count new generators for count tasks, all split off a
+   * single generator that is split off the root generator, such that
+   * the generator for each task depends only on the seed, the
+   * preceding calls, and the index of the task.
+   */
+  public static SplittableRandom[] split(final int count)
+  {
+    if (count < 0) {
+      throw new IllegalArgumentException("count < 0: " + count);
+    }
+    final SplittableRandom parent = split();
+    final SplittableRandom[] generators = new SplittableRandom[count];
+    for (int index = 0; index < count; index++) {
+      generators[index] = parent.split();
+    }
+    return generators;
+  }
+
+  private static ThreadState getThreadState()
+  {
+    final ThreadState state = threadState.get();
+    if ((state != null) && (state.generation == generation)) {
+      return state;
+    }
+    final ThreadState newState;
+    synchronized (RandomUtils.class) {
+      newState = new ThreadState(generation, root.split());
+    }
+    threadState.set(newState);
+    return newState;
+  }
+
+  /**
+   * Returns the generator of the calling thread, which must not be
+   * passed on to other threads.
+   */
+  public static RandomGenerator getGenerator()
+  {
+    return getThreadState().random;
+  }
+
+  /**
+   * Returns a sample of the standard normal distribution drawn from
+   * the generator of the calling thread.
+   */
+  public static double nextNormal()
+  {
+    return ZigguratNormal.next(getGenerator());
+  }
+
+  /**
+   * Returns a sample of the standard normal distribution truncated
+   * to [-TRUNCATION_BOUND, TRUNCATION_BOUND], drawn from the
+   * generator of the calling thread.
+   */
+  public static double nextTruncatedNormal()
+  {
+    return nextTruncatedNormal(getGenerator());
+  }
+
+  private static double nextTruncatedNormal(final RandomGenerator random)
+  {
+    while (true) {
+      final double value = ZigguratNormal.next(random);
+      if (Math.abs(value) <= TRUNCATION_BOUND) {
+        return value;
+      }
+    }
+  }
+
+  /**
+   * Fills the elements fromIndex (inclusive) to toIndex (exclusive)
+   * of values with samples of the uniform distribution over [0, 1).
+   */
+  public static void fillUniform(final RandomGenerator random,
+                                 final double[] values,
+                                 final int fromIndex, final int toIndex)
+  {
+    for (int index = fromIndex; index < toIndex; index++) {
+      values[index] = random.nextDouble();
+    }
+  }
+
+  /**
+   * Fills the elements fromIndex (inclusive) to toIndex (exclusive)
+   * of values with samples of the standard normal distribution,
+   * using the table-based Ziggurat method, which mostly avoids
+   * transcendental functions.
+   */
+  public static void fillNormal(final RandomGenerator random,
+                                final double[] values,
+                                final int fromIndex, final int toIndex)
+  {
+    ZigguratNormal.fill(random, values, fromIndex, toIndex);
+  }
+
+  /**
+   * Fills the elements fromIndex (inclusive) to toIndex (exclusive)
+   * of values with samples of the standard normal distribution
+   * truncated to [-TRUNCATION_BOUND, TRUNCATION_BOUND], by redrawing
+   * samples beyond the bound.  Used for initializing weights without
+   * the occasional outliers of the normal distribution.
+   */
+  public static void fillTruncatedNormal(final RandomGenerator random,
+                                         final double[] values,
+                                         final int fromIndex,
+                                         final int toIndex)
+  {
+    for (int index = fromIndex; index < toIndex; index++) {
+      values[index] = nextTruncatedNormal(random);
+    }
+  }
+
   /**
    * Select a set of #<code>count</code> integers with uniform
    * distribution from the range between 0 (inclusive) and
@@ -40,19 +229,119 @@ public class RandomUtils
    */
   public static Set<Integer> createSelection(final int bound, final int count)
   {
+    final int[] selection = select(bound, count);
+    final HashSet<Integer> selected = new HashSet<Integer>(2 * count);
+    for (final int value : selection) {
+      selected.add(value);
+    }
+    return selected;
+  }
+
+  /**
+   * Like {@link #select(RandomGenerator, int, int)}, drawing from the
+   * generator of the calling thread.
+   */
+  public static int[] select(final int bound, final int count)
+  {
+    return select(getGenerator(), bound, count);
+  }
+
+  /**
+   * Selects <code>count</code> distinct integers with uniform
+   * distribution from the range between 0 (inclusive) and
+   * <code>bound</code> (exclusive), in uniformly random order.
+   *
+   * If the selection covers a major part of the range, it is taken
+   * by a partial Fisher-Yates shuffle of the whole range; otherwise,
+   * Floyd's algorithm draws exactly count random numbers, and needs
+   * memory proportional to count rather than to bound.
+   */
+  public static int[] select(final RandomGenerator random,
+                             final int bound, final int count)
+  {
+    if (random == null) {
+      throw new NullPointerException("random");
+    }
+    if (count < 0) {
+      throw new IllegalArgumentException("count < 0: " + count);
+    }
     if (count > bound) {
       throw new IllegalArgumentException("count may not be greater than bound");
     }
-    final Random random = getRandom();
-    final HashMap<Integer, Integer> selected = new HashMap<Integer, Integer>();
-    for (int select = 0; select < count; select++) {
-      int value = random.nextInt(bound - select);
-      while (selected.containsKey(value)) {
-        value = selected.get(value);
+    if ((long)count * FISHER_YATES_RATIO >= bound) {
+      final int[] values = new int[bound];
+      for (int index = 0; index < bound; index++) {
+        values[index] = index;
       }
-      selected.put(value, bound - select - 1);
+      shuffle(random, values, 0, bound, count);
+      return count == bound ? values : Arrays.copyOf(values, count);
+    }
+    final int[] selection = new int[count];
+    final int[] set = new int[Integer.highestOneBit(2 * count - 1) << 1];
+    Arrays.fill(set, -1);
+    int selected = 0;
+    for (int candidate = bound - count; candidate < bound; candidate++) {
+      final int value = random.nextInt(candidate + 1);
+      if (addToSet(set, value)) {
+        selection[selected++] = value;
+      } else {
+        // value taken already, but candidate is new in this iteration
+        addToSet(set, candidate);
+        selection[selected++] = candidate;
+      }
+    }
+    // Floyd's algorithm yields a uniform set, but not in uniform order
+    shuffle(random, selection, 0, count, count);
+    return selection;
+  }
+
+  /**
+   * Adds the non-negative value to the open-addressing hash set.
+   *
+   * @return False if the value was contained in the set already.
+   */
+  private static boolean addToSet(final int[] set, final int value)
+  {
+    final int mask = set.length - 1;
+    int slot = (value * 0x9e3779b9) >>> Integer.numberOfLeadingZeros(mask);
+    while (set[slot] >= 0) {
+      if (set[slot] == value) {
+        return false;
+      }
+      slot = (slot + 1) & mask;
+    }
+    set[slot] = value;
+    return true;
+  }
+
+  /**
+   * Shuffles values fromIndex (inclusive) to toIndex (exclusive) in
+   * place, with uniform distribution over all permutations.
+   */
+  public static void shuffle(final RandomGenerator random,
+                             final int[] values,
+                             final int fromIndex, final int toIndex)
+  {
+    shuffle(random, values, fromIndex, toIndex, toIndex - fromIndex);
+  }
+
+  /**
+   * Partial Fisher-Yates shuffle that places a uniformly random
+   * selection of count of the values fromIndex (inclusive) to
+   * toIndex (exclusive) in uniformly random order at fromIndex.
+   */
+  private static void shuffle(final RandomGenerator random,
+                              final int[] values,
+                              final int fromIndex, final int toIndex,
+                              final int count)
+  {
+    final int last = Math.min(fromIndex + count, toIndex - 1);
+    for (int index = fromIndex; index < last; index++) {
+      final int other = index + random.nextInt(toIndex - index);
+      final int value = values[other];
+      values[other] = values[index];
+      values[index] = value;
     }
-    return selected.keySet();
   }
 }
 
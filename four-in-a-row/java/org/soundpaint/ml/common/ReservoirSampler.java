@@ -0,0 +1,130 @@
+/*
+ * @(#)ReservoirSampler.java 1.00 26/10/18
+ *
+ * Copyright (C) 2026 Jürgen Reuter
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.soundpaint.ml.common;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.function.Consumer;
+
+/**
+ * Uniform random sample of a fixed number of items from a stream of
+ * unknown length, e.g. <code>stream.forEach(sampler)</code>.  Uses
+ * Li's Algorithm L ("Reservoir-Sampling Algorithms of Time Complexity
+ * O(n(1 + log(N/n)))", 1994), which computes how many items to skip
+ * until the next one enters the reservoir, such that the number of
+ * random numbers drawn grows only logarithmically with the length of
+ * the stream.
+ *
+ * Instances are not thread-safe.  Each instance draws from its own
+ * generator, split off {@link RandomUtils} upon construction.
+ */
+public class ReservoirSampler<T> implements Consumer<T>
+{
+  private final int capacity;
+  private final ArrayList<T> reservoir;
+  private final SplittableRandom random;
+  private long count;
+
+  /**
+   * Index of the next item that will enter the reservoir, once it
+   * is full.
+   */
+  private long nextIndex;
+
+  private double w;
+
+  private ReservoirSampler()
+  {
+    throw new UnsupportedOperationException("unsupported default constructor");
+  }
+
+  public ReservoirSampler(final int capacity)
+  {
+    if (capacity < 0) {
+      throw new IllegalArgumentException("capacity < 0: " + capacity);
+    }
+    this.capacity = capacity;
+    reservoir = new ArrayList<T>(capacity);
+    random = RandomUtils.split();
+    count = 0;
+  }
+
+  public int getCapacity()
+  {
+    return capacity;
+  }
+
+  /**
+   * Returns the number of items offered so far.
+   */
+  public long getCount()
+  {
+    return count;
+  }
+
+  /**
+   * Returns a uniform sample in (0, 1].
+   */
+  private double nextUniform()
+  {
+    return 1.0 - random.nextDouble();
+  }
+
+  private void updateSkip()
+  {
+    w *= Math.exp(Math.log(nextUniform()) / capacity);
+    final double skip = Math.floor(Math.log(nextUniform()) / Math.log1p(-w));
+    nextIndex += skip < Long.MAX_VALUE - nextIndex ?
+      (long)skip + 1 : Long.MAX_VALUE - nextIndex;
+  }
+
+  public void accept(final T item)
+  {
+    if (count < capacity) {
+      reservoir.add(item);
+      if (count + 1 == capacity) {
+        w = 1.0;
+        nextIndex = count;
+        updateSkip();
+      }
+    } else if ((capacity > 0) && (count == nextIndex)) {
+      reservoir.set(random.nextInt(capacity), item);
+      updateSkip();
+    }
+    count++;
+  }
+
+  /**
+   * Returns a copy of the current sample, which holds all items
+   * offered so far if there were at most capacity of them.  The order
+   * of the items is unspecified.
+   */
+  public List<T> getSample()
+  {
+    return new ArrayList<T>(reservoir);
+  }
+}
+
+/*
+ * Local Variables:
+ *   coding:utf-8
+ *   mode:Java
+ * End:
+ */
@@ -23,6 +23,29 @@ import java.util.function.Function;
 
 public interface SampleFunction extends Function<Void, Double>
 {
+  /**
+   * Returns true if this function may be called concurrently from
+   * multiple threads, and the sequence of samples does not matter,
+   * such that matrix kernels may distribute sampling over threads.
+   */
+  default boolean isThreadSafe()
+  {
+    return false;
+  }
+
+  /**
+   * Fills the elements fromIndex (inclusive) to toIndex (exclusive)
+   * of values with samples.  Matrix kernels sample via this method,
+   * which functions should override for drawing samples in bulk
+   * rather than boxing each sample as Double.
+   */
+  default void fill(final double[] values,
+                    final int fromIndex, final int toIndex)
+  {
+    for (int index = fromIndex; index < toIndex; index++) {
+      values[index] = apply(null);
+    }
+  }
 }
 
 /*
@@ -0,0 +1,59 @@
+/*
+ * @(#)SequentialExecutionPolicy.java 1.00 26/10/18
+ *
+ * Copyright (C) 2026 Jürgen Reuter
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.soundpaint.ml.common;
+
+/**
+ * Runs all rows as a single block in the calling thread.
+ */
+public class SequentialExecutionPolicy implements ExecutionPolicy
+{
+  private static final SequentialExecutionPolicy defaultInstance =
+    new SequentialExecutionPolicy();
+
+  public static SequentialExecutionPolicy getDefaultInstance()
+  {
+    return defaultInstance;
+  }
+
+  private SequentialExecutionPolicy()
+  {
+  }
+
+  public void forEachRowBlock(final int rows, final long costPerRow,
+                              final RowBlockTask task)
+  {
+    if (rows > 0) {
+      task.run(0, rows);
+    }
+  }
+
+  public String toString()
+  {
+    return
+      "sequential execution policy(kernels=" +
+      ArrayKernels.getInstance().getId() + ")";
+  }
+}
+
+/*
+ * Local Variables:
+ *   coding:utf-8
+ *   mode:Java
+ * End:
+ */
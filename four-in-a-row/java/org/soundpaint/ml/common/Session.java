@@ -18,33 +18,663 @@
  */
 package org.soundpaint.ml.common;
 
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.Predicate;
 import java.util.stream.Collectors;
 
 public class Session
 {
+  /**
+   * Execution plan for a list of target nodes: all nodes that the
+   * targets depend on, each once, in topological order, together
+   * with the bookkeeping for releasing intermediate results.  Nodes
+   * fused into the root of a {@link Fusion} are evaluated by the
+   * fusion and are not part of the plan.  Operations that modify
+   * nodes in place (see {@link Operation#getModifiedNodes()}) are
+   * ordered after all other nodes of the plan that depend on these
+   * nodes, except for nodes that depend on the operation itself.
+   */
+  private static class Plan
+  {
+    private final List<Node<?, ?>> targetNodes;
+    private final Map<Node<?, ?>, Fusion> fusions;
+    private final List<Node<?, ?>> nodes;
+    private final Map<Node<?, ?>, Integer> positions;
+    private final Map<Node<?, ?>, Integer> lastUses;
+
+    /**
+     * Positions of the distinct nodes that the node at each position
+     * waits for, i.e. its input nodes and, if it modifies nodes in
+     * place, the nodes that it is ordered after.
+     */
+    private final int[][] inputs;
+
+    /**
+     * Positions of the distinct nodes that wait for the node at each
+     * position.
+     */
+    private final int[][] consumers;
+
+    private Plan(final List<Node<?, ?>> targetNodes,
+                 final boolean operatorFusion)
+    {
+      this.targetNodes = targetNodes;
+      final List<Node<?, ?>> nodesPostOrder =
+        Node.traversePostOrder(targetNodes);
+      fusions =
+        operatorFusion ?
+        Fusion.fuse(nodesPostOrder, targetNodes) :
+        new IdentityHashMap<Node<?, ?>, Fusion>();
+      final Map<Node<?, ?>, Boolean> fused =
+        new IdentityHashMap<Node<?, ?>, Boolean>();
+      for (final Fusion fusion : fusions.values()) {
+        for (final Operation<?, ?> member : fusion.getMembers()) {
+          fused.put(member, !fusions.containsKey(member));
+        }
+      }
+      final List<Node<?, ?>> unorderedNodes =
+        nodesPostOrder.stream().
+        filter(node -> !fused.getOrDefault(node, false)).
+        collect(Collectors.toList());
+      final Map<Node<?, ?>, List<Node<?, ?>>> predecessors =
+        new IdentityHashMap<Node<?, ?>, List<Node<?, ?>>>();
+      for (final Node<?, ?> node : unorderedNodes) {
+        predecessors.put(node,
+                         new ArrayList<Node<?, ?>>(getInputNodes(node)));
+      }
+      nodes =
+        orderSideEffects(unorderedNodes, predecessors) ?
+        order(unorderedNodes, predecessors) : unorderedNodes;
+      positions = new IdentityHashMap<Node<?, ?>, Integer>();
+      lastUses = new IdentityHashMap<Node<?, ?>, Integer>();
+      findLastUses();
+      inputs = new int[nodes.size()][];
+      final int[] consumerCounts = new int[nodes.size()];
+      for (int position = 0; position < nodes.size(); position++) {
+        inputs[position] =
+          predecessors.get(nodes.get(position)).stream().
+          mapToInt(positions::get).distinct().toArray();
+        for (final int input : inputs[position]) {
+          consumerCounts[input]++;
+        }
+      }
+      consumers = new int[nodes.size()][];
+      for (int position = 0; position < nodes.size(); position++) {
+        consumers[position] = new int[consumerCounts[position]];
+        consumerCounts[position] = 0;
+      }
+      for (int position = 0; position < nodes.size(); position++) {
+        for (final int input : inputs[position]) {
+          consumers[input][consumerCounts[input]++] = position;
+        }
+      }
+    }
+
+    /**
+     * Returns the nodes whose output values the node reads when
+     * evaluated as part of this plan, i.e. the input nodes of the
+     * whole fusion, if the node is the root of a fusion.
+     */
+    private List<? extends Node<?, ?>> getInputNodes(final Node<?, ?> node)
+    {
+      final Fusion fusion = fusions.get(node);
+      if (fusion != null) {
+        return fusion.getInputNodes();
+      }
+      if (node instanceof Operation) {
+        return ((Operation<?, ?>)node).getInputNodes();
+      }
+      return List.of();
+    }
+
+    private static Set<Node<?, ?>> createIdentitySet()
+    {
+      return
+        Collections.newSetFromMap(new IdentityHashMap<Node<?, ?>, Boolean>());
+    }
+
+    private static boolean modifiesAny(final Node<?, ?> node,
+                                       final Set<Node<?, ?>> modifiedNodes)
+    {
+      return
+        (node instanceof Operation) &&
+        ((Operation<?, ?>)node).getModifiedNodes().stream().
+        anyMatch(modifiedNodes::contains);
+    }
+
+    private boolean hasInput(final Node<?, ?> node,
+                             final Set<Node<?, ?>> candidates)
+    {
+      return getInputNodes(node).stream().anyMatch(candidates::contains);
+    }
+
+    /**
+     * Adds to the predecessors of each operation that modifies nodes
+     * in place all other nodes that depend on these nodes, except for
+     * nodes that depend on the operation itself and nodes that modify
+     * any of these nodes as well.  The nodes are given in topological
+     * order of their input nodes.  Returns true if any predecessor
+     * has been added.
+     */
+    private boolean orderSideEffects(final List<Node<?, ?>> nodes,
+                                     final Map<Node<?, ?>,
+                                     List<Node<?, ?>>> predecessors)
+    {
+      boolean added = false;
+      for (final Node<?, ?> node : nodes) {
+        if (!(node instanceof Operation) ||
+            ((Operation<?, ?>)node).getModifiedNodes().isEmpty()) {
+          continue;
+        }
+        final Set<Node<?, ?>> modifiedNodes = createIdentitySet();
+        modifiedNodes.addAll(((Operation<?, ?>)node).getModifiedNodes());
+        final Set<Node<?, ?>> dependents = createIdentitySet();
+        final Set<Node<?, ?>> successors = createIdentitySet();
+        successors.add(node);
+        for (final Node<?, ?> other : nodes) {
+          if (modifiedNodes.contains(other) || hasInput(other, dependents)) {
+            dependents.add(other);
+          }
+          if (hasInput(other, successors)) {
+            successors.add(other);
+          }
+        }
+        for (final Node<?, ?> other : nodes) {
+          if (dependents.contains(other) && !successors.contains(other) &&
+              !modifiesAny(other, modifiedNodes)) {
+            predecessors.get(node).add(other);
+            added = true;
+          }
+        }
+      }
+      return added;
+    }
+
+    /**
+     * Returns the nodes sorted such that each node follows its
+     * predecessors, keeping the given order where possible.
+     *
+     * @exception IllegalArgumentException If the predecessors are
+     * cyclic, i.e. operations that modify nodes in place depend on
+     * each other's modified nodes.
+     */
+    private static List<Node<?, ?>>
+      order(final List<Node<?, ?>> nodes,
+            final Map<Node<?, ?>, List<Node<?, ?>>> predecessors)
+    {
+      final List<Node<?, ?>> ordered = new ArrayList<Node<?, ?>>();
+      final Map<Node<?, ?>, Boolean> done =
+        new IdentityHashMap<Node<?, ?>, Boolean>();
+      for (final Node<?, ?> node : nodes) {
+        visit(node, predecessors, done, ordered);
+      }
+      return ordered;
+    }
+
+    private static void visit(final Node<?, ?> node,
+                              final Map<Node<?, ?>,
+                              List<Node<?, ?>>> predecessors,
+                              final Map<Node<?, ?>, Boolean> done,
+                              final List<Node<?, ?>> ordered)
+    {
+      final Boolean nodeDone = done.get(node);
+      if (nodeDone != null) {
+        if (!nodeDone) {
+          throw new IllegalArgumentException("cyclic side effects at " +
+                                             node.getId());
+        }
+        return;
+      }
+      done.put(node, false);
+      for (final Node<?, ?> predecessor : predecessors.get(node)) {
+        visit(predecessor, predecessors, done, ordered);
+      }
+      done.put(node, true);
+      ordered.add(node);
+    }
+
+    /**
+     * For each node of the plan, records the position of its last
+     * evaluation and of the last evaluation of any of its consumers.
+     */
+    private void findLastUses()
+    {
+      for (int position = 0; position < nodes.size(); position++) {
+        final Node<?, ?> node = nodes.get(position);
+        positions.put(node, position);
+        for (final Node<?, ?> inputNode : getInputNodes(node)) {
+          lastUses.put(inputNode, position);
+        }
+      }
+    }
+  }
+
+  /**
+   * Evaluates a plan by running each node as a task on the common
+   * fork-join pool as soon as all of its input nodes have been
+   * evaluated, with at most interOpParallelism tasks at a time.  All
+   * bookkeeping is done while holding the lock of the scheduler.
+   */
+  private class Scheduler
+  {
+    private final Plan plan;
+    private final FeedDictionary feedDictionary;
+    private final int parallelism;
+
+    /**
+     * Number of input nodes not yet evaluated, for each position.
+     */
+    private final int[] pendingInputs;
+
+    /**
+     * Number of consumers not yet evaluated, for each position.
+     */
+    private final int[] pendingConsumers;
+
+    private final boolean[] evaluated;
+    private final ArrayDeque<Integer> ready;
+    private int running;
+    private int completed;
+    private Throwable failure;
+
+    private Scheduler(final Plan plan, final FeedDictionary feedDictionary)
+    {
+      this.plan = plan;
+      this.feedDictionary = feedDictionary;
+      parallelism = interOpParallelism;
+      final int size = plan.nodes.size();
+      pendingInputs = new int[size];
+      pendingConsumers = new int[size];
+      evaluated = new boolean[size];
+      ready = new ArrayDeque<Integer>();
+      for (int position = 0; position < size; position++) {
+        pendingInputs[position] = plan.inputs[position].length;
+        pendingConsumers[position] = plan.consumers[position].length;
+        if (pendingInputs[position] == 0) {
+          ready.add(position);
+        }
+      }
+      running = 0;
+      completed = 0;
+      failure = null;
+    }
+
+    private synchronized void run()
+    {
+      dispatch();
+      boolean interrupted = false;
+      while ((running > 0) ||
+             ((completed < plan.nodes.size()) && (failure == null))) {
+        try {
+          wait();
+        } catch (final InterruptedException e) {
+          // nodes must not be left half-evaluated => finish the run
+          interrupted = true;
+        }
+      }
+      if (interrupted) {
+        Thread.currentThread().interrupt();
+      }
+      if (failure instanceof RuntimeException) {
+        throw (RuntimeException)failure;
+      }
+      if (failure instanceof Error) {
+        throw (Error)failure;
+      }
+    }
+
+    private void dispatch()
+    {
+      while ((running < parallelism) && !ready.isEmpty() &&
+             (failure == null)) {
+        final int position = ready.poll();
+        running++;
+        ForkJoinPool.commonPool().execute(() -> evaluate(position));
+      }
+    }
+
+    private void evaluate(final int position)
+    {
+      final Node<?, ?> node = plan.nodes.get(position);
+      Throwable thrown = null;
+      try {
+        update(plan, node, feedDictionary);
+      } catch (final Throwable t) {
+        thrown = t;
+      }
+      synchronized (this) {
+        running--;
+        if (thrown != null) {
+          if (failure == null) {
+            failure = thrown;
+          }
+        } else {
+          evaluated[position] = true;
+          completed++;
+          for (final int consumer : plan.consumers[position]) {
+            if (--pendingInputs[consumer] == 0) {
+              ready.add(consumer);
+            }
+          }
+          if ((matrixPool != null) && !incremental) {
+            for (final int input : plan.inputs[position]) {
+              if (--pendingConsumers[input] == 0) {
+                releaseIfDead(plan, plan.nodes.get(input), this::isDead);
+              }
+            }
+          }
+          dispatch();
+        }
+        notifyAll();
+      }
+    }
+
+    /**
+     * Returns true if the node has been evaluated in this run and so
+     * have all of its consumers.
+     */
+    private boolean isDead(final Node<?, ?> node)
+    {
+      final int position = plan.positions.get(node);
+      return
+        (node instanceof Operation) &&
+        ((Operation<?, ?>)node).getReuseOutputValue() &&
+        !plan.targetNodes.contains(node) &&
+        evaluated[position] && (pendingConsumers[position] == 0);
+    }
+  }
+
+  private final MatrixPool matrixPool;
+  private final Map<List<Node<?, ?>>, Plan> plans;
+  private long graphVersion;
+  private int interOpParallelism;
+  private boolean incremental;
+  private boolean operatorFusion;
+
+  /**
+   * Creates a session that keeps the output values of all nodes
+   * after each run.
+   */
+  public Session()
+  {
+    this(null);
+  }
+
+  /**
+   * Creates a session whose matrix operations draw new output values
+   * from the pool, if not null.  During a run, as soon as all
+   * consumers of an intermediate output value have been evaluated,
+   * the value is returned into the pool and the output value of the
+   * node is reset to null, such that subsequent operations of the
+   * same run as well as subsequent runs recycle its storage.  Output
+   * values of target nodes and of operations that do not reuse their
+   * output value (see {@link Operation#setReuseOutputValue(boolean)})
+   * are kept.  Unless disabled per operation, operations also reuse
+   * their output values when run by such a session, i.e. output
+   * values, including those of target nodes, may be overwritten by
+   * subsequent runs.
+   */
+  public Session(final MatrixPool matrixPool)
+  {
+    this.matrixPool = matrixPool;
+    plans = new HashMap<List<Node<?, ?>>, Plan>();
+    graphVersion = Graph.getDefaultInstance().getVersion();
+    interOpParallelism = 1;
+    incremental = false;
+    operatorFusion = true;
+  }
+
+  public MatrixPool getMatrixPool()
+  {
+    return matrixPool;
+  }
+
+  /**
+   * Sets the maximum number of nodes that a run evaluates
+   * concurrently.  With the default of 1, nodes are evaluated one
+   * after another in the calling thread.  Otherwise, each node is
+   * evaluated as a task of the common fork-join pool as soon as its
+   * input nodes have been evaluated, such that independent branches
+   * of the graph run in parallel, in addition to the parallelism
+   * within matrix kernels.  Results are the same as with sequential
+   * evaluation, except for operations that draw random samples from
+   * per-thread generators.  Operations must not read nodes other
+   * than their input nodes nor modify nodes other than those that
+   * they declare (see {@link Operation#getModifiedNodes()}), and the
+   * graph must not be modified during a run.
+   */
+  public void setInterOpParallelism(final int interOpParallelism)
+  {
+    if (interOpParallelism < 1) {
+      throw new IllegalArgumentException("inter-op parallelism < 1: " +
+                                         interOpParallelism);
+    }
+    this.interOpParallelism = interOpParallelism;
+  }
+
+  public int getInterOpParallelism()
+  {
+    return interOpParallelism;
+  }
+
+  /**
+   * Enables or disables incremental evaluation, which is disabled by
+   * default.  An incremental run evaluates only operations that are
+   * not pure (see {@link Operation#isPure()}) or whose input nodes
+   * have changed since their last evaluation, as told by the
+   * versions of the nodes (see {@link Node#getVersion()}); all other
+   * nodes keep their output values from previous runs.  Variables
+   * change when their value is set or marked as changed, and
+   * placeholders when fed with a different or changed variable.
+   *
+   * Since the output values of all nodes serve as cache, an
+   * incremental session does not release intermediate results into
+   * its matrix pool.
+   */
+  public void setIncremental(final boolean incremental)
+  {
+    this.incremental = incremental;
+  }
+
+  public boolean isIncremental()
+  {
+    return incremental;
+  }
+
+  /**
+   * Enables or disables operator fusion, which is enabled by
+   * default.  When compiling the plan for a run, a session with
+   * operator fusion evaluates each tree of element-wise matrix
+   * operations, i.e. add, scale and activation, optionally on top of
+   * a matrix product, such as a dense layer, as a single kernel,
+   * without writing intermediate matrices; see {@link Fusion}.  An
+   * operation is fused into its consumer only if it is used once in
+   * the plan, is not a target node and reusing its output value has
+   * not been disabled explicitly (see {@link
+   * Operation#setReuseOutputValue(boolean)}).  Fused operations do
+   * not keep output values.
+   */
+  public void setOperatorFusion(final boolean operatorFusion)
+  {
+    if (operatorFusion != this.operatorFusion) {
+      this.operatorFusion = operatorFusion;
+      plans.clear();
+    }
+  }
+
+  public boolean isOperatorFusion()
+  {
+    return operatorFusion;
+  }
+
+  private void update(final Plan plan, final Node<?, ?> node,
+                      final FeedDictionary feedDictionary)
+  {
+    final Fusion fusion = plan.fusions.get(node);
+    if (fusion != null) {
+      fusion.update(feedDictionary, matrixPool, incremental);
+      return;
+    }
+    if (node instanceof Operation) {
+      ((Operation<?, ?>)node).setMatrixPool(matrixPool);
+    }
+    if (incremental) {
+      node.updateIncrementally(feedDictionary);
+    } else {
+      node.update(feedDictionary);
+    }
+  }
+
+  /**
+   * Returns the execution plan for the target nodes, which is
+   * compiled upon the first run for these targets, including operator
+   * fusion, if enabled, and cached for subsequent runs until the
+   * graph changes (see {@link Graph#getVersion()}), e.g. since nodes
+   * are added or reuse of output values is enabled or disabled.
+   */
+  private Plan getPlan(final List<Node<?, ?>> targetNodes)
+  {
+    final long version = Graph.getDefaultInstance().getVersion();
+    if (version != graphVersion) {
+      plans.clear();
+      graphVersion = version;
+    }
+    Plan plan = plans.get(targetNodes);
+    if (plan == null) {
+      final List<Node<?, ?>> key = List.copyOf(targetNodes);
+      plan = new Plan(key, operatorFusion);
+      plans.put(key, plan);
+    }
+    return plan;
+  }
+
   public Object run(final Node<?, ?> targetNode,
                     final FeedDictionary feedDictionary)
   {
     return run(List.of(targetNode), feedDictionary).get(0);
   }
 
+  /**
+   * Evaluates all nodes that the target nodes depend on, each once,
+   * and returns the output values of the target nodes.
+   *
+   * An operation that modifies nodes in place, such as the update of
+   * an optimizer (see {@link Operation#getModifiedNodes()}), is
+   * evaluated after all other nodes of the run that depend on the
+   * modified nodes, unless they depend on the operation itself.
+   * These nodes hence see the values from before the modification,
+   * whatever the order of the target nodes, and with inter-op
+   * parallelism, they never run concurrently with the modification.
+   *
+   * @exception IllegalArgumentException If operations that modify
+   * nodes in place depend on each other's modified nodes, such that
+   * no order satisfies all of them.
+   */
   public List<Object> run(final List<Node<?, ?>> targetNodes,
                           final FeedDictionary feedDictionary)
   {
-    final List<Node<?, ?>> nodesPostOrder = Node.traversePostOrder(targetNodes);
-    for (final Node<?, ?> node : nodesPostOrder) {
-      node.update(feedDictionary);
+    final Plan plan = getPlan(targetNodes);
+    if (interOpParallelism > 1) {
+      new Scheduler(plan, feedDictionary).run();
+    } else {
+      runSequentially(plan, feedDictionary);
+    }
+    return
+      targetNodes.stream().
+      map(Node<?, ?>::getOutputValue).collect(Collectors.toList());
+  }
+
+  private void runSequentially(final Plan plan,
+                               final FeedDictionary feedDictionary)
+  {
+    final List<Node<?, ?>> nodesPostOrder = plan.nodes;
+    for (int position = 0; position < nodesPostOrder.size(); position++) {
+      update(plan, nodesPostOrder.get(position), feedDictionary);
       /*
       if (node.getOutputValue() instanceof List) {
         // TODO: convert list into array:
         // node.setOutputValue(list2array((List<?>)node.getOuputValue()));
       }
       */
+      if ((matrixPool != null) && !incremental) {
+        releaseInputValues(plan, position);
+      }
     }
+  }
+
+  /**
+   * Returns true if the output value of the node is no longer needed
+   * once the node at the given position of the plan has been
+   * evaluated.
+   */
+  private static boolean isDead(final Node<?, ?> node, final int position,
+                                final Plan plan)
+  {
     return
-      targetNodes.stream().
-      map(Node<?, ?>::getOutputValue).collect(Collectors.toList());
+      (node instanceof Operation) &&
+      ((Operation<?, ?>)node).getReuseOutputValue() &&
+      !plan.targetNodes.contains(node) &&
+      (plan.positions.get(node) <= position) &&
+      (plan.lastUses.getOrDefault(node, -1) <= position);
+  }
+
+  /**
+   * Returns the output values of the inputs of the node at the given
+   * position into the pool, if no longer needed.
+   */
+  private void releaseInputValues(final Plan plan, final int position)
+  {
+    final Node<?, ?> node = plan.nodes.get(position);
+    for (final Node<?, ?> inputNode : plan.getInputNodes(node)) {
+      if (plan.lastUses.get(inputNode) == position) {
+        releaseIfDead(plan, inputNode,
+                      other -> isDead(other, position, plan));
+      }
+    }
+  }
+
+  /**
+   * Returns the output value of the node into the pool, if no longer
+   * needed.  Since in-place operations and views pass on the storage
+   * of their inputs, a value is released only if all nodes whose
+   * output values share its storage are dead; all of these nodes
+   * then lose their output values.
+   */
+  private void releaseIfDead(final Plan plan, final Node<?, ?> node,
+                             final Predicate<Node<?, ?>> isDead)
+  {
+    if (!(node.getOutputValue() instanceof Matrix) || !isDead.test(node)) {
+      return;
+    }
+    final Matrix value = (Matrix)node.getOutputValue();
+    final List<Node<?, ?>> aliases = new ArrayList<Node<?, ?>>();
+    for (final Node<?, ?> other : plan.nodes) {
+      final Object otherValue = other.getOutputValue();
+      if ((otherValue instanceof Matrix) &&
+          value.sharesStorageWith((Matrix)otherValue)) {
+        if (!isDead.test(other)) {
+          return;
+        }
+        aliases.add(other);
+      }
+    }
+    final List<Matrix> released = new ArrayList<Matrix>();
+    for (final Node<?, ?> alias : aliases) {
+      final Matrix aliasValue = (Matrix)alias.getOutputValue();
+      if (!released.stream().anyMatch(m -> m == aliasValue)) {
+        matrixPool.release(aliasValue);
+        released.add(aliasValue);
+      }
+      alias.setOutputValue(null);
+    }
   }
 }
 
@@ -0,0 +1,236 @@
+/*
+ * @(#)SparseMatrix.java 1.00 26/10/18
+ *
+ * Copyright (C) 2026 Jürgen Reuter
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.soundpaint.ml.common;
+
+import java.util.Arrays;
+
+/**
+ * Immutable matrix in compressed sparse row (CSR) format.  The column
+ * indices and values of the non-zero elements of row i are found at
+ * positions rowPointers[i] (inclusive) to rowPointers[i + 1]
+ * (exclusive) of the columnIndices and values arrays, with column
+ * indices strictly increasing within each row.
+ *
+ * Products with dense matrices take time proportional to the number
+ * of non-zero elements of this matrix rather than to its size, which
+ * pays off for inputs such as one-hot encodings.  Since zero elements
+ * are skipped, infinite or NaN elements of the dense operand do not
+ * propagate through them as they would in a dense product.
+ */
+public class SparseMatrix
+{
+  private final int rows;
+  private final int columns;
+  private final int[] rowPointers;
+  private final int[] columnIndices;
+  private final double[] values;
+
+  private SparseMatrix()
+  {
+    throw new UnsupportedOperationException("unsupported default constructor");
+  }
+
+  /**
+   * Creates a rows×columns matrix from the given CSR arrays, which
+   * are taken over without copying.
+   */
+  public SparseMatrix(final int rows, final int columns,
+                      final int[] rowPointers,
+                      final int[] columnIndices,
+                      final double[] values)
+  {
+    if (rowPointers == null) {
+      throw new NullPointerException("rowPointers");
+    }
+    if (columnIndices == null) {
+      throw new NullPointerException("columnIndices");
+    }
+    if (values == null) {
+      throw new NullPointerException("values");
+    }
+    if (rows < 0) {
+      throw new IllegalArgumentException("rows < 0: " + rows);
+    }
+    if (columns < 0) {
+      throw new IllegalArgumentException("columns < 0: " + columns);
+    }
+    if (rowPointers.length != rows + 1) {
+      throw new IllegalArgumentException("expected " + (rows + 1) +
+                                         " row pointers, got " +
+                                         rowPointers.length);
+    }
+    if (columnIndices.length != values.length) {
+      throw new IllegalArgumentException("column indices and values " +
+                                         "differ in length: " +
+                                         columnIndices.length + " != " +
+                                         values.length);
+    }
+    if ((rowPointers[0] != 0) || (rowPointers[rows] != values.length)) {
+      throw new IllegalArgumentException("row pointers do not span values");
+    }
+    for (int row = 0; row < rows; row++) {
+      if (rowPointers[row] > rowPointers[row + 1]) {
+        throw new IllegalArgumentException("decreasing row pointers at row " +
+                                           row);
+      }
+      int previousColumn = -1;
+      for (int p = rowPointers[row]; p < rowPointers[row + 1]; p++) {
+        final int column = columnIndices[p];
+        if ((column <= previousColumn) || (column >= columns)) {
+          throw new IllegalArgumentException("invalid column index " +
+                                             column + " in row " + row);
+        }
+        previousColumn = column;
+      }
+    }
+    this.rows = rows;
+    this.columns = columns;
+    this.rowPointers = rowPointers;
+    this.columnIndices = columnIndices;
+    this.values = values;
+  }
+
+  public static SparseMatrix fromMatrix(final Matrix matrix)
+  {
+    if (matrix == null) {
+      throw new NullPointerException("matrix");
+    }
+    return matrix.toSparse();
+  }
+
+  public int getRows()
+  {
+    return rows;
+  }
+
+  public int getColumns()
+  {
+    return columns;
+  }
+
+  public int getNonZeros()
+  {
+    return values.length;
+  }
+
+  int[] getRowPointers()
+  {
+    return rowPointers;
+  }
+
+  int[] getColumnIndices()
+  {
+    return columnIndices;
+  }
+
+  double[] getValues()
+  {
+    return values;
+  }
+
+  public double getElementAt(final int row, final int column)
+  {
+    if ((row < 0) || (row >= rows)) {
+      throw new IndexOutOfBoundsException("row " + row +
+                                          " out of bounds [0, " + rows + ")");
+    }
+    final int p =
+      Arrays.binarySearch(columnIndices,
+                          rowPointers[row], rowPointers[row + 1], column);
+    return p >= 0 ? values[p] : 0.0;
+  }
+
+  /**
+   * Returns a dense FLOAT64 copy of this matrix.
+   */
+  public Matrix toMatrix()
+  {
+    final Matrix matrix = Matrix.createZeros(columns, rows);
+    for (int row = 0; row < rows; row++) {
+      for (int p = rowPointers[row]; p < rowPointers[row + 1]; p++) {
+        matrix.setElementAt(row, columnIndices[p], values[p]);
+      }
+    }
+    return matrix;
+  }
+
+  /**
+   * Returns the transposed matrix, again in CSR format.  Takes time
+   * proportional to the number of non-zero elements plus columns.
+   */
+  public SparseMatrix transpose()
+  {
+    final int[] transposedPointers = new int[columns + 1];
+    for (final int column : columnIndices) {
+      transposedPointers[column + 1]++;
+    }
+    for (int column = 0; column < columns; column++) {
+      transposedPointers[column + 1] += transposedPointers[column];
+    }
+    final int[] next = Arrays.copyOf(transposedPointers, columns);
+    final int[] transposedIndices = new int[values.length];
+    final double[] transposedValues = new double[values.length];
+    for (int row = 0; row < rows; row++) {
+      for (int p = rowPointers[row]; p < rowPointers[row + 1]; p++) {
+        final int q = next[columnIndices[p]]++;
+        transposedIndices[q] = row;
+        transposedValues[q] = values[p];
+      }
+    }
+    return new SparseMatrix(columns, rows, transposedPointers,
+                            transposedIndices, transposedValues);
+  }
+
+  public Matrix dot(final Matrix other)
+  {
+    if (other == null) {
+      throw new NullPointerException("other");
+    }
+    return dotInto(other,
+                   Matrix.createZeros(other.getColumns(), rows,
+                                      other.getDataType()));
+  }
+
+  /**
+   * Writes the product of this sparse matrix and the dense other
+   * matrix into the target, which must have shape
+   * rows×other.columns and must not share storage with the other
+   * matrix.
+   */
+  public Matrix dotInto(final Matrix other, final Matrix target)
+  {
+    if (other == null) {
+      throw new NullPointerException("other");
+    }
+    return other.sparseDotInto(this, target);
+  }
+
+  public String toString()
+  {
+    return "SparseMatrix(rows=" + rows + ", columns=" + columns +
+      ", nonZeros=" + values.length + ")";
+  }
+}
+
+/*
+ * Local Variables:
+ *   coding:utf-8
+ *   mode:Java
+ * End:
+ */
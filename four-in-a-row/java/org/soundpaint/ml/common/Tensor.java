@@ -0,0 +1,529 @@
+/*
+ * @(#)Tensor.java 1.00 26/10/18
+ *
+ * Copyright (C) 2026 Jürgen Reuter
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.soundpaint.ml.common;
+
+import java.util.List;
+import java.util.function.DoubleUnaryOperator;
+
+/**
+ * Rank-3 tensor of shape batches×rows×columns, i.e. a batch of
+ * equally shaped matrices.  The tensor is stored as a single stacked
+ * (batches·rows)×columns matrix, with batch element b occupying rows
+ * b·rows to (b + 1)·rows − 1, such that element-wise operations on
+ * whole tensors and products with a matrix shared by all batch
+ * elements run as a single kernel call.
+ *
+ * Binary operations broadcast over the batch dimension: an operand
+ * with a batch size of 1 is paired with each batch element of the
+ * other operand.  Within each batch element, add and multiply
+ * broadcast rows and columns like the corresponding {@link Matrix}
+ * operations.
+ */
+public class Tensor
+{
+  /**
+   * Products up to this number of multiply-adds per batch element
+   * are distributed over batch elements rather than computed one
+   * after another with each product distributed on its own.
+   */
+  private static final long SMALL_PRODUCT = 64 * 64 * 64;
+
+  private final int batches;
+  private final int rows;
+  private final Matrix stacked;
+
+  private Tensor()
+  {
+    throw new UnsupportedOperationException("unsupported default constructor");
+  }
+
+  private Tensor(final int batches, final int rows, final Matrix stacked)
+  {
+    assert stacked.getRows() == batches * rows : "stacked rows mismatch";
+    this.batches = batches;
+    this.rows = rows;
+    this.stacked = stacked;
+  }
+
+  /**
+   * Creates a batches×rows×columns tensor filled with 0 values.
+   * Like for the matrix factories, columns precede rows.
+   */
+  public static Tensor createZeros(final int batches,
+                                   final int columns, final int rows)
+  {
+    return createZeros(batches, columns, rows, Matrix.DataType.FLOAT64);
+  }
+
+  public static Tensor createZeros(final int batches,
+                                   final int columns, final int rows,
+                                   final Matrix.DataType dataType)
+  {
+    if (batches < 1) {
+      throw new IllegalArgumentException("batches < 1");
+    }
+    return new Tensor(batches, rows,
+                      Matrix.createZeros(columns, batches * rows, dataType));
+  }
+
+  /**
+   * Creates a tensor from a copy of the given equally shaped
+   * matrices, with the promoted data type of all of them.
+   */
+  public static Tensor stack(final Matrix... matrices)
+  {
+    return stack(List.of(matrices));
+  }
+
+  public static Tensor stack(final List<Matrix> matrices)
+  {
+    if (matrices.isEmpty()) {
+      throw new IllegalArgumentException("no matrices to stack");
+    }
+    final Matrix first = matrices.get(0);
+    Matrix.DataType dataType = first.getDataType();
+    for (final Matrix matrix : matrices) {
+      if ((matrix.getRows() != first.getRows()) ||
+          (matrix.getColumns() != first.getColumns())) {
+        throw new IllegalArgumentException("shape mismatch: " +
+                                           matrix.getRows() + "×" +
+                                           matrix.getColumns() + " != " +
+                                           first.getRows() + "×" +
+                                           first.getColumns());
+      }
+      dataType = Matrix.DataType.promote(dataType, matrix.getDataType());
+    }
+    final Tensor tensor =
+      createZeros(matrices.size(), first.getColumns(), first.getRows(),
+                  dataType);
+    for (int batch = 0; batch < tensor.batches; batch++) {
+      matrices.get(batch).copyInto(tensor.getMatrix(batch));
+    }
+    return tensor;
+  }
+
+  /**
+   * Returns a tensor that views the given (batches·rows)×columns
+   * matrix as stack of batches matrices, sharing its storage.
+   */
+  public static Tensor fromStacked(final Matrix stacked, final int batches)
+  {
+    if (stacked == null) {
+      throw new NullPointerException("stacked");
+    }
+    if ((batches < 1) || (stacked.getRows() % batches != 0)) {
+      throw new IllegalArgumentException("rows " + stacked.getRows() +
+                                         " not divisible into " + batches +
+                                         " batches");
+    }
+    return new Tensor(batches, stacked.getRows() / batches, stacked);
+  }
+
+  /**
+   * Returns a tensor with a batch size of 1 that shares the storage
+   * of the matrix, e.g. for broadcasting it over the batch of another
+   * tensor.
+   */
+  public static Tensor fromMatrix(final Matrix matrix)
+  {
+    return fromStacked(matrix, 1);
+  }
+
+  /**
+   * Returns the candidate tensor if its stacked matrix may serve as
+   * target for a kernel result of shape batches×rows×columns as
+   * decided by {@link Matrix#reuseOrCreate(Matrix, MatrixPool, int,
+   * int, Matrix...)}, or else a new tensor, drawn from the pool if
+   * not null.
+   */
+  public static Tensor reuseOrCreate(final Tensor candidate,
+                                     final MatrixPool pool,
+                                     final int batches,
+                                     final int rows, final int columns,
+                                     final Tensor... operands)
+  {
+    final Matrix[] stackedOperands = new Matrix[operands.length];
+    for (int i = 0; i < operands.length; i++) {
+      stackedOperands[i] = operands[i].stacked;
+    }
+    final Matrix stacked =
+      Matrix.reuseOrCreate(candidate != null ? candidate.stacked : null,
+                           pool, batches * rows, columns, stackedOperands);
+    return
+      (candidate != null) && (stacked == candidate.stacked) &&
+      (candidate.batches == batches) ?
+      candidate : new Tensor(batches, rows, stacked);
+  }
+
+  public int getBatches()
+  {
+    return batches;
+  }
+
+  public int getRows()
+  {
+    return rows;
+  }
+
+  public int getColumns()
+  {
+    return stacked.getColumns();
+  }
+
+  public Matrix.DataType getDataType()
+  {
+    return stacked.getDataType();
+  }
+
+  /**
+   * Returns the batch element with the given index as view that
+   * shares storage with this tensor.
+   */
+  public Matrix getMatrix(final int batch)
+  {
+    if ((batch < 0) || (batch >= batches)) {
+      throw new IndexOutOfBoundsException("batch " + batch +
+                                          " out of bounds [0, " +
+                                          batches + ")");
+    }
+    return stacked.rowRangeView(batch * rows, (batch + 1) * rows);
+  }
+
+  /**
+   * Returns the stacked (batches·rows)×columns matrix that holds the
+   * elements of this tensor, without copying.
+   */
+  public Matrix getStacked()
+  {
+    return stacked;
+  }
+
+  public double getElementAt(final int batch, final int row, final int column)
+  {
+    return getMatrix(batch).getElementAt(row, column);
+  }
+
+  public void setElementAt(final int batch, final int row, final int column,
+                           final double value)
+  {
+    getMatrix(batch).setElementAt(row, column, value);
+  }
+
+  private static int broadcastBatches(final Tensor a, final Tensor b)
+  {
+    return Matrix.broadcast("batches", a.batches, b.batches);
+  }
+
+  private void checkTarget(final Tensor target, final int batches,
+                           final int rows, final int columns)
+  {
+    if (target == null) {
+      throw new NullPointerException("target");
+    }
+    if ((target.batches != batches) || (target.rows != rows) ||
+        (target.getColumns() != columns)) {
+      throw new IllegalArgumentException("target shape mismatch: " +
+                                         target.batches + "×" +
+                                         target.rows + "×" +
+                                         target.getColumns() + " != " +
+                                         batches + "×" + rows + "×" +
+                                         columns);
+    }
+  }
+
+  /**
+   * Returns the batched matrix product, pairing the batch elements of
+   * this and the other tensor, with broadcasting over the batch
+   * dimension.
+   */
+  public Tensor dot(final Tensor other)
+  {
+    if (other == null) {
+      throw new NullPointerException("other");
+    }
+    return dotInto(other,
+                   createZeros(broadcastBatches(this, other),
+                               other.getColumns(), rows,
+                               Matrix.DataType.promote(getDataType(),
+                                                       other.getDataType())));
+  }
+
+  /**
+   * Returns the product of each batch element with the matrix.
+   */
+  public Tensor dot(final Matrix other)
+  {
+    return dot(fromMatrix(other));
+  }
+
+  /**
+   * Writes the batched matrix product into the target, which must
+   * have the shape of the result and must not share storage with
+   * either operand.  If the other tensor has a batch size of 1, the
+   * product runs as a single GEMM of the stacked matrix.  Otherwise,
+   * small products are distributed over batch elements, while large
+   * products distribute their rows on their own.
+   */
+  public Tensor dotInto(final Tensor other, final Tensor target)
+  {
+    if (other == null) {
+      throw new NullPointerException("other");
+    }
+    if (other.rows != getColumns()) {
+      throw new IllegalArgumentException("size mismatch: " + other.rows +
+                                         " != " + getColumns());
+    }
+    final int resultBatches = broadcastBatches(this, other);
+    checkTarget(target, resultBatches, rows, other.getColumns());
+    if (other.batches == 1) {
+      stacked.dotInto(other.stacked, target.stacked);
+      return target;
+    }
+    final long productSize = (long)rows * getColumns() * other.getColumns();
+    final ExecutionPolicy policy =
+      stacked.selectExecutionPolicy(other.stacked, target.stacked);
+    if (productSize <= SMALL_PRODUCT) {
+      policy.forEachRowBlock(resultBatches, productSize,
+                             (fromBatch, toBatch) -> {
+          for (int batch = fromBatch; batch < toBatch; batch++) {
+            getMatrix(batches == 1 ? 0 : batch).
+              dotInto(other.getMatrix(batch), target.getMatrix(batch),
+                      ExecutionPolicy.sequential());
+          }
+        });
+    } else {
+      for (int batch = 0; batch < resultBatches; batch++) {
+        getMatrix(batches == 1 ? 0 : batch).
+          dotInto(other.getMatrix(batch), target.getMatrix(batch), policy);
+      }
+    }
+    return target;
+  }
+
+  private enum Combination { SUM, PRODUCT };
+
+  private Tensor createCombined(final Tensor other)
+  {
+    if (other == null) {
+      throw new NullPointerException("other");
+    }
+    return
+      createZeros(broadcastBatches(this, other),
+                  Matrix.broadcast("columns",
+                                   getColumns(), other.getColumns()),
+                  Matrix.broadcast("rows", rows, other.rows),
+                  Matrix.DataType.promote(getDataType(),
+                                          other.getDataType()));
+  }
+
+  private Tensor combineInto(final Tensor other, final Tensor target,
+                             final Combination combination)
+  {
+    if (other == null) {
+      throw new NullPointerException("other");
+    }
+    final int resultBatches = broadcastBatches(this, other);
+    checkTarget(target, resultBatches,
+                Matrix.broadcast("rows", rows, other.rows),
+                Matrix.broadcast("columns",
+                                 getColumns(), other.getColumns()));
+    if ((batches == other.batches) && (rows == other.rows)) {
+      // batch elements line up in the stacked matrices => one call
+      combine(stacked, other.stacked, target.stacked, combination);
+    } else {
+      for (int batch = 0; batch < resultBatches; batch++) {
+        combine(getMatrix(batches == 1 ? 0 : batch),
+                other.getMatrix(other.batches == 1 ? 0 : batch),
+                target.getMatrix(batch), combination);
+      }
+    }
+    return target;
+  }
+
+  private static void combine(final Matrix x, final Matrix y,
+                              final Matrix target,
+                              final Combination combination)
+  {
+    switch (combination) {
+    case SUM:
+      x.addInto(y, target);
+      break;
+    case PRODUCT:
+      x.multiplyInto(y, target);
+      break;
+    default:
+      throw new IllegalStateException("unexpected case fall-through");
+    }
+  }
+
+  /**
+   * Returns the element-wise sum of this and the other tensor, with
+   * broadcasting over batch elements, rows and columns.
+   */
+  public Tensor add(final Tensor other)
+  {
+    return addInto(other, createCombined(other));
+  }
+
+  /**
+   * Writes the sum of {@link #add(Tensor)} into the target, which
+   * must have the shape of the result and may be identical with
+   * either operand, but must not otherwise overlap with them.
+   */
+  public Tensor addInto(final Tensor other, final Tensor target)
+  {
+    return combineInto(other, target, Combination.SUM);
+  }
+
+  /**
+   * Returns the element-wise product of this and the other tensor,
+   * with broadcasting over batch elements, rows and columns.
+   */
+  public Tensor multiply(final Tensor other)
+  {
+    return multiplyInto(other, createCombined(other));
+  }
+
+  public Tensor multiplyInto(final Tensor other, final Tensor target)
+  {
+    return combineInto(other, target, Combination.PRODUCT);
+  }
+
+  /**
+   * Returns the tensor of the transposed batch elements, as a copy
+   * of the data type of this tensor.
+   */
+  public Tensor transpose()
+  {
+    return transposeInto(createZeros(batches, rows, getColumns(),
+                                     getDataType()));
+  }
+
+  /**
+   * Writes the transposed batch elements into the target, which must
+   * have batches×columns×rows shape and must not share storage with
+   * this tensor.
+   */
+  public Tensor transposeInto(final Tensor target)
+  {
+    checkTarget(target, batches, getColumns(), rows);
+    for (int batch = 0; batch < batches; batch++) {
+      getMatrix(batch).transposeInto(target.getMatrix(batch));
+    }
+    return target;
+  }
+
+  /**
+   * Writes this tensor, summed up over each dimension in which the
+   * target has a size of 1 but this tensor has not, into the target,
+   * which must otherwise have the shape of this tensor and must not
+   * share storage with it.  This reverses the broadcasting of an
+   * operand to the shape of this tensor, e.g. for the gradient of a
+   * broadcast operand.
+   */
+  public Tensor sumToShapeInto(final Tensor target)
+  {
+    if (target == null) {
+      throw new NullPointerException("target");
+    }
+    final boolean sumBatches = target.batches != batches;
+    if ((sumBatches && (target.batches != 1)) ||
+        ((target.rows != rows) && (target.rows != 1)) ||
+        ((target.getColumns() != getColumns()) &&
+         (target.getColumns() != 1))) {
+      throw new IllegalArgumentException("can not sum up " +
+                                         batches + "×" + rows + "×" +
+                                         getColumns() + " tensor to shape " +
+                                         target.batches + "×" +
+                                         target.rows + "×" +
+                                         target.getColumns());
+    }
+    if (!sumBatches) {
+      for (int batch = 0; batch < batches; batch++) {
+        sumToShape(getMatrix(batch), target.getMatrix(batch));
+      }
+      return target;
+    }
+    final Matrix sum =
+      (target.rows == rows) && (target.getColumns() == getColumns()) ?
+      target.stacked :
+      Matrix.createZeros(getColumns(), rows, getDataType());
+    getMatrix(0).copyInto(sum);
+    for (int batch = 1; batch < batches; batch++) {
+      sum.addInto(getMatrix(batch), sum);
+    }
+    if (sum != target.stacked) {
+      sumToShape(sum, target.stacked);
+    }
+    return target;
+  }
+
+  private static void sumToShape(final Matrix x, final Matrix target)
+  {
+    final boolean sumRows = target.getRows() != x.getRows();
+    final boolean sumColumns = target.getColumns() != x.getColumns();
+    if (sumRows && sumColumns) {
+      x.reduceSum().copyInto(target);
+    } else if (sumRows) {
+      x.reduceSumInto(Matrix.Direction.VERTICAL, target);
+    } else if (sumColumns) {
+      x.reduceSumInto(Matrix.Direction.HORIZONTAL, target);
+    } else {
+      x.copyInto(target);
+    }
+  }
+
+  public Tensor scale(final double scale)
+  {
+    return new Tensor(batches, rows, stacked.scale(scale));
+  }
+
+  public Tensor map(final DoubleUnaryOperator function)
+  {
+    return new Tensor(batches, rows, stacked.map(function));
+  }
+
+  public Tensor mapInto(final DoubleUnaryOperator function,
+                        final Tensor target)
+  {
+    checkTarget(target, batches, rows, getColumns());
+    stacked.mapInto(function, target.stacked);
+    return target;
+  }
+
+  public String toString()
+  {
+    final StringBuilder s = new StringBuilder();
+    for (int batch = 0; batch < batches; batch++) {
+      if (s.length() > 0) {
+        s.append(", ");
+      }
+      s.append(getMatrix(batch).toString());
+    }
+    return "Tensor(batches=" + batches + ", rows=" + rows +
+      ", columns=" + getColumns() + ", contents={" + s + "})";
+  }
+}
+
+/*
+ * Local Variables:
+ *   coding:utf-8
+ *   mode:Java
+ * End:
+ */
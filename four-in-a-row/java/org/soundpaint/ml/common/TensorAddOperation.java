@@ -0,0 +1,85 @@
+/*
+ * @(#)TensorAddOperation.java 1.00 26/10/18
+ *
+ * Copyright (C) 2026 Jürgen Reuter
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.soundpaint.ml.common;
+
+import java.util.List;
+
+/**
+ * Computes the element-wise sum of two tensors with broadcasting; see
+ * {@link Tensor#add(Tensor)}.
+ */
+public class TensorAddOperation extends Operation<Tensor, Tensor>
+{
+  public TensorAddOperation(final Tensor x,
+                            final Tensor y)
+  {
+    this(new Variable<Tensor>(x), new Variable<Tensor>(y));
+  }
+
+  public TensorAddOperation(final Node<Tensor, Tensor> x,
+                            final Tensor y)
+  {
+    this(x, new Variable<Tensor>(y));
+  }
+
+  public TensorAddOperation(final Node<Tensor, Tensor> x,
+                            final Node<Tensor, Tensor> y)
+  {
+    super("tensoraddop", List.of(x, y));
+  }
+
+  public Tensor performOperation()
+  {
+    if (inputValues.size() != 2) {
+      throw new IllegalArgumentException("require 2 operands, got: " +
+                                         inputValues.size());
+    }
+    final Tensor x = inputValues.get(0);
+    final Tensor y = inputValues.get(1);
+    final Tensor output =
+      Tensor.reuseOrCreate(getReusableOutputValue(), getMatrixPool(),
+                           Matrix.broadcast("batches",
+                                            x.getBatches(), y.getBatches()),
+                           Matrix.broadcast("rows",
+                                            x.getRows(), y.getRows()),
+                           Matrix.broadcast("columns",
+                                            x.getColumns(), y.getColumns()),
+                           x, y);
+    return x.addInto(y, output);
+  }
+
+  /**
+   * The gradient with respect to a broadcast operand is summed up
+   * over the stretched dimensions, including the batch dimension.
+   */
+  @Override
+  public Node<?, Tensor> createGradient(final int index,
+                                        final Node<?, Tensor> outputGradient)
+  {
+    return new TensorSumToShapeOperation(outputGradient,
+                                         getInputNodes().get(index));
+  }
+}
+
+/*
+ * Local Variables:
+ *   coding:utf-8
+ *   mode:Java
+ * End:
+ */
@@ -0,0 +1,87 @@
+/*
+ * @(#)TensorMultiplyOperation.java 1.00 26/10/18
+ *
+ * Copyright (C) 2026 Jürgen Reuter
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.soundpaint.ml.common;
+
+import java.util.List;
+
+/**
+ * Computes the batched matrix product of two tensors; see {@link
+ * Tensor#dot(Tensor)}.
+ */
+public class TensorMultiplyOperation extends Operation<Tensor, Tensor>
+{
+  public TensorMultiplyOperation(final Tensor x,
+                                 final Tensor y)
+  {
+    this(new Variable<Tensor>(x), new Variable<Tensor>(y));
+  }
+
+  public TensorMultiplyOperation(final Node<Tensor, Tensor> x,
+                                 final Tensor y)
+  {
+    this(x, new Variable<Tensor>(y));
+  }
+
+  public TensorMultiplyOperation(final Node<?, Tensor> x,
+                                 final Node<?, Tensor> y)
+  {
+    super("tensormultiplyop", List.of(x, y));
+  }
+
+  public Tensor performOperation()
+  {
+    if (inputValues.size() != 2) {
+      throw new IllegalArgumentException("require 2 operands, got: " +
+                                         inputValues.size());
+    }
+    final Tensor x = inputValues.get(0);
+    final Tensor y = inputValues.get(1);
+    final Tensor output =
+      Tensor.reuseOrCreate(getReusableOutputValue(), getMatrixPool(),
+                           Matrix.broadcast("batches",
+                                            x.getBatches(), y.getBatches()),
+                           x.getRows(), y.getColumns(), x, y);
+    return x.dotInto(y, output);
+  }
+
+  /**
+   * For output x·y and output gradient g, the gradients are the
+   * batched products g·yᵀ and xᵀ·g, summed up over the batch
+   * elements if the operand has been broadcast over them.
+   */
+  @Override
+  public Node<?, Tensor> createGradient(final int index,
+                                        final Node<?, Tensor> outputGradient)
+  {
+    final Node<?, Tensor> other = getInputNodes().get(1 - index);
+    final Node<?, Tensor> otherTransposed = new TensorTransposeOperation(other);
+    final Node<?, Tensor> gradient =
+      index == 0 ?
+      new TensorMultiplyOperation(outputGradient, otherTransposed) :
+      new TensorMultiplyOperation(otherTransposed, outputGradient);
+    return new TensorSumToShapeOperation(gradient, getInputNodes().get(index));
+  }
+}
+
+/*
+ * Local Variables:
+ *   coding:utf-8
+ *   mode:Java
+ * End:
+ */
@@ -0,0 +1,63 @@
+/*
+ * @(#)TensorSumToShapeOperation.java 1.00 26/10/18
+ *
+ * Copyright (C) 2026 Jürgen Reuter
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.soundpaint.ml.common;
+
+import java.util.List;
+
+/**
+ * Sums up a tensor over the batch elements, rows or columns to the
+ * shape of a reference tensor, thereby reversing broadcasting; see
+ * {@link Tensor#sumToShapeInto(Tensor)}.
+ */
+public class TensorSumToShapeOperation extends Operation<Tensor, Tensor>
+{
+  public TensorSumToShapeOperation(final Node<?, Tensor> x,
+                                   final Node<?, Tensor> reference)
+  {
+    super("tensorsumtoshapeop", List.of(x, reference));
+  }
+
+  public Tensor performOperation()
+  {
+    if (inputValues.size() != 2) {
+      throw new IllegalArgumentException("require 2 operands, got: " +
+                                         inputValues.size());
+    }
+    final Tensor x = inputValues.get(0);
+    final Tensor reference = inputValues.get(1);
+    final int batches = reference.getBatches();
+    final int rows = reference.getRows();
+    final int columns = reference.getColumns();
+    if ((batches == x.getBatches()) && (rows == x.getRows()) &&
+        (columns == x.getColumns())) {
+      return x;
+    }
+    final Tensor output =
+      Tensor.reuseOrCreate(getReusableOutputValue(), getMatrixPool(),
+                           batches, rows, columns, x);
+    return x.sumToShapeInto(output);
+  }
+}
+
+/*
+ * Local Variables:
+ *   coding:utf-8
+ *   mode:Java
+ * End:
+ */
@@ -0,0 +1,66 @@
+/*
+ * @(#)TensorTransposeOperation.java 1.00 26/10/18
+ *
+ * Copyright (C) 2026 Jürgen Reuter
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.soundpaint.ml.common;
+
+import java.util.List;
+
+/**
+ * Transposes each batch element of a tensor.  Like for {@link
+ * MatrixTransposeOperation}, the output value is a copy rather than a
+ * view of the input value.
+ */
+public class TensorTransposeOperation extends Operation<Tensor, Tensor>
+{
+  public TensorTransposeOperation(final Tensor x)
+  {
+    this(new Variable<Tensor>(x));
+  }
+
+  public TensorTransposeOperation(final Node<?, Tensor> x)
+  {
+    super("tensortransposeop", List.of(x));
+  }
+
+  public Tensor performOperation()
+  {
+    if (inputValues.size() != 1) {
+      throw new IllegalArgumentException("require 1 operand, got: " +
+                                         inputValues.size());
+    }
+    final Tensor x = inputValues.get(0);
+    final Tensor output =
+      Tensor.reuseOrCreate(getReusableOutputValue(), getMatrixPool(),
+                           x.getBatches(), x.getColumns(), x.getRows(), x);
+    return x.transposeInto(output);
+  }
+
+  @Override
+  public Node<?, Tensor> createGradient(final int index,
+                                        final Node<?, Tensor> outputGradient)
+  {
+    return new TensorTransposeOperation(outputGradient);
+  }
+}
+
+/*
+ * Local Variables:
+ *   coding:utf-8
+ *   mode:Java
+ * End:
+ */
@@ -18,13 +18,15 @@
  */
 package org.soundpaint.ml.common;
 
+import java.util.concurrent.atomic.AtomicInteger;
+
 public class Uid
 {
-  private static int count = 0;
+  private static final AtomicInteger count = new AtomicInteger();
 
   public static int createUniqueId()
   {
-    return count++;
+    return count.getAndIncrement();
   }
 }
 
@@ -129,7 +129,23 @@ public class Variable<T> extends Node<T, T>
                                                     final int columns,
                                                     final int rows)
   {
-    return create(Matrix.createRandomNormal(columns, rows, σ, µ));
+    final Matrix matrix = Matrix.createRandomNormal(columns, rows, σ, µ);
+    return create(matrix, MatrixInitializer.createRandomNormal(matrix, σ, µ));
+  }
+
+  /**
+   * Creates a variable with samples of the truncated normal
+   * distribution, as by {@link Matrix#createTruncatedNormal(int, int,
+   * double, double)}, which are redrawn upon initialization.
+   */
+  public static Variable<Matrix> createTruncatedNormal(final double σ,
+                                                       final double µ,
+                                                       final int columns,
+                                                       final int rows)
+  {
+    final Matrix matrix = Matrix.createTruncatedNormal(columns, rows, σ, µ);
+    return create(matrix,
+                  MatrixInitializer.createTruncatedNormal(matrix, σ, µ));
   }
 
   public T getValue()
@@ -137,6 +153,30 @@ public class Variable<T> extends Node<T, T>
     return value;
   }
 
+  /**
+   * Replaces the value of this variable, such that incremental
+   * sessions re-evaluate all nodes depending on it.
+   */
+  public void setValue(final T value)
+  {
+    if (value == null) {
+      throw new NullPointerException("value");
+    }
+    this.value = value;
+    incrementVersion();
+  }
+
+  /**
+   * Marks the value of this variable as changed.  Must be called
+   * after modifying the value in place, e.g. updating the elements
+   * of a weight matrix, for incremental sessions to notice the
+   * change.
+   */
+  public void markChanged()
+  {
+    incrementVersion();
+  }
+
   @Override
   public void update(final FeedDictionary feedDictionary)
   {
@@ -149,10 +189,17 @@ public class Variable<T> extends Node<T, T>
       new Operation<Void, Void>("initvar",
                                 new ArrayList<Node<Void, Void>>())
     {
+      @Override
+      public boolean isPure()
+      {
+        return false;
+      }
+
       public Void performOperation()
       {
         if (initializer != null) {
           value = initializer.createInitialValue();
+          markChanged();
         } else {
           // no initializer available => keep value of variable
           // unmodified
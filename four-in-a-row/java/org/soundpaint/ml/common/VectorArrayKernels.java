@@ -0,0 +1,453 @@
+/*
+ * @(#)VectorArrayKernels.java 1.00 26/10/18
+ *
+ * Copyright (C) 2026 Jürgen Reuter
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.soundpaint.ml.common;
+
+import jdk.incubator.vector.DoubleVector;
+import jdk.incubator.vector.FloatVector;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * SIMD implementation of the array kernels on top of the JDK's
+ * incubating vector API.  Only instantiated reflectively by {@link
+ * ArrayKernels#getInstance()}, since compiling or loading this class
+ * requires the <code>jdk.incubator.vector</code> module.
+ *
+ * Element-wise kernels and the GEMM micro-kernel perform exactly the
+ * same floating-point operations per element as their scalar
+ * counterparts and hence produce identical results.  Sums and dot
+ * products accumulate in one partial sum per lane, and therefore may
+ * differ from the scalar results in the last bits.
+ */
+class VectorArrayKernels extends ArrayKernels
+{
+  private static final VectorSpecies<Double> SPECIES =
+    DoubleVector.SPECIES_PREFERRED;
+
+  /**
+   * Float species of the same bit size as SPECIES, hence with twice
+   * as many lanes; each float vector widens into two double vectors
+   * for accumulation in double precision.
+   */
+  private static final VectorSpecies<Float> FLOAT_SPECIES =
+    FloatVector.SPECIES_PREFERRED;
+
+  /**
+   * Species for the 4-column slivers of the GEMM micro-kernel, or
+   * null if the hardware does not support at least 256 bit wide
+   * vectors, in which case the scalar micro-kernel is faster.
+   */
+  private static final VectorSpecies<Double> TILE_SPECIES =
+    SPECIES.vectorBitSize() >= 256 ? DoubleVector.SPECIES_256 : null;
+
+  VectorArrayKernels()
+  {
+  }
+
+  @Override
+  String getId()
+  {
+    return "vector(" + SPECIES + ")";
+  }
+
+  @Override
+  void add(final double[] a, final int aIndex,
+           final double[] b, final int bIndex,
+           final double[] c, final int cIndex,
+           final int length)
+  {
+    final int bound = SPECIES.loopBound(length);
+    int i = 0;
+    for (; i < bound; i += SPECIES.length()) {
+      final DoubleVector va = DoubleVector.fromArray(SPECIES, a, aIndex + i);
+      final DoubleVector vb = DoubleVector.fromArray(SPECIES, b, bIndex + i);
+      va.add(vb).intoArray(c, cIndex + i);
+    }
+    for (; i < length; i++) {
+      c[cIndex + i] = a[aIndex + i] + b[bIndex + i];
+    }
+  }
+
+  @Override
+  void multiply(final double[] a, final int aIndex,
+                final double[] b, final int bIndex,
+                final double[] c, final int cIndex,
+                final int length)
+  {
+    final int bound = SPECIES.loopBound(length);
+    int i = 0;
+    for (; i < bound; i += SPECIES.length()) {
+      final DoubleVector va = DoubleVector.fromArray(SPECIES, a, aIndex + i);
+      final DoubleVector vb = DoubleVector.fromArray(SPECIES, b, bIndex + i);
+      va.mul(vb).intoArray(c, cIndex + i);
+    }
+    for (; i < length; i++) {
+      c[cIndex + i] = a[aIndex + i] * b[bIndex + i];
+    }
+  }
+
+  @Override
+  void add(final double[] a, final int aIndex,
+           final double value,
+           final double[] c, final int cIndex,
+           final int length)
+  {
+    final int bound = SPECIES.loopBound(length);
+    int i = 0;
+    for (; i < bound; i += SPECIES.length()) {
+      DoubleVector.fromArray(SPECIES, a, aIndex + i).
+        add(value).intoArray(c, cIndex + i);
+    }
+    for (; i < length; i++) {
+      c[cIndex + i] = a[aIndex + i] + value;
+    }
+  }
+
+  @Override
+  void scale(final double[] a, final int aIndex,
+             final double factor,
+             final double[] c, final int cIndex,
+             final int length)
+  {
+    final int bound = SPECIES.loopBound(length);
+    int i = 0;
+    for (; i < bound; i += SPECIES.length()) {
+      DoubleVector.fromArray(SPECIES, a, aIndex + i).
+        mul(factor).intoArray(c, cIndex + i);
+    }
+    for (; i < length; i++) {
+      c[cIndex + i] = a[aIndex + i] * factor;
+    }
+  }
+
+  /**
+   * Adds the lanes of the sums and compensations, continuing the
+   * compensated summation in scalar code.
+   */
+  private static double[] reduceCompensated(final DoubleVector sums,
+                                            final DoubleVector compensations)
+  {
+    double sum = 0.0;
+    double compensation = compensations.reduceLanes(VectorOperators.ADD);
+    for (final double value : sums.toArray()) {
+      final double t = sum + value;
+      final double v = t - sum;
+      compensation += (sum - (t - v)) + (value - v);
+      sum = t;
+    }
+    return new double[] {sum, compensation};
+  }
+
+  private static double sumCompensatedTail(final double[] sumAndCompensation,
+                                           final double[] a, final int from,
+                                           final int to)
+  {
+    double sum = sumAndCompensation[0];
+    double compensation = sumAndCompensation[1];
+    for (int i = from; i < to; i++) {
+      final double value = a[i];
+      final double t = sum + value;
+      final double v = t - sum;
+      compensation += (sum - (t - v)) + (value - v);
+      sum = t;
+    }
+    return sum + compensation;
+  }
+
+  @Override
+  double sumCompensated(final double[] a, final int aIndex,
+                        final int length)
+  {
+    final int bound = SPECIES.loopBound(length);
+    DoubleVector sums = DoubleVector.zero(SPECIES);
+    DoubleVector compensations = DoubleVector.zero(SPECIES);
+    int i = 0;
+    for (; i < bound; i += SPECIES.length()) {
+      final DoubleVector values =
+        DoubleVector.fromArray(SPECIES, a, aIndex + i);
+      final DoubleVector t = sums.add(values);
+      final DoubleVector v = t.sub(sums);
+      compensations =
+        compensations.add(sums.sub(t.sub(v)).add(values.sub(v)));
+      sums = t;
+    }
+    return sumCompensatedTail(reduceCompensated(sums, compensations),
+                              a, aIndex + i, aIndex + length);
+  }
+
+  @Override
+  void addCompensated(final double[] a, final int aIndex,
+                      final double[] sums, final double[] compensations,
+                      final int index, final int length)
+  {
+    final int bound = SPECIES.loopBound(length);
+    int i = 0;
+    for (; i < bound; i += SPECIES.length()) {
+      final DoubleVector values =
+        DoubleVector.fromArray(SPECIES, a, aIndex + i);
+      final DoubleVector sum =
+        DoubleVector.fromArray(SPECIES, sums, index + i);
+      final DoubleVector t = sum.add(values);
+      final DoubleVector v = t.sub(sum);
+      DoubleVector.fromArray(SPECIES, compensations, index + i).
+        add(sum.sub(t.sub(v)).add(values.sub(v))).
+        intoArray(compensations, index + i);
+      t.intoArray(sums, index + i);
+    }
+    for (; i < length; i++) {
+      final double value = a[aIndex + i];
+      final double sum = sums[index + i];
+      final double t = sum + value;
+      final double v = t - sum;
+      compensations[index + i] += (sum - (t - v)) + (value - v);
+      sums[index + i] = t;
+    }
+  }
+
+  @Override
+  double dot(final double[] a, final int aIndex,
+             final double[] b, final int bIndex,
+             final int length)
+  {
+    final int bound = SPECIES.loopBound(length);
+    DoubleVector sums = DoubleVector.zero(SPECIES);
+    int i = 0;
+    for (; i < bound; i += SPECIES.length()) {
+      final DoubleVector va = DoubleVector.fromArray(SPECIES, a, aIndex + i);
+      final DoubleVector vb = DoubleVector.fromArray(SPECIES, b, bIndex + i);
+      sums = sums.add(va.mul(vb));
+    }
+    double sum = sums.reduceLanes(VectorOperators.ADD);
+    for (; i < length; i++) {
+      sum += a[aIndex + i] * b[bIndex + i];
+    }
+    return sum;
+  }
+
+  @Override
+  void axpy(final double a,
+            final double[] x, final int xIndex,
+            final double[] y, final int yIndex,
+            final int length)
+  {
+    final int bound = SPECIES.loopBound(length);
+    int i = 0;
+    for (; i < bound; i += SPECIES.length()) {
+      final DoubleVector vx = DoubleVector.fromArray(SPECIES, x, xIndex + i);
+      final DoubleVector vy = DoubleVector.fromArray(SPECIES, y, yIndex + i);
+      vy.add(vx.mul(a)).intoArray(y, yIndex + i);
+    }
+    for (; i < length; i++) {
+      y[yIndex + i] += a * x[xIndex + i];
+    }
+  }
+
+  @Override
+  void add(final float[] a, final int aIndex,
+           final float[] b, final int bIndex,
+           final float[] c, final int cIndex,
+           final int length)
+  {
+    final int bound = FLOAT_SPECIES.loopBound(length);
+    int i = 0;
+    for (; i < bound; i += FLOAT_SPECIES.length()) {
+      final FloatVector va =
+        FloatVector.fromArray(FLOAT_SPECIES, a, aIndex + i);
+      final FloatVector vb =
+        FloatVector.fromArray(FLOAT_SPECIES, b, bIndex + i);
+      va.add(vb).intoArray(c, cIndex + i);
+    }
+    for (; i < length; i++) {
+      c[cIndex + i] = a[aIndex + i] + b[bIndex + i];
+    }
+  }
+
+  @Override
+  void multiply(final float[] a, final int aIndex,
+                final float[] b, final int bIndex,
+                final float[] c, final int cIndex,
+                final int length)
+  {
+    final int bound = FLOAT_SPECIES.loopBound(length);
+    int i = 0;
+    for (; i < bound; i += FLOAT_SPECIES.length()) {
+      final FloatVector va =
+        FloatVector.fromArray(FLOAT_SPECIES, a, aIndex + i);
+      final FloatVector vb =
+        FloatVector.fromArray(FLOAT_SPECIES, b, bIndex + i);
+      va.mul(vb).intoArray(c, cIndex + i);
+    }
+    for (; i < length; i++) {
+      c[cIndex + i] = a[aIndex + i] * b[bIndex + i];
+    }
+  }
+
+  @Override
+  void add(final float[] a, final int aIndex,
+           final float value,
+           final float[] c, final int cIndex,
+           final int length)
+  {
+    final int bound = FLOAT_SPECIES.loopBound(length);
+    int i = 0;
+    for (; i < bound; i += FLOAT_SPECIES.length()) {
+      FloatVector.fromArray(FLOAT_SPECIES, a, aIndex + i).
+        add(value).intoArray(c, cIndex + i);
+    }
+    for (; i < length; i++) {
+      c[cIndex + i] = a[aIndex + i] + value;
+    }
+  }
+
+  @Override
+  void scale(final float[] a, final int aIndex,
+             final float factor,
+             final float[] c, final int cIndex,
+             final int length)
+  {
+    final int bound = FLOAT_SPECIES.loopBound(length);
+    int i = 0;
+    for (; i < bound; i += FLOAT_SPECIES.length()) {
+      FloatVector.fromArray(FLOAT_SPECIES, a, aIndex + i).
+        mul(factor).intoArray(c, cIndex + i);
+    }
+    for (; i < length; i++) {
+      c[cIndex + i] = a[aIndex + i] * factor;
+    }
+  }
+
+  private static DoubleVector widen(final FloatVector v, final int part)
+  {
+    return (DoubleVector)v.convertShape(VectorOperators.F2D, SPECIES, part);
+  }
+
+  @Override
+  double sumCompensated(final float[] a, final int aIndex,
+                        final int length)
+  {
+    final int bound = FLOAT_SPECIES.loopBound(length);
+    DoubleVector sums = DoubleVector.zero(SPECIES);
+    DoubleVector compensations = DoubleVector.zero(SPECIES);
+    int i = 0;
+    for (; i < bound; i += FLOAT_SPECIES.length()) {
+      final FloatVector va =
+        FloatVector.fromArray(FLOAT_SPECIES, a, aIndex + i);
+      for (int part = 0; part < 2; part++) {
+        final DoubleVector values = widen(va, part);
+        final DoubleVector t = sums.add(values);
+        final DoubleVector v = t.sub(sums);
+        compensations =
+          compensations.add(sums.sub(t.sub(v)).add(values.sub(v)));
+        sums = t;
+      }
+    }
+    final double[] sumAndCompensation =
+      reduceCompensated(sums, compensations);
+    double sum = sumAndCompensation[0];
+    double compensation = sumAndCompensation[1];
+    for (; i < length; i++) {
+      final double value = a[aIndex + i];
+      final double t = sum + value;
+      final double v = t - sum;
+      compensation += (sum - (t - v)) + (value - v);
+      sum = t;
+    }
+    return sum + compensation;
+  }
+
+  @Override
+  double dot(final float[] a, final int aIndex,
+             final float[] b, final int bIndex,
+             final int length)
+  {
+    final int bound = FLOAT_SPECIES.loopBound(length);
+    DoubleVector sums = DoubleVector.zero(SPECIES);
+    int i = 0;
+    for (; i < bound; i += FLOAT_SPECIES.length()) {
+      final FloatVector va =
+        FloatVector.fromArray(FLOAT_SPECIES, a, aIndex + i);
+      final FloatVector vb =
+        FloatVector.fromArray(FLOAT_SPECIES, b, bIndex + i);
+      sums = sums.add(widen(va, 0).mul(widen(vb, 0)));
+      sums = sums.add(widen(va, 1).mul(widen(vb, 1)));
+    }
+    double sum = sums.reduceLanes(VectorOperators.ADD);
+    for (; i < length; i++) {
+      sum += (double)a[aIndex + i] * b[bIndex + i];
+    }
+    return sum;
+  }
+
+  @Override
+  void microKernel4x4(final int kc,
+                      final double[] packedA, int aIndex,
+                      final double[] packedB, int bIndex,
+                      final double[] c, final int cIndex,
+                      final int cRowStride,
+                      final int mr, final int nr)
+  {
+    if (TILE_SPECIES == null) {
+      super.microKernel4x4(kc, packedA, aIndex, packedB, bIndex,
+                           c, cIndex, cRowStride, mr, nr);
+      return;
+    }
+    DoubleVector c0 = DoubleVector.zero(TILE_SPECIES);
+    DoubleVector c1 = DoubleVector.zero(TILE_SPECIES);
+    DoubleVector c2 = DoubleVector.zero(TILE_SPECIES);
+    DoubleVector c3 = DoubleVector.zero(TILE_SPECIES);
+    for (int p = 0; p < kc; p++) {
+      final DoubleVector b =
+        DoubleVector.fromArray(TILE_SPECIES, packedB, bIndex);
+      c0 = c0.add(b.mul(packedA[aIndex]));
+      c1 = c1.add(b.mul(packedA[aIndex + 1]));
+      c2 = c2.add(b.mul(packedA[aIndex + 2]));
+      c3 = c3.add(b.mul(packedA[aIndex + 3]));
+      aIndex += 4;
+      bIndex += 4;
+    }
+    if ((mr == 4) && (nr == 4)) {
+      int index = cIndex;
+      DoubleVector.fromArray(TILE_SPECIES, c, index).add(c0).
+        intoArray(c, index);
+      index += cRowStride;
+      DoubleVector.fromArray(TILE_SPECIES, c, index).add(c1).
+        intoArray(c, index);
+      index += cRowStride;
+      DoubleVector.fromArray(TILE_SPECIES, c, index).add(c2).
+        intoArray(c, index);
+      index += cRowStride;
+      DoubleVector.fromArray(TILE_SPECIES, c, index).add(c3).
+        intoArray(c, index);
+    } else {
+      final double[] tile = new double[16];
+      c0.intoArray(tile, 0);
+      c1.intoArray(tile, 4);
+      c2.intoArray(tile, 8);
+      c3.intoArray(tile, 12);
+      addTile(tile, c, cIndex, cRowStride, mr, nr);
+    }
+  }
+}
+
+/*
+ * Local Variables:
+ *   coding:utf-8
+ *   mode:Java
+ * End:
+ */
@@ -21,6 +21,7 @@ package org.soundpaint.ml.four_in_a_row;
 import java.util.ArrayList;
 import java.util.HashSet;
 import java.util.List;
+import org.soundpaint.ml.common.SparseMatrix;
 
 public class GameModel
 {
@@ -148,6 +149,35 @@ public class GameModel
     return board[row][column];
   }
 
+  /**
+   * Returns the board as a 1×(players·rows·columns) matrix of one-hot
+   * planes, one plane per player in the order of Player.values(),
+   * each plane holding 1.0 for the cells occupied by that player in
+   * row-major order.  The encoding is returned in CSR format, such
+   * that a network layer applied on it costs time proportional to
+   * the number of occupied cells.
+   */
+  public SparseMatrix createSparseEncoding()
+  {
+    final Player[] players = Player.values();
+    final int[] columnIndices = new int[drawn];
+    final double[] values = new double[drawn];
+    int p = 0;
+    for (int plane = 0; plane < players.length; plane++) {
+      for (int row = 0; row < rows; row++) {
+        for (int column = 0; column < columns; column++) {
+          if (getPlayerAt(row, column) == players[plane]) {
+            columnIndices[p] = (plane * rows + row) * columns + column;
+            values[p] = 1.0;
+            p++;
+          }
+        }
+      }
+    }
+    return new SparseMatrix(1, players.length * rows * columns,
+                            new int[] {0, drawn}, columnIndices, values);
+  }
+
   private Player getPlayerFromDraw(final Integer draw)
   {
     if (draw == null) {
@@ -0,0 +1,123 @@
+/*
+ * @(#)AdamOptimizer.java 1.00 26/10/18
+ *
+ * Copyright (C) 2026 Jürgen Reuter
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.soundpaint.ml.optimizer;
+
+import org.soundpaint.ml.common.ElementwiseUpdate;
+
+/**
+ * Adam (Kingma, Ba: "Adam: A Method for Stochastic Optimization"):
+ * keeps exponentially decaying averages of the gradients and of
+ * their squares, and scales each element of the step by the ratio of
+ * both, corrected for their bias towards 0 in early steps.  As
+ * suggested in the paper, the bias correction is folded into the
+ * step size, such that epsilon applies to the uncorrected average.
+ */
+public class AdamOptimizer extends Optimizer
+{
+  public static final double DEFAULT_LEARNING_RATE = 0.001;
+  public static final double DEFAULT_BETA1 = 0.9;
+  public static final double DEFAULT_BETA2 = 0.999;
+  public static final double DEFAULT_EPSILON = 1.0e-8;
+
+  private final double beta1;
+  private final double beta2;
+  private final double epsilon;
+
+  public AdamOptimizer()
+  {
+    this(DEFAULT_LEARNING_RATE);
+  }
+
+  public AdamOptimizer(final double learningRate)
+  {
+    this(learningRate, DEFAULT_BETA1, DEFAULT_BETA2, DEFAULT_EPSILON);
+  }
+
+  public AdamOptimizer(final double learningRate,
+                       final double beta1, final double beta2,
+                       final double epsilon)
+  {
+    super(learningRate);
+    if (!(beta1 >= 0.0) || (beta1 >= 1.0)) {
+      throw new IllegalArgumentException("beta1 not in [0, 1): " + beta1);
+    }
+    if (!(beta2 >= 0.0) || (beta2 >= 1.0)) {
+      throw new IllegalArgumentException("beta2 not in [0, 1): " + beta2);
+    }
+    if (!(epsilon > 0.0)) {
+      throw new IllegalArgumentException("epsilon not positive: " +
+                                         epsilon);
+    }
+    this.beta1 = beta1;
+    this.beta2 = beta2;
+    this.epsilon = epsilon;
+  }
+
+  public double getBeta1()
+  {
+    return beta1;
+  }
+
+  public double getBeta2()
+  {
+    return beta2;
+  }
+
+  public double getEpsilon()
+  {
+    return epsilon;
+  }
+
+  @Override
+  protected int getStateCount()
+  {
+    return 2;
+  }
+
+  @Override
+  protected ElementwiseUpdate createUpdate()
+  {
+    final double step = getStep();
+    final double stepSize =
+      getLearningRate() * Math.sqrt(1.0 - Math.pow(beta2, step)) /
+      (1.0 - Math.pow(beta1, step));
+    final double beta1 = this.beta1;
+    final double beta2 = this.beta2;
+    final double epsilon = this.epsilon;
+    return (chunks, length) -> {
+      final double[] value = chunks[0];
+      final double[] mean = chunks[1];
+      final double[] variance = chunks[2];
+      final double[] gradient = chunks[3];
+      for (int i = 0; i < length; i++) {
+        final double g = gradient[i];
+        mean[i] = beta1 * mean[i] + (1.0 - beta1) * g;
+        variance[i] = beta2 * variance[i] + (1.0 - beta2) * g * g;
+        value[i] -= stepSize * mean[i] / (Math.sqrt(variance[i]) + epsilon);
+      }
+    };
+  }
+}
+
+/*
+ * Local Variables:
+ *   coding:utf-8
+ *   mode:Java
+ * End:
+ */
@@ -0,0 +1,59 @@
+/*
+ * @(#)GradientDescentOptimizer.java 1.00 26/10/18
+ *
+ * Copyright (C) 2026 Jürgen Reuter
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.soundpaint.ml.optimizer;
+
+import org.soundpaint.ml.common.ElementwiseUpdate;
+
+/**
+ * Plain stochastic gradient descent: each step subtracts the gradient
+ * scaled by the learning rate from the variable.
+ */
+public class GradientDescentOptimizer extends Optimizer
+{
+  public GradientDescentOptimizer(final double learningRate)
+  {
+    super(learningRate);
+  }
+
+  @Override
+  protected int getStateCount()
+  {
+    return 0;
+  }
+
+  @Override
+  protected ElementwiseUpdate createUpdate()
+  {
+    final double learningRate = getLearningRate();
+    return (chunks, length) -> {
+      final double[] value = chunks[0];
+      final double[] gradient = chunks[1];
+      for (int i = 0; i < length; i++) {
+        value[i] -= learningRate * gradient[i];
+      }
+    };
+  }
+}
+
+/*
+ * Local Variables:
+ *   coding:utf-8
+ *   mode:Java
+ * End:
+ */
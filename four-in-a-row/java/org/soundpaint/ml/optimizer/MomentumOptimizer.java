@@ -0,0 +1,94 @@
+/*
+ * @(#)MomentumOptimizer.java 1.00 26/10/18
+ *
+ * Copyright (C) 2026 Jürgen Reuter
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.soundpaint.ml.optimizer;
+
+import org.soundpaint.ml.common.ElementwiseUpdate;
+
+/**
+ * Gradient descent with momentum: a velocity accumulates the scaled
+ * gradients, decaying by the momentum factor per step, and is added
+ * to the variable.  With Nesterov momentum, the variable is updated
+ * by the velocity looked ahead by one more step.
+ */
+public class MomentumOptimizer extends Optimizer
+{
+  public static final double DEFAULT_MOMENTUM = 0.9;
+
+  private final double momentum;
+  private final boolean nesterov;
+
+  public MomentumOptimizer(final double learningRate)
+  {
+    this(learningRate, DEFAULT_MOMENTUM, false);
+  }
+
+  public MomentumOptimizer(final double learningRate,
+                           final double momentum,
+                           final boolean nesterov)
+  {
+    super(learningRate);
+    if (!(momentum >= 0.0) || (momentum >= 1.0)) {
+      throw new IllegalArgumentException("momentum not in [0, 1): " +
+                                         momentum);
+    }
+    this.momentum = momentum;
+    this.nesterov = nesterov;
+  }
+
+  public double getMomentum()
+  {
+    return momentum;
+  }
+
+  public boolean isNesterov()
+  {
+    return nesterov;
+  }
+
+  @Override
+  protected int getStateCount()
+  {
+    return 1;
+  }
+
+  @Override
+  protected ElementwiseUpdate createUpdate()
+  {
+    final double learningRate = getLearningRate();
+    final double momentum = this.momentum;
+    final boolean nesterov = this.nesterov;
+    return (chunks, length) -> {
+      final double[] value = chunks[0];
+      final double[] velocity = chunks[1];
+      final double[] gradient = chunks[2];
+      for (int i = 0; i < length; i++) {
+        final double step = -learningRate * gradient[i];
+        velocity[i] = momentum * velocity[i] + step;
+        value[i] += nesterov ? momentum * velocity[i] + step : velocity[i];
+      }
+    };
+  }
+}
+
+/*
+ * Local Variables:
+ *   coding:utf-8
+ *   mode:Java
+ * End:
+ */
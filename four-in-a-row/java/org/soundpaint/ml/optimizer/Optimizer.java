@@ -0,0 +1,233 @@
+/*
+ * @(#)Optimizer.java 1.00 26/10/18
+ *
+ * Copyright (C) 2026 Jürgen Reuter
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.soundpaint.ml.optimizer;
+
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.soundpaint.ml.common.ElementwiseUpdate;
+import org.soundpaint.ml.common.Gradients;
+import org.soundpaint.ml.common.Matrix;
+import org.soundpaint.ml.common.Node;
+import org.soundpaint.ml.common.Operation;
+import org.soundpaint.ml.common.Variable;
+
+/**
+ * Base class of gradient-based optimizers, which update the values of
+ * Matrix-valued variables in place.  Each variable, together with
+ * the state that the optimizer keeps for it, e.g. moment estimates,
+ * and its gradient, is updated in a single fused pass via {@link
+ * Matrix#updateElementwise(ElementwiseUpdate, Matrix[], Matrix...)}.
+ * The state matrices are allocated when a variable is updated for
+ * the first time and then reused for all further steps, such that an
+ * update step allocates no matrices.
+ */
+public abstract class Optimizer
+{
+  private final Map<Variable<Matrix>, Matrix[]> targets;
+  private double learningRate;
+  private long step;
+
+  private Optimizer()
+  {
+    throw new UnsupportedOperationException("unsupported default constructor");
+  }
+
+  protected Optimizer(final double learningRate)
+  {
+    targets = new IdentityHashMap<Variable<Matrix>, Matrix[]>();
+    setLearningRate(learningRate);
+  }
+
+  public void setLearningRate(final double learningRate)
+  {
+    if (!(learningRate > 0.0)) {
+      throw new IllegalArgumentException("learning rate not positive: " +
+                                         learningRate);
+    }
+    this.learningRate = learningRate;
+  }
+
+  public double getLearningRate()
+  {
+    return learningRate;
+  }
+
+  /**
+   * Returns the number of update steps applied so far.
+   */
+  public long getStep()
+  {
+    return step;
+  }
+
+  /**
+   * Returns the number of state matrices, each shaped like the
+   * variable, that this optimizer keeps per variable.
+   */
+  protected abstract int getStateCount();
+
+  /**
+   * Creates the update for the current step.  The update receives
+   * chunks of the variable value, of each state matrix and of the
+   * gradient, in this order, and updates the value and state
+   * chunks.
+   */
+  protected abstract ElementwiseUpdate createUpdate();
+
+  /**
+   * Returns the value of the variable followed by its state matrices,
+   * allocating the latter upon the first update of the variable.
+   */
+  private Matrix[] getTargets(final Variable<Matrix> variable)
+  {
+    final Matrix value = variable.getValue();
+    if (value == null) {
+      throw new IllegalStateException("variable not initialized: " +
+                                      variable.getId());
+    }
+    Matrix[] variableTargets = targets.get(variable);
+    if (variableTargets == null) {
+      variableTargets = new Matrix[1 + getStateCount()];
+      for (int i = 1; i < variableTargets.length; i++) {
+        variableTargets[i] =
+          Matrix.createZeros(value.getColumns(), value.getRows(),
+                             value.getDataType());
+      }
+      targets.put(variable, variableTargets);
+    } else if ((value.getRows() != variableTargets[0].getRows()) ||
+               (value.getColumns() != variableTargets[0].getColumns())) {
+      throw new IllegalStateException("shape of variable changed: " +
+                                      variable.getId());
+    }
+    variableTargets[0] = value;
+    return variableTargets;
+  }
+
+  /**
+   * Applies one update step to each of the variables, given the
+   * gradients of the loss with respect to their values.  A null
+   * gradient leaves the respective variable unchanged.  Updated
+   * variables are marked as changed, such that incremental sessions
+   * notice the update.
+   */
+  public void apply(final List<Variable<Matrix>> variables,
+                    final List<Matrix> gradients)
+  {
+    if (variables == null) {
+      throw new NullPointerException("variables");
+    }
+    if (gradients == null) {
+      throw new NullPointerException("gradients");
+    }
+    if (gradients.size() != variables.size()) {
+      throw new IllegalArgumentException("require " + variables.size() +
+                                         " gradients, got: " +
+                                         gradients.size());
+    }
+    step++;
+    final ElementwiseUpdate update = createUpdate();
+    for (int index = 0; index < variables.size(); index++) {
+      final Variable<Matrix> variable = variables.get(index);
+      final Matrix gradient = gradients.get(index);
+      if (gradient != null) {
+        Matrix.updateElementwise(update, getTargets(variable), gradient);
+        variable.markChanged();
+      }
+    }
+  }
+
+  /**
+   * Returns an operation that, each time it is evaluated, computes
+   * the gradients of the loss with respect to the variables, see
+   * {@link Gradients#gradients(Node, List)}, and applies one update
+   * step to the variables.  Evaluate the loss in the same run for
+   * reporting it without a second forward pass.  Variables that the
+   * loss does not depend on are left unchanged.
+   */
+  public Operation<Matrix, Void> minimize(final Node<?, ?> loss,
+                                          final List<Variable<Matrix>>
+                                          variables)
+  {
+    if (variables == null) {
+      throw new NullPointerException("variables");
+    }
+    final List<Node<?, ?>> gradients = Gradients.gradients(loss, variables);
+    final List<Variable<Matrix>> updatedVariables =
+      new ArrayList<Variable<Matrix>>();
+    final List<Node<?, Matrix>> gradientNodes =
+      new ArrayList<Node<?, Matrix>>();
+    for (int index = 0; index < variables.size(); index++) {
+      // the gradient has the type of the value of the variable
+      @SuppressWarnings("unchecked")
+      final Node<?, Matrix> gradient = (Node<?, Matrix>)gradients.get(index);
+      if (gradient != null) {
+        updatedVariables.add(variables.get(index));
+        gradientNodes.add(gradient);
+      }
+    }
+    return new UpdateOperation(updatedVariables, gradientNodes);
+  }
+
+  private class UpdateOperation extends Operation<Matrix, Void>
+  {
+    private final List<Variable<Matrix>> variables;
+
+    private UpdateOperation(final List<Variable<Matrix>> variables,
+                            final List<Node<?, Matrix>> gradients)
+    {
+      super("minimizeop", gradients);
+      this.variables = variables;
+    }
+
+    /**
+     * Updating variables is a side effect.
+     */
+    @Override
+    public boolean isPure()
+    {
+      return false;
+    }
+
+    /**
+     * The variables are updated in place, hence must not be read
+     * concurrently.
+     */
+    @Override
+    public List<? extends Node<?, ?>> getModifiedNodes()
+    {
+      return variables;
+    }
+
+    public Void performOperation()
+    {
+      apply(variables, inputValues);
+      return null;
+    }
+  }
+}
+
+/*
+ * Local Variables:
+ *   coding:utf-8
+ *   mode:Java
+ * End:
+ */